@@ -0,0 +1,57 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.DailySample;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap held per user, read off {@code gc.alloc.rate.norm}: each operation allocates one
+ * user's history and nothing else worth counting, so bytes per operation divided by
+ * {@code days} is the footprint per day. {@code columns} decodes the persisted segments
+ * (what a user costs once loaded or built); {@code boxedSamples} materialises the
+ * {@link DailySample} list the store used to keep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+
+    @Param({"365", "1825"})
+    int days;
+
+    private DailyColumns cols;
+    private ByteBuffer[] segments;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] csv = new HaeExportGenerator().days(days).rowsPerDay(4).bytes();
+        cols = DailyColumns.of(HaeCsvTokenizer.open(ByteBuffer.wrap(csv)).parse());
+        segments = new ByteBuffer[cols.segmentCount()];
+        for (int k = 0; k < segments.length; k++) {
+            segments[k] = ByteBuffer.allocate(cols.segment(k).serializedSize());
+            cols.segment(k).writeTo(segments[k]);
+            segments[k].flip();
+        }
+    }
+
+    @Benchmark
+    public DailyColumns columns() {
+        DailyColumns.Segment[] s = new DailyColumns.Segment[segments.length];
+        for (int k = 0; k < s.length; k++) s[k] = DailyColumns.Segment.readFrom(segments[k].duplicate(), k);
+        return DailyColumns.of(s);
+    }
+
+    @Benchmark
+    public List<DailySample> boxedSamples() {
+        List<DailySample> out = new ArrayList<>(cols.size());
+        for (int i = 0; i < cols.size(); i++) out.add(cols.sample(i));
+        return out;
+    }
+}
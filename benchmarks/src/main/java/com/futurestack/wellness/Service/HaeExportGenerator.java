@@ -0,0 +1,203 @@
+package com.futurestack.wellness.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic Health Auto Export CSVs with all 24 whitelisted headers. Each day is split
+ * into {@code rowsPerDay} rows (HAE's hourly export) with plausible per-row values;
+ * every metric cell is left blank with probability {@code missingRatio}, and with
+ * {@code mixedDates} each day picks one of the three date layouts the parser accepts.
+ * Output is deterministic for a given seed. {@link #jsonBytes()} writes the same cells as
+ * HAE's JSON export (one metric per column, one data point per non-blank cell).
+ *
+ * <pre>
+ *   java -cp target/benchmarks.jar com.futurestack.wellness.Service.HaeExportGenerator \
+ *        --days=365 --rows-per-day=24 --missing=0.1 --mixed-dates out.csv
+ * </pre>
+ */
+public final class HaeExportGenerator {
+
+    public static final String HEADER = "Date,Active Energy (kcal),Apple Exercise Time (min),Apple Stand Hour (count),"
+            + "Apple Stand Time (min),Blood Oxygen Saturation (%),Environmental Audio Exposure (dBASPL),"
+            + "Flights Climbed (count),Heart Rate [Min] (count/min),Heart Rate [Max] (count/min),"
+            + "Heart Rate [Avg] (count/min),Heart Rate Variability (ms),Physical Effort (kcal/hr·kg),"
+            + "Resting Energy (kcal),Resting Heart Rate (count/min),Stair Speed: Down (ft/s),Stair Speed: Up (ft/s),"
+            + "Step Count (count),Walking + Running Distance (mi),Walking Asymmetry Percentage (%),"
+            + "Walking Double Support Percentage (%),Walking Heart Rate Average (count/min),"
+            + "Walking Speed (mi/hr),Walking Step Length (in)";
+
+    // JSON metric name and units per CSV column (null: heart rate min/max/avg, written as one metric)
+    private static final String[][] JSON_METRICS = {
+            null, {"active_energy", "kcal"}, {"apple_exercise_time", "min"}, {"apple_stand_hour", "count"},
+            {"apple_stand_time", "min"}, {"blood_oxygen_saturation", "%"}, {"environmental_audio_exposure", "dBASPL"},
+            {"flights_climbed", "count"}, null, null, null, {"heart_rate_variability", "ms"},
+            {"physical_effort", "kcal/hr·kg"}, {"basal_energy_burned", "kcal"}, {"resting_heart_rate", "count/min"},
+            {"stair_speed_down", "ft/s"}, {"stair_speed_up", "ft/s"}, {"step_count", "count"},
+            {"walking_running_distance", "mi"}, {"walking_asymmetry_percentage", "%"},
+            {"walking_double_support_percentage", "%"}, {"walking_heart_rate_average", "count/min"},
+            {"walking_speed", "mi/hr"}, {"walking_step_length", "in"}};
+
+    private int days = 30, rowsPerDay = 24;
+    private double missingRatio = 0.1;
+    private boolean mixedDates;
+    private long seed = 42;
+    private LocalDate start = LocalDate.of(2024, 1, 1);
+    private String eol = "\n";
+
+    public HaeExportGenerator days(int days) { this.days = days; return this; }
+    public HaeExportGenerator rowsPerDay(int rowsPerDay) { this.rowsPerDay = rowsPerDay; return this; }
+    public HaeExportGenerator missingRatio(double missingRatio) { this.missingRatio = missingRatio; return this; }
+    public HaeExportGenerator mixedDates(boolean mixedDates) { this.mixedDates = mixedDates; return this; }
+    public HaeExportGenerator seed(long seed) { this.seed = seed; return this; }
+    public HaeExportGenerator start(LocalDate start) { this.start = start; return this; }
+    public HaeExportGenerator eol(String eol) { this.eol = eol; return this; }
+
+    public byte[] bytes() {
+        StringWriter w = new StringWriter(Math.max(1024, days * rowsPerDay * 160));
+        try { writeTo(w); } catch (IOException e) { throw new IllegalStateException(e); }
+        return w.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The same export as {@link #bytes()} in HAE's JSON layout. */
+    public byte[] jsonBytes() {
+        String[] rows = new String(bytes(), StandardCharsets.UTF_8).split(eol);
+        String[][] cells = new String[rows.length - 1][];
+        for (int r = 1; r < rows.length; r++) cells[r - 1] = rows[r].split(",", -1);
+        StringBuilder out = new StringBuilder(rows.length * 600).append("{\"data\":{\"metrics\":[");
+        for (int c = 1; c < JSON_METRICS.length; c++) {
+            if (c == 9 || c == 10) continue;                              // folded into heart_rate at c == 8
+            String[] m = c == 8 ? new String[]{"heart_rate", "count/min"} : JSON_METRICS[c];
+            if (c > 1) out.append(',');
+            out.append("{\"name\":\"").append(m[0]).append("\",\"units\":\"").append(m[1]).append("\",\"data\":[");
+            boolean first = true;
+            for (int r = 0; r < cells.length; r++) {
+                String[] row = cells[r];
+                String values;
+                if (c == 8) {
+                    StringBuilder hr = new StringBuilder();
+                    if (!row[8].isEmpty()) hr.append("\"Min\":").append(row[8]);
+                    if (!row[10].isEmpty()) hr.append(hr.isEmpty() ? "" : ",").append("\"Avg\":").append(row[10]);
+                    if (!row[9].isEmpty()) hr.append(hr.isEmpty() ? "" : ",").append("\"Max\":").append(row[9]);
+                    values = hr.toString();
+                } else {
+                    values = row[c].isEmpty() ? "" : "\"qty\":" + row[c];
+                }
+                if (values.isEmpty()) continue;
+                if (!first) out.append(',');
+                first = false;
+                int hour = rowsPerDay == 1 ? 12 : r % rowsPerDay * 24 / rowsPerDay;
+                out.append("{\"date\":\"").append(row[0]).append(String.format(" %02d:00:00 -0800\",", hour))
+                   .append(values).append(",\"source\":\"Apple Watch\"}");
+            }
+            out.append("]}");
+        }
+        return out.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public void writeTo(Path file) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) { writeTo(w); }
+    }
+
+    public void writeTo(Writer w) throws IOException {
+        SplittableRandom r = new SplittableRandom(seed);
+        w.write(HEADER);
+        w.write(eol);
+        StringBuilder row = new StringBuilder(256);
+        for (int d = 0; d < days; d++) {
+            LocalDate date = start.plusDays(d);
+            String day = date(date, mixedDates ? r.nextInt(3) : 0);
+            double activity = 0.5 + r.nextDouble();                  // per-day activity level
+            int restingHr = 55 + r.nextInt(10);
+            for (int h = 0; h < rowsPerDay; h++) {
+                double hour = rowsPerDay == 1 ? 12 : h * 24.0 / rowsPerDay;
+                boolean awake = hour >= 7 && hour < 23;
+                long steps = awake ? (long) (r.nextInt(1200) * activity) : r.nextInt(40);
+                row.setLength(0);
+                row.append(day);
+                cell(row, r, 1, steps * 0.045 + r.nextDouble() * 5);                    // active energy
+                cell(row, r, 0, awake ? r.nextInt(25) * activity : 0);                  // exercise min
+                cell(row, r, -1, awake && r.nextInt(3) > 0 ? 1 : 0);                    // stand hour
+                cell(row, r, -1, awake ? r.nextInt(12) : 0);                            // stand min
+                cell(row, r, 1, 94 + r.nextDouble() * 5);                               // SpO2
+                cell(row, r, 1, 45 + r.nextDouble() * 35);                              // audio dB
+                cell(row, r, -1, awake ? r.nextInt(3) : 0);                             // flights
+                int hrMin = 48 + r.nextInt(15), hrMax = hrMin + 20 + r.nextInt(80);
+                cell(row, r, -1, hrMin);
+                cell(row, r, -1, hrMax);
+                cell(row, r, -1, (hrMin + hrMax) / 2);
+                cell(row, r, 1, 20 + r.nextDouble() * 70);                              // HRV ms
+                cell(row, r, 1, 1 + r.nextDouble() * 6 * activity);                     // physical effort
+                cell(row, r, 1, 60 + r.nextDouble() * 15);                              // resting energy
+                cell(row, r, -1, restingHr + r.nextInt(3));
+                cell(row, r, 2, 1.2 + r.nextDouble() * 0.8);                            // stair down
+                cell(row, r, 2, 1.0 + r.nextDouble() * 0.8);                            // stair up
+                cell(row, r, -1, steps);
+                cell(row, r, 3, steps * 0.00045);                                       // distance mi
+                cell(row, r, 1, r.nextDouble() * 10);                                   // asymmetry
+                cell(row, r, 1, 22 + r.nextDouble() * 12);                              // double support
+                cell(row, r, -1, 85 + r.nextInt(25));                                   // walking HR
+                cell(row, r, 2, 2.4 + r.nextDouble() * 1.2);                            // walking speed
+                cell(row, r, 1, 24 + r.nextDouble() * 6);                               // step length
+                w.append(row).append(eol);
+            }
+        }
+    }
+
+    /** Append ",value" with {@code decimals} places ({@code -1}: integral), or "," alone when missing. */
+    private void cell(StringBuilder row, SplittableRandom r, int decimals, double v) {
+        row.append(',');
+        if (r.nextDouble() < missingRatio) return;
+        if (decimals < 0) { row.append((long) v); return; }
+        if (decimals == 0) { row.append(Math.round(v)); return; }
+        double scale = Math.pow(10, decimals);
+        row.append(Math.round(v * scale) / scale);
+    }
+
+    /** ISO {@code yyyy-MM-dd}, {@code M/d/yy} or {@code yyyy/M/d}. */
+    static String date(LocalDate d, int layout) {
+        return switch (layout) {
+            case 1 -> d.getMonthValue() + "/" + d.getDayOfMonth() + "/" + String.format("%02d", d.getYear() % 100);
+            case 2 -> d.getYear() + "/" + d.getMonthValue() + "/" + d.getDayOfMonth();
+            default -> d.toString();
+        };
+    }
+
+    /** A mix of date strings in all three layouts, for parseDate benchmarks. */
+    static String[] dates(int n, long seed) {
+        Random r = new Random(seed);
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) out[i] = date(LocalDate.of(2020, 1, 1).plusDays(r.nextInt(2000)), i % 3);
+        return out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        HaeExportGenerator g = new HaeExportGenerator();
+        Path out = null;
+        boolean json = false;
+        for (String a : args) {
+            if (a.startsWith("--days=")) g.days(Integer.parseInt(a.substring(7)));
+            else if (a.startsWith("--rows-per-day=")) g.rowsPerDay(Integer.parseInt(a.substring(15)));
+            else if (a.startsWith("--missing=")) g.missingRatio(Double.parseDouble(a.substring(10)));
+            else if (a.equals("--mixed-dates")) g.mixedDates(true);
+            else if (a.startsWith("--seed=")) g.seed(Long.parseLong(a.substring(7)));
+            else if (a.equals("--crlf")) g.eol("\r\n");
+            else if (a.equals("--json")) json = true;
+            else if (!a.startsWith("--")) out = Path.of(a);
+            else throw new IllegalArgumentException("Unknown option " + a);
+        }
+        if (out == null) throw new IllegalArgumentException("usage: HaeExportGenerator [--days=N] [--rows-per-day=N] "
+                + "[--missing=0..1] [--mixed-dates] [--seed=N] [--crlf] [--json] out.csv|out.json");
+        if (json) Files.write(out, g.jsonBytes());
+        else g.writeTo(out);
+        System.out.println("Wrote " + Files.size(out) + " bytes to " + out);
+    }
+}
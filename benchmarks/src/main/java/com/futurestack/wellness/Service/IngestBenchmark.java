@@ -0,0 +1,108 @@
+package com.futurestack.wellness.Service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload path, stage by stage: header resolution, date parsing, per-row parsing (byte
+ * tokenizer vs the commons-csv fallback vs the same export as streamed JSON) and the
+ * collapse into daily columns/samples.
+ * Run with {@code -prof gc} (the default in {@link BenchmarkMain}) for bytes per op.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+
+    @Param({"30", "365"})
+    int days;
+    @Param({"24"})
+    int rowsPerDay;
+    @Param({"0.1"})
+    double missingRatio;
+    @Param({"false", "true"})
+    boolean mixedDates;
+
+    private byte[] csv, json;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private Map<String, Integer> header;
+    private String[] dates;
+    private NavigableMap<LocalDate, DayAccumulator> parsed;
+    private HealthService health;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        csv = new HaeExportGenerator().days(days).rowsPerDay(rowsPerDay)
+                .missingRatio(missingRatio).mixedDates(mixedDates).bytes();
+        json = new HaeExportGenerator().days(days).rowsPerDay(rowsPerDay)
+                .missingRatio(missingRatio).mixedDates(mixedDates).jsonBytes();
+        String[] names = HaeExportGenerator.HEADER.split(",", -1);
+        header = new HashMap<>();
+        for (int i = 0; i < names.length; i++) header.put(HaeColumns.norm(names[i]), i);
+        dates = HaeExportGenerator.dates(1024, 7);
+        health = new HealthService(new SummaryStore(16), new SnapshotFile(""));
+        parsed = HaeCsvTokenizer.open(ByteBuffer.wrap(csv)).parse();
+    }
+
+    /** Whitelist lookup against a normalized header (what a header-cache miss costs). */
+    @Benchmark
+    public HaeColumns resolveHeader() {
+        return HaeColumns.resolve(header);
+    }
+
+    /** Header line read plus the header-cache hit that every upload of a known app version takes. */
+    @Benchmark
+    public HaeCsvTokenizer openTokenizer() throws HaeCsvTokenizer.Malformed {
+        return HaeCsvTokenizer.open(ByteBuffer.wrap(csv));
+    }
+
+    @Benchmark
+    public LocalDate parseDate() {
+        String d = dates[next++ & (dates.length - 1)];
+        return HealthService.parseDate(d);
+    }
+
+    @Benchmark
+    public NavigableMap<LocalDate, DayAccumulator> parseRowsTokenizer() throws HaeCsvTokenizer.Malformed {
+        return HaeCsvTokenizer.open(ByteBuffer.wrap(csv)).parse();
+    }
+
+    @Benchmark
+    public NavigableMap<LocalDate, DayAccumulator> parseRowsCommonsCsv() throws IOException {
+        try (Reader r = new InputStreamReader(new ByteArrayInputStream(csv), StandardCharsets.UTF_8)) {
+            return health.ingestCsv(r);
+        }
+    }
+
+    @Benchmark
+    public NavigableMap<LocalDate, DayAccumulator> parseRowsJsonStreaming() throws IOException {
+        try (JsonParser p = jsonFactory.createParser(json)) {
+            return HaeJsonReader.read(p);
+        }
+    }
+
+    /** Per-date accumulators into columns, then every day materialized as a {@code DailySample}. */
+    @Benchmark
+    public void toDailySamples(Blackhole bh) {
+        DailyColumns cols = DailyColumns.of(parsed);
+        for (int i = 0; i < cols.size(); i++) bh.consume(cols.sample(i));
+    }
+}
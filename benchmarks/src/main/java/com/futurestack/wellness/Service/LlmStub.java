@@ -0,0 +1,134 @@
+package com.futurestack.wellness.Service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Cerebras completions endpoint ({@code POST /v1/chat/completions}).
+ * Every answer waits for a latency drawn from a {@link Latency} model, and a configurable
+ * fraction of calls fails with one of {@code errorStatuses} (429s carry a Retry-After).
+ * Successful answers include a {@code usage} block; {@code "stream": true} requests get a
+ * few SSE chunks spread over the drawn latency. One virtual thread per exchange, so slow
+ * answers never queue behind each other.
+ */
+public final class LlmStub implements AutoCloseable {
+
+    /** Per-call latency model, parsed from {@code fixed:200ms}, {@code uniform:100ms:900ms} or {@code lognormal:800ms:0.5}. */
+    public sealed interface Latency {
+        long sampleNanos(ThreadLocalRandom r);
+
+        record Fixed(Duration d) implements Latency {
+            public long sampleNanos(ThreadLocalRandom r) { return d.toNanos(); }
+        }
+        record Uniform(Duration min, Duration max) implements Latency {
+            public long sampleNanos(ThreadLocalRandom r) { return r.nextLong(min.toNanos(), max.toNanos() + 1); }
+        }
+        /** Log-normal with the given median and shape {@code sigma}: a long right tail like real LLM latencies. */
+        record LogNormal(Duration median, double sigma) implements Latency {
+            public long sampleNanos(ThreadLocalRandom r) { return (long) (median.toNanos() * Math.exp(sigma * r.nextGaussian())); }
+        }
+
+        static Latency parse(String spec) {
+            String[] p = spec.split(":");
+            return switch (p[0]) {
+                case "fixed"     -> new Fixed(duration(p[1]));
+                case "uniform"   -> new Uniform(duration(p[1]), duration(p[2]));
+                case "lognormal" -> new LogNormal(duration(p[1]), Double.parseDouble(p[2]));
+                default -> throw new IllegalArgumentException("Unknown latency model: " + spec);
+            };
+        }
+
+        /** {@code 250ms}, {@code 2s} or an ISO-8601 duration. */
+        static Duration duration(String s) {
+            if (s.endsWith("ms")) return Duration.ofMillis(Long.parseLong(s.substring(0, s.length() - 2)));
+            if (s.endsWith("s") && !s.startsWith("P")) return Duration.ofMillis(Math.round(Double.parseDouble(s.substring(0, s.length() - 1)) * 1000));
+            return Duration.parse(s);
+        }
+    }
+
+    private static final String ANSWER = "- Activity: steady week. - Recovery: resting HR stable. - Gait: balanced. "
+            + "Flags: none. 7-day plan: 9000 steps/day, 30 exercise min/day, 10 stand hours/day, 2 L water, sleep 23:00-07:00.";
+
+    private final HttpServer server;
+    private final Latency latency;
+    private final double errorRate;
+    private final List<Integer> errorStatuses;
+    private final AtomicLong calls = new AtomicLong(), errors = new AtomicLong();
+
+    public LlmStub(Latency latency, double errorRate, List<Integer> errorStatuses) throws IOException {
+        if (errorRate > 0 && errorStatuses.isEmpty()) throw new IllegalArgumentException("errorStatuses must not be empty");
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.errorStatuses = List.copyOf(errorStatuses);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/v1/chat/completions", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    /** Base URL to use as {@code cerebras.base.url}. */
+    public String baseUrl() { return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1"; }
+
+    public long calls() { return calls.get(); }
+    public long errors() { return errors.get(); }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            calls.incrementAndGet();
+            boolean stream = new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).contains("\"stream\":true");
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            long wait = Math.max(0, latency.sampleNanos(r));
+            if (r.nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                sleep(wait / 4);                                      // errors come back faster than answers
+                int status = errorStatuses.get(r.nextInt(errorStatuses.size()));
+                if (status == 429) ex.getResponseHeaders().add("Retry-After", "1");
+                send(ex, status, "{\"error\":{\"message\":\"stub error\"}}");
+                return;
+            }
+            if (!stream) {
+                sleep(wait);
+                send(ex, 200, "{\"id\":\"stub\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\""
+                        + ANSWER + "\"},\"finish_reason\":\"stop\"}],\"usage\":{\"prompt_tokens\":180,\"completion_tokens\":90,\"total_tokens\":270}}");
+                return;
+            }
+            String[] words = ANSWER.split("(?<= )");
+            sleep(wait / 2);                                          // time to first token
+            ex.getResponseHeaders().add("Content-Type", "text/event-stream");
+            ex.sendResponseHeaders(200, 0);
+            OutputStream out = ex.getResponseBody();
+            for (String w : words) {
+                out.write(("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + w + "\"}}]}\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                sleep(wait / 2 / words.length);
+            }
+            out.write(("data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}],"
+                    + "\"usage\":{\"prompt_tokens\":180,\"completion_tokens\":" + words.length + "}}\n\ndata: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        byte[] b = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, b.length);
+        ex.getResponseBody().write(b);
+    }
+
+    private static void sleep(long nanos) {
+        try { Thread.sleep(Duration.ofNanos(nanos)); }
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    @Override
+    public void close() { server.stop(0); }
+}
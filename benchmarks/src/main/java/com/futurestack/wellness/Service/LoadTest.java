@@ -0,0 +1,345 @@
+package com.futurestack.wellness.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.futurestack.wellness.WellnessApplication;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-JVM load test: starts the app on a random port with {@code cerebras.base.url} pointed
+ * at an {@link LlmStub}, seeds every user with an upload, then runs one closed-loop phase
+ * per scenario ({@code upload}, {@code summary}, {@code insights}, {@code mixed} by
+ * default). Each phase reports per-endpoint throughput, latency percentiles and status
+ * counts, the insights cache hit ratio, plus the heap peak and GC time accrued during the
+ * phase, as JSON. The heap peak is the highest total heap used, sampled every 10 ms. The
+ * load generator shares the JVM, so its (small) allocation is included in the heap/GC figures.
+ *
+ * <p>The {@code insights} phase measures the LLM path, not the cache: each request is
+ * preceded by a re-upload of the same user (the first {@code --sizes} export), which drops
+ * their cached answer. Those uploads are reported as the phase's {@code upload} endpoint.
+ *
+ * <pre>
+ *   java -cp target/benchmarks.jar com.futurestack.wellness.Service.LoadTest \
+ *        --concurrency=64 --users=200 --duration=PT30S --mix=upload:1,summary:6,insights:3 \
+ *        --sizes=30,365,1825 --llm-latency=lognormal:800ms:0.5 --llm-error-rate=0.02 --out=load-report.json
+ * </pre>
+ * Any {@code --spring.*}, {@code --server.*}, {@code --cerebras.*} or {@code --wellness.*}
+ * option is passed to the app unchanged.
+ */
+public final class LoadTest {
+
+    enum Endpoint { upload, summary, insights }
+
+    record Config(int concurrency, int users, Duration warmup, Duration duration, Map<Endpoint, Integer> mix,
+                  List<Integer> sizes, int rowsPerDay, double missingRatio, List<String> phases,
+                  String llmLatency, double llmErrorRate, List<Integer> llmErrorStatuses, String out, List<String> appArgs) {}
+
+    record Latencies(double p50, double p90, double p99, double p999, double max, double mean) {}
+    record EndpointReport(long requests, long errors, double throughputPerSecond, Latencies latencyMillis,
+                          Map<String, Long> statuses) {}
+    record Heap(long peakBytes, long usedAfterBytes, long maxBytes) {}
+    record Cache(long hits, long misses, double hitRatio) {}
+    record Gc(long collections, long timeMillis, Map<String, Long> timeMillisByCollector) {}
+    record Phase(String name, double seconds, long requests, double throughputPerSecond,
+                 Map<Endpoint, EndpointReport> endpoints, Cache insightsCache, Heap heap, Gc gc, long llmCalls, long llmErrors) {}
+    record Report(String version, Instant startedAt, Map<String, Object> jvm, Config config, List<Phase> phases) {}
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parse(args);
+        LlmStub llm = new LlmStub(LlmStub.Latency.parse(cfg.llmLatency()), cfg.llmErrorRate(), cfg.llmErrorStatuses());
+        List<String> appArgs = new ArrayList<>(List.of(
+                "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=WARN",
+                "--cerebras.base.url=" + llm.baseUrl(), "--cerebras.api.key=load-test", "--wellness.snapshot.path=",
+                "--spring.servlet.multipart.max-file-size=256MB", "--spring.servlet.multipart.max-request-size=256MB"));
+        appArgs.addAll(cfg.appArgs());                                   // later arguments win
+        ConfigurableApplicationContext app = SpringApplication.run(WellnessApplication.class, appArgs.toArray(String[]::new));
+        try (llm; ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            String base = "http://127.0.0.1:" + app.getEnvironment().getProperty("local.server.port") + "/api";
+            LoadTest test = new LoadTest(cfg, base, llm, app.getBean(InsightsCache.class), clients);
+            Report report = new Report(version(), Instant.now(), jvm(), cfg, test.run());
+            new ObjectMapper().findAndRegisterModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                    .writerWithDefaultPrettyPrinter().writeValue(Path.of(cfg.out()).toFile(), report);
+            System.out.println("Wrote " + Path.of(cfg.out()).toAbsolutePath());
+        } finally {
+            app.close();
+        }
+    }
+
+    private final Config cfg;
+    private final String base;
+    private final LlmStub llm;
+    private final InsightsCache cache;
+    private final HttpClient http;
+    private final List<byte[]> uploads = new ArrayList<>();
+    private final String boundary = "----wellness-load-" + Long.toHexString(System.nanoTime());
+
+    private LoadTest(Config cfg, String base, LlmStub llm, InsightsCache cache, ExecutorService clients) {
+        this.cfg = cfg;
+        this.base = base;
+        this.llm = llm;
+        this.cache = cache;
+        this.http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(clients)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+        long seed = 1;
+        for (int days : cfg.sizes())
+            uploads.add(multipart(new HaeExportGenerator().days(days).rowsPerDay(cfg.rowsPerDay())
+                    .missingRatio(cfg.missingRatio()).mixedDates(true).seed(seed++).bytes()));
+    }
+
+    private List<Phase> run() throws Exception {
+        for (int u = 0; u < cfg.users(); u++) send(Endpoint.upload, user(u), null);   // every user has a summary
+        if (!cfg.warmup().isZero()) phase("warmup", cfg.mix(), false, cfg.warmup());
+        List<Phase> phases = new ArrayList<>();
+        for (String name : cfg.phases()) {
+            Map<Endpoint, Integer> mix = name.equals("mixed") ? cfg.mix() : Map.of(Endpoint.valueOf(name), 1);
+            phases.add(phase(name, mix, name.equals("insights"), cfg.duration()));
+        }
+        return phases;
+    }
+
+    /**
+     * Closed loop: {@code concurrency} virtual users each send the next request as soon as the
+     * last one answered. With {@code coldInsights} every insights request follows a re-upload
+     * of its user, so it misses the cache.
+     */
+    private Phase phase(String name, Map<Endpoint, Integer> mix, boolean coldInsights, Duration length) throws Exception {
+        Map<Endpoint, Recorder> rec = new EnumMap<>(Endpoint.class);
+        for (Endpoint e : mix.keySet()) rec.put(e, new Recorder());
+        if (coldInsights) rec.putIfAbsent(Endpoint.upload, new Recorder());
+        Endpoint[] wheel = mix.entrySet().stream()
+                .flatMap(e -> Collections.nCopies(e.getValue(), e.getKey()).stream()).toArray(Endpoint[]::new);
+
+        System.gc();
+        Map<String, long[]> gcBefore = gc();
+        long llmCalls = llm.calls(), llmErrors = llm.errors();
+        InsightsCache.Stats cacheBefore = cache.stats();
+
+        long start = System.nanoTime(), end = start + length.toNanos();
+        AtomicLong peak = new AtomicLong();
+        Thread sampler = Thread.ofPlatform().daemon().name("load-heap-sampler").start(() -> {
+            var memory = ManagementFactory.getMemoryMXBean();
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try { Thread.sleep(10); } catch (InterruptedException e) { return; }
+            }
+        });
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < cfg.concurrency(); i++) {
+            workers.add(Thread.ofVirtual().name("load-" + i).start(() -> {
+                ThreadLocalRandom r = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    Endpoint e = wheel[r.nextInt(wheel.length)];
+                    String user = user(r.nextInt(cfg.users()));
+                    if (coldInsights && e == Endpoint.insights) rec.get(Endpoint.upload).record(send(Endpoint.upload, user, uploads.get(0)));
+                    rec.get(e).record(send(e, user, uploads.get(r.nextInt(uploads.size()))));
+                }
+            }));
+        }
+        for (Thread t : workers) t.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.interrupt();
+        sampler.join();
+
+        InsightsCache.Stats cacheAfter = cache.stats();
+        long hits = cacheAfter.hits() - cacheBefore.hits(), misses = cacheAfter.misses() - cacheBefore.misses();
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        Map<String, long[]> gcAfter = gc();
+        Map<String, Long> gcTime = new TreeMap<>();
+        long collections = 0, gcMillis = 0;
+        for (var e : gcAfter.entrySet()) {
+            long[] before = gcBefore.getOrDefault(e.getKey(), new long[2]);
+            collections += e.getValue()[0] - before[0];
+            gcMillis += e.getValue()[1] - before[1];
+            gcTime.put(e.getKey(), e.getValue()[1] - before[1]);
+        }
+
+        Map<Endpoint, EndpointReport> endpoints = new EnumMap<>(Endpoint.class);
+        long total = 0;
+        for (var e : rec.entrySet()) {
+            endpoints.put(e.getKey(), e.getValue().report(seconds));
+            total += e.getValue().count();
+        }
+        Phase p = new Phase(name, seconds, total, total / seconds, endpoints,
+                new Cache(hits, misses, hits + misses == 0 ? 0 : (double) hits / (hits + misses)),
+                new Heap(peak.get(), heap.getUsed(), heap.getMax()), new Gc(collections, gcMillis, gcTime),
+                llm.calls() - llmCalls, llm.errors() - llmErrors);
+        System.out.printf("%-8s %8.1f req/s cache-hit=%.2f%s%n", name, p.throughputPerSecond(), p.insightsCache().hitRatio(), summary(endpoints));
+        return p;
+    }
+
+    private static String summary(Map<Endpoint, EndpointReport> endpoints) {
+        StringBuilder s = new StringBuilder();
+        endpoints.forEach((e, r) -> s.append(String.format(" | %s p50=%.1fms p99=%.1fms err=%d",
+                e, r.latencyMillis().p50(), r.latencyMillis().p99(), r.errors())));
+        return s.toString();
+    }
+
+    /** Status code ({@code -1} on a transport error) and latency of one request. */
+    record Result(int status, long nanos) {}
+
+    private Result send(Endpoint e, String user, byte[] upload) {
+        String q = "?user=" + user;
+        HttpRequest req = switch (e) {
+            case upload -> HttpRequest.newBuilder(URI.create(base + "/health/upload" + q))
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(upload != null ? upload : uploads.get(0))).build();
+            case summary -> HttpRequest.newBuilder(URI.create(base + "/health/summary" + q)).GET().build();
+            case insights -> HttpRequest.newBuilder(URI.create(base + "/insights" + q))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build();
+        };
+        long t0 = System.nanoTime();
+        try {
+            HttpResponse<Void> resp = http.send(req, HttpResponse.BodyHandlers.discarding());
+            return new Result(resp.statusCode(), System.nanoTime() - t0);
+        } catch (IOException ex) {
+            return new Result(-1, System.nanoTime() - t0);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new Result(-1, System.nanoTime() - t0);
+        }
+    }
+
+    private byte[] multipart(byte[] csv) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(csv.length + 256);
+        out.writeBytes(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"export.csv\"\r\n"
+                + "Content-Type: text/csv\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(csv);
+        out.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static String user(int i) { return "load-user-" + i; }
+
+    /** Latencies of one endpoint in one phase; sorted once at the end. */
+    private static final class Recorder {
+        private long[] nanos = new long[1 << 12];
+        private int n;
+        private long errors;
+        private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        synchronized void record(Result r) {
+            if (n == nanos.length) nanos = Arrays.copyOf(nanos, n * 2);
+            nanos[n++] = r.nanos();
+            if (r.status() < 0 || r.status() >= 400) errors++;
+            statuses.computeIfAbsent(r.status(), s -> new LongAdder()).increment();
+        }
+
+        synchronized long count() { return n; }
+
+        synchronized EndpointReport report(double seconds) {
+            long[] sorted = Arrays.copyOf(nanos, n);
+            Arrays.sort(sorted);
+            double mean = n == 0 ? 0 : Arrays.stream(sorted).average().orElse(0) / 1e6;
+            Latencies l = new Latencies(pct(sorted, 0.50), pct(sorted, 0.90), pct(sorted, 0.99), pct(sorted, 0.999),
+                    n == 0 ? 0 : sorted[n - 1] / 1e6, mean);
+            Map<String, Long> byStatus = new TreeMap<>();
+            statuses.forEach((s, c) -> byStatus.put(s < 0 ? "io" : String.valueOf(s), c.sum()));
+            return new EndpointReport(n, errors, n / seconds, l, byStatus);
+        }
+
+        private static double pct(long[] sorted, double q) {
+            return sorted.length == 0 ? 0 : sorted[(int) Math.ceil(sorted.length * q) - 1] / 1e6;
+        }
+    }
+
+    private static Map<String, long[]> gc() {
+        Map<String, long[]> m = new HashMap<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            m.put(gc.getName(), new long[]{ gc.getCollectionCount(), gc.getCollectionTime() });
+        return m;
+    }
+
+    private static Map<String, Object> jvm() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("version", Runtime.version().toString());
+        m.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+        m.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        m.put("gc", ManagementFactory.getGarbageCollectorMXBeans().stream().map(GarbageCollectorMXBean::getName).toList());
+        m.put("inputArguments", ManagementFactory.getRuntimeMXBean().getInputArguments());
+        return m;
+    }
+
+    /** {@code -Dwellness.version}, else the version Maven recorded in the wellness jar, else "dev". */
+    private static String version() throws IOException {
+        String v = System.getProperty("wellness.version");
+        if (v != null) return v;
+        try (var in = WellnessApplication.class.getResourceAsStream("/META-INF/maven/com.futurestack/wellness/pom.properties")) {
+            if (in == null) return "dev";
+            Properties p = new Properties();
+            p.load(in);
+            return p.getProperty("version", "dev");
+        }
+    }
+
+    static Config parse(String[] args) {
+        int concurrency = 32, users = 100, rowsPerDay = 24;
+        Duration warmup = Duration.ofSeconds(10), duration = Duration.ofSeconds(30);
+        Map<Endpoint, Integer> mix = new EnumMap<>(Map.of(Endpoint.upload, 1, Endpoint.summary, 6, Endpoint.insights, 3));
+        List<Integer> sizes = List.of(30, 365, 1825), errorStatuses = List.of(429, 503);
+        List<String> phases = List.of("upload", "summary", "insights", "mixed"), appArgs = new ArrayList<>();
+        double missing = 0.1, errorRate = 0.02;
+        String latency = "lognormal:800ms:0.5";
+        String out = "load-report.json";
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            String k = eq < 0 ? a : a.substring(0, eq), v = eq < 0 ? "" : a.substring(eq + 1);
+            switch (k) {
+                case "--concurrency"      -> concurrency = Integer.parseInt(v);
+                case "--users"            -> users = Integer.parseInt(v);
+                case "--warmup"           -> warmup = LlmStub.Latency.duration(v);
+                case "--duration"         -> duration = LlmStub.Latency.duration(v);
+                case "--mix"              -> mix = mix(v);
+                case "--sizes"            -> sizes = Arrays.stream(v.split(",")).map(Integer::valueOf).toList();
+                case "--rows-per-day"     -> rowsPerDay = Integer.parseInt(v);
+                case "--missing"          -> missing = Double.parseDouble(v);
+                case "--phases"           -> phases = List.of(v.split(","));
+                case "--llm-latency"      -> latency = v;
+                case "--llm-error-rate"   -> errorRate = Double.parseDouble(v);
+                case "--llm-error-status" -> errorStatuses = Arrays.stream(v.split(",")).map(Integer::valueOf).toList();
+                case "--out"              -> out = v;
+                default -> {
+                    if (k.startsWith("--spring.") || k.startsWith("--server.") || k.startsWith("--cerebras.")
+                            || k.startsWith("--wellness.") || k.startsWith("--logging.")) appArgs.add(a);
+                    else throw new IllegalArgumentException("Unknown option " + a);
+                }
+            }
+        }
+        for (String p : phases) if (!p.equals("mixed")) Endpoint.valueOf(p);   // fail fast on typos
+        LlmStub.Latency.parse(latency);
+        return new Config(concurrency, users, warmup, duration, mix, sizes, rowsPerDay, missing, phases,
+                latency, errorRate, errorStatuses, out, List.copyOf(appArgs));
+    }
+
+    private static Map<Endpoint, Integer> mix(String spec) {
+        Map<Endpoint, Integer> m = new EnumMap<>(Endpoint.class);
+        for (String part : spec.split(",")) {
+            String[] kv = part.split(":");
+            int w = Integer.parseInt(kv[1]);
+            if (w > 0) m.put(Endpoint.valueOf(kv[0]), w);
+        }
+        if (m.isEmpty()) throw new IllegalArgumentException("--mix needs at least one positive weight");
+        return m;
+    }
+
+}
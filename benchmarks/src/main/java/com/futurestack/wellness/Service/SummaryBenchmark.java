@@ -0,0 +1,66 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.HealthFlag;
+import com.futurestack.wellness.Model.Summary7d;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read path after ingest: the 7-day reduction (linear scan vs the prefix-sum index) and
+ * building the LLM prompt plus its cache fingerprint.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SummaryBenchmark {
+
+    @Param({"30", "365", "1825"})
+    int days;
+
+    private DailyColumns cols;
+    private SeriesIndex index;
+    private LocalDate from, to;
+    private HealthService health;
+    private Summary7d summary;
+    private List<HealthFlag> flags;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] csv = new HaeExportGenerator().days(days).rowsPerDay(4).bytes();
+        cols = DailyColumns.of(HaeCsvTokenizer.open(ByteBuffer.wrap(csv)).parse());
+        index = new SeriesIndex(cols);
+        to = cols.date(cols.size() - 1);
+        from = to.minusDays(6);
+        health = new HealthService(new SummaryStore(16), new SnapshotFile(""));
+        summary = health.summarize(cols);
+        flags = FlagEngine.fold(cols).between(from, to);
+    }
+
+    @Benchmark
+    public Summary7d reduce7dScan() {
+        return health.summarize(cols);
+    }
+
+    @Benchmark
+    public Summary7d reduce7dIndex() {
+        return index.summarize(from, to);
+    }
+
+    @Benchmark
+    public String buildPrompt() {
+        return CerebrasService.userPrompt("bench", summary, flags);
+    }
+
+    /** Prompt plus the SHA-256 cache key that every insight request computes. */
+    @Benchmark
+    public String promptFingerprint() {
+        return InsightsCache.fingerprint("m", CerebrasService.SYSTEM, CerebrasService.userPrompt("bench", summary, flags));
+    }
+}
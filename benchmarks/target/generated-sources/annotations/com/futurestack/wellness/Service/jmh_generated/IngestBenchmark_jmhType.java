@@ -0,0 +1,4 @@
+package com.futurestack.wellness.Service.jmh_generated;
+public class IngestBenchmark_jmhType extends IngestBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package com.futurestack.wellness.Service.jmh_generated;
+public class SummaryBenchmark_jmhType extends SummaryBenchmark_jmhType_B3 {
+}
+
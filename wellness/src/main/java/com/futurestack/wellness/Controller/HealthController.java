@@ -1,14 +1,34 @@
 package com.futurestack.wellness.Controller;
 
 
+import com.futurestack.wellness.Model.HealthFlag;
 import com.futurestack.wellness.Model.Summary7d;
 import com.futurestack.wellness.Service.CerebrasService;
+import com.futurestack.wellness.Service.DailyExport;
 import com.futurestack.wellness.Service.HealthService;
+import com.futurestack.wellness.Service.InsightBatchService;
+import com.futurestack.wellness.Service.InsightPrefetcher;
+import com.futurestack.wellness.Service.InsightsCache;
+import com.futurestack.wellness.Service.SerializedSummary;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api")
@@ -17,24 +37,151 @@ public class HealthController {
 
     private final HealthService health;
     private final CerebrasService cerebras;
+    private final InsightsCache insightsCache;
+    private final InsightBatchService batch;
+    private final InsightPrefetcher prefetch;
 
-    public HealthController(HealthService health, CerebrasService cerebras) {
-        this.health = health; this.cerebras = cerebras;
+    public HealthController(HealthService health, CerebrasService cerebras, InsightsCache insightsCache,
+                            InsightBatchService batch, InsightPrefetcher prefetch) {
+        this.health = health; this.cerebras = cerebras; this.insightsCache = insightsCache; this.batch = batch;
+        this.prefetch = prefetch;
     }
 
+    /** With {@code wellness.prefetch.enabled}, a successful upload also queues background insight generation. */
     @PostMapping(path="/health/upload", consumes=MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Summary7d upload(@RequestParam("file") MultipartFile file) throws Exception {
-        return health.uploadAndSummarize(file);
+    public Summary7d upload(@RequestParam("file") MultipartFile file,
+                            @RequestParam(value="user", required=false) String user,
+                            @RequestParam(value="append", defaultValue="false") boolean append) throws Exception {
+        Summary7d summary = append ? health.appendAndSummarize(userOf(user), file)
+                                   : health.uploadAndSummarize(userOf(user), file);
+        prefetch.submit(userOf(user));
+        return summary;
     }
 
+    /**
+     * Stored 7-day summary, or any range via {@code window} (days back from the latest) or {@code from}/{@code to}.
+     * The plain 7-day summary is served from bytes serialized at upload time, gzipped when the client accepts
+     * it, with a strong ETag; a matching {@code If-None-Match} gets an empty 304.
+     */
     @GetMapping("/health/summary")
-    public Summary7d summary() { return health.getLatest(); }
+    public ResponseEntity<?> summary(@RequestParam(value="user", required=false) String user,
+                                     @RequestParam(value="window", required=false) Integer window,
+                                     @RequestParam(value="from", required=false) @DateTimeFormat(iso=DateTimeFormat.ISO.DATE) LocalDate from,
+                                     @RequestParam(value="to", required=false) @DateTimeFormat(iso=DateTimeFormat.ISO.DATE) LocalDate to,
+                                     @RequestHeader(value=HttpHeaders.IF_NONE_MATCH, required=false) String ifNoneMatch,
+                                     @RequestHeader(value=HttpHeaders.ACCEPT_ENCODING, required=false) String acceptEncoding) {
+        prefetch.touch(userOf(user));
+        if (window != null) return ResponseEntity.ok(health.getSummary(userOf(user), window));
+        if (from != null || to != null) return ResponseEntity.ok(health.getSummary(userOf(user), from, to));
 
+        SerializedSummary s = health.getSerializedSummary(userOf(user));
+        if (s == null) return ResponseEntity.ok().build();
+        boolean gzip = SerializedSummary.acceptsGzip(acceptEncoding);
+        if (s.matches(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).header(HttpHeaders.ETAG, s.etag(gzip))
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).cacheControl(CacheControl.noCache()).build();
+        }
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().header(HttpHeaders.ETAG, s.etag(gzip))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).cacheControl(CacheControl.noCache())
+                .contentType(MediaType.APPLICATION_JSON);
+        if (gzip) ok.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return ok.body(s.body(gzip));
+    }
+
+    /**
+     * Stored daily series in {@code [from, to]} as NDJSON or CSV, for the given {@code user}s or every
+     * stored user when none is given. Rows go to the response as they are read (chunked), one user's
+     * days in memory at a time.
+     */
+    @GetMapping("/health/export")
+    public void export(@RequestParam(value="user", required=false) List<String> users,
+                       @RequestParam(value="format", defaultValue="ndjson") String format,
+                       @RequestParam(value="from", required=false) @DateTimeFormat(iso=DateTimeFormat.ISO.DATE) LocalDate from,
+                       @RequestParam(value="to", required=false) @DateTimeFormat(iso=DateTimeFormat.ISO.DATE) LocalDate to,
+                       HttpServletResponse response) throws IOException {
+        DailyExport.Format f = DailyExport.Format.parse(format);
+        response.setContentType(f.contentType);
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"daily." + f.name().toLowerCase(Locale.ROOT) + '"');
+        health.export(users, from, to, f, response.getOutputStream());
+    }
+
+    /** Anomaly flags for the stored summary's 7 days, computed server-side (no LLM call). */
+    @GetMapping("/health/flags")
+    public List<HealthFlag> flags(@RequestParam(value="user", required=false) String user) {
+        prefetch.touch(userOf(user));
+        return health.getFlags(userOf(user));
+    }
+
+    /** Completed off the servlet thread, so slow completions do not hold Tomcat's request pool. */
     @PostMapping("/insights")
-    public String insights(@RequestParam(value="user", required=false) String user) throws Exception {
-        return cerebras.getInsights(user==null? "Guest" : user);
+    public CompletableFuture<String> insights(@RequestParam(value="user", required=false) String user) {
+        prefetch.touch(userOf(user));
+        return cerebras.getInsightsAsync(userOf(user));
     }
 
+    /** Insights as server-sent events: one {@code token} event per delta, then {@code done} (or {@code error}). */
+    @GetMapping(path="/insights/stream", produces=MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamInsights(@RequestParam(value="user", required=false) String user) {
+        prefetch.touch(userOf(user));
+        SseEmitter emitter = new SseEmitter(0L);
+        Thread.ofVirtual().name("insights-sse").start(() -> {
+            try {
+                cerebras.streamInsights(userOf(user), token -> {
+                    try { emitter.send(SseEmitter.event().name("token").data(token)); }
+                    catch (IOException e) { throw new UncheckedIOException(e); }   // client went away: stop reading upstream
+                });
+                emitter.send(SseEmitter.event().name("done").data(""));
+                emitter.complete();
+            } catch (Exception e) {
+                try { emitter.send(SseEmitter.event().name("error").data(String.valueOf(e.getMessage()))); emitter.complete(); }
+                catch (Exception ignored) { emitter.completeWithError(e); }
+            }
+        });
+        return emitter;
+    }
+
+    /** Start or resume (same {@code job} id) insight generation for many users; poll with GET. */
+    @PostMapping("/insights/batch")
+    public InsightBatchService.Progress startBatch(@RequestBody List<String> users,
+                                                   @RequestParam(value="job", required=false) String job) throws Exception {
+        return batch.start(job, users);
+    }
+
+    @GetMapping("/insights/batch/{job}")
+    public ResponseEntity<InsightBatchService.Progress> batchProgress(@PathVariable("job") String job) {
+        InsightBatchService.Progress p = batch.progress(job);
+        return p == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(p);
+    }
+
+    /** Every answer the job recorded, by user; kept on disk, so it outlives the insights cache and restarts. */
+    @GetMapping("/insights/batch/{job}/results")
+    public ResponseEntity<Map<String, String>> batchResults(@PathVariable("job") String job) throws IOException {
+        Map<String, String> results = batch.results(job);
+        return results == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(results);
+    }
+
+    @GetMapping("/insights/cache")
+    public InsightsCache.Stats insightsCache() {
+        return insightsCache.stats();
+    }
+
+    /**
+     * Bad request parameters ({@code window}, {@code format}, {@code from} after {@code to}) or an
+     * upload with a bad header or number, or no rows.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<String> busy(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header("Retry-After", "1").body(e.getMessage());
+    }
+
+    private static String userOf(String user) { return user==null? "Guest" : user; }
+
 
 
 }
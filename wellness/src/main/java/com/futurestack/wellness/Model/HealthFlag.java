@@ -0,0 +1,25 @@
+package com.futurestack.wellness.Model;
+
+import java.time.LocalDate;
+
+/**
+ * One deterministic anomaly on one day. {@code metric} is the {@link DailySample} component
+ * it concerns; {@code baseline} and {@code z} describe the user's own recent history
+ * (null while there is too little of it).
+ */
+public record HealthFlag(
+        Type type,
+        String metric,
+        LocalDate date,
+        double value,       // the day's value; for LOW_ACTIVITY, the run length in days
+        Double baseline,
+        Double z)
+{
+    public enum Type {
+        LOW_SPO2,            // below 92% or >= 2 SD under the user's norm
+        RISING_RESTING_HR,   // more than 5 bpm over the resting-HR EWMA
+        HIGH_AUDIO,          // above 80 dBA or >= 2.5 SD over the norm
+        LOW_ACTIVITY,        // 3+ consecutive days under 5000 steps
+        OUTLIER              // any other metric >= 3 SD from its 28-day mean
+    }
+}
@@ -0,0 +1,43 @@
+package com.futurestack.wellness.Service;
+
+/**
+ * Concurrency limit tuned by AIMD from observed outcomes: each fast success grows it by
+ * 1/limit (about one slot per round trip), a response slower than the latency target
+ * shrinks it by 10%, and a 429 halves it. Callers block in {@link #acquire} while the
+ * number in flight is at the current limit.
+ */
+final class AdaptiveLimit {
+    private final int max;
+    private final long targetNanos;
+    private double limit;
+    private int inFlight;
+
+    AdaptiveLimit(int initial, int max, long targetNanos) {
+        if (max < 1) throw new IllegalArgumentException("max concurrency must be positive");
+        this.max = max;
+        this.targetNanos = targetNanos;
+        this.limit = Math.max(1, Math.min(initial, max));
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) wait();
+        inFlight++;
+    }
+
+    /** Release a slot, feeding back how the call went. */
+    synchronized void release(long latencyNanos, boolean throttled) {
+        inFlight--;
+        if (throttled) limit = Math.max(1, limit / 2);
+        else if (latencyNanos > targetNanos) limit = Math.max(1, limit * 0.9);
+        else limit = Math.min(max, limit + 1 / limit);
+        notifyAll();
+    }
+
+    /** Release a slot that never reached the upstream; the limit is left alone. */
+    synchronized void cancel() {
+        inFlight--;
+        notifyAll();
+    }
+
+    synchronized int limit() { return (int) limit; }
+}
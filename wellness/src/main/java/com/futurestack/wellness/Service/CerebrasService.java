@@ -1,101 +1,499 @@
 package com.futurestack.wellness.Service;
 
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.futurestack.wellness.Model.HealthFlag;
 import com.futurestack.wellness.Model.Summary7d;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import okio.BufferedSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
 @Service
 public class CerebrasService {
-    private final OkHttpClient http = new OkHttpClient();
     private final ObjectMapper mapper = new ObjectMapper();
     private final HealthService health;
+    private final InsightsCache cache;
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final ResilientCall.Latencies latencies = new ResilientCall.Latencies();
+    private final MeterRegistry meters;
+    private final DistributionSummary promptTokens, completionTokens;
+    private OkHttpClient http;
+    private Semaphore admission;
+    private CircuitBreaker breaker;
+    private ScheduledExecutorService timer;
+
+    static final int MAX_TOKENS = 500;
+
+    /** Non-2xx answer from the completions endpoint, with the server's Retry-After if it sent one. */
+    public static final class UpstreamException extends RuntimeException {
+        private final int status;
+        private final Duration retryAfter;
+
+        UpstreamException(Response resp) {
+            super("Cerebras error: " + resp.code() + " " + resp.message());
+            this.status = resp.code();
+            String ra = resp.header("Retry-After");
+            Duration d = null;
+            if (ra != null) try { d = Duration.ofSeconds(Long.parseLong(ra.trim())); } catch (NumberFormatException ignored) {}
+            this.retryAfter = d;
+        }
+
+        public int status() { return status; }
+        public Duration retryAfter() { return retryAfter; }
+        public boolean retryable() { return status == 429 || status >= 500; }
+    }
 
     @Value("${cerebras.api.key:}") String apiKey;
     @Value("${cerebras.model}")     String model;
     @Value("${cerebras.base.url}")  String baseUrl;
+    @Value("${cerebras.http.max-concurrent:32}")      int maxConcurrent = 32;
+    @Value("${cerebras.http.max-queued:256}")         int maxQueued = 256;
+    @Value("${cerebras.http.max-idle-connections:8}") int maxIdleConnections = 8;
+    @Value("${cerebras.http.keep-alive:PT5M}")        Duration keepAlive = Duration.ofMinutes(5);
+    @Value("${cerebras.deadline:PT20S}")               Duration deadline = Duration.ofSeconds(20);
+    @Value("${cerebras.retry.max-attempts:3}")         int maxAttempts = 3;
+    @Value("${cerebras.retry.base-backoff:PT0.2S}")    Duration baseBackoff = Duration.ofMillis(200);
+    @Value("${cerebras.retry.max-backoff:PT2S}")       Duration maxBackoff = Duration.ofSeconds(2);
+    @Value("${cerebras.hedge.enabled:true}")           boolean hedge = true;
+    @Value("${cerebras.hedge.min-delay:PT2S}")         Duration minHedgeDelay = Duration.ofSeconds(2);
+    @Value("${cerebras.breaker.failure-threshold:5}")  int breakerThreshold = 5;
+    @Value("${cerebras.breaker.open-for:PT30S}")       Duration breakerOpenFor = Duration.ofSeconds(30);
+
+    @Autowired
+    public CerebrasService(HealthService health, InsightsCache cache, MeterRegistry meters) {
+        this.health = health;
+        this.cache = cache;
+        this.meters = meters;
+        this.promptTokens = tokens("prompt");
+        this.completionTokens = tokens("completion");
+    }
+
+    /** Unmetered instance for tests. */
+    CerebrasService(HealthService health, InsightsCache cache) { this(health, cache, new SimpleMeterRegistry()); }
 
-    public CerebrasService(HealthService health){ this.health = health; }
+    /**
+     * Bound the upstream connections: the dispatcher runs at most {@code maxConcurrent}
+     * calls and queues the rest, and admission stops at {@code maxConcurrent + maxQueued}
+     * so a slow upstream turns into fast rejections instead of an unbounded backlog.
+     */
+    @PostConstruct
+    void init() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConcurrent);
+        dispatcher.setMaxRequestsPerHost(maxConcurrent);
+        http = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .build();
+        admission = new Semaphore(maxConcurrent + maxQueued);
+        breaker = new CircuitBreaker(breakerThreshold, breakerOpenFor, System::nanoTime);
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cerebras-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void close() {
+        if (http == null) return;                                     // never initialised
+        timer.shutdownNow();
+        http.dispatcher().executorService().shutdown();
+        http.connectionPool().evictAll();
+    }
 
     public String getInsights(String userName) throws Exception {
+        try {
+            return getInsightsAsync(userName).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Insights without blocking the caller: the completion runs on OkHttp's dispatcher and
+     * concurrent requests for the same prompt share one upstream call. Fails fast with
+     * {@link RejectedExecutionException} when too many calls are already admitted. When the
+     * upstream is unavailable (circuit open, deadline passed, retries exhausted) the answer
+     * is the rule-based {@link InsightFallback}, which is never cached.
+     */
+    public CompletableFuture<String> getInsightsAsync(String userName) {
+        long version = health.version(userName);                      // read first: a publish in between drops the put
+        Summary7d s = requireSummary(userName);
+        return upstream(userName, version, s).exceptionally(err -> {
+            Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+            if (degraded(cause)) return fallback(s, userName);
+            throw err instanceof CompletionException ce ? ce : new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Like {@link #getInsightsAsync} but without the fallback: upstream failures, including
+     * {@link CircuitOpenException}, surface to the caller (the batch engine retries them).
+     */
+    public CompletableFuture<String> getInsightsStrict(String userName) {
+        long version = health.version(userName);
+        return upstream(userName, version, requireSummary(userName));
+    }
+
+    /** The circuit breaker is refusing calls; {@link #retryAfter()} says when it will probe again. */
+    public static final class CircuitOpenException extends RuntimeException {
+        private final Duration retryAfter;
+        CircuitOpenException(Duration retryAfter) {
+            super("Cerebras is unavailable; retrying in " + retryAfter.toSeconds() + " s");
+            this.retryAfter = retryAfter;
+        }
+        public Duration retryAfter() { return retryAfter; }
+    }
+
+    private static boolean degraded(Throwable cause) {
+        return cause instanceof CircuitOpenException || cause instanceof IOException
+                || cause instanceof UpstreamException u && u.retryable();
+    }
+
+    private CompletableFuture<String> upstream(String userName, long version, Summary7d s) {
+        String user = userPrompt(userName, s, flags(userName));
+        String key = InsightsCache.fingerprint(model, SYSTEM, user);
+        String cached = cache.get(key);
+        if (cached != null) return CompletableFuture.completedFuture(cached);
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) return running.copy();                  // coalesce; a caller cancelling must not cancel the others
+        if (!admission.tryAcquire()) {
+            rejected("admission");
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(new RejectedExecutionException("Too many insight requests in flight; retry shortly."));
+            return mine;
+        }
+        if (!breaker.tryAcquire()) {
+            rejected("circuit-open");
+            admission.release();
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(new CircuitOpenException(breaker.retryAfter()));
+            return mine;
+        }
+        Timer.Sample sample = Timer.start();
+        try {
+            ResilientCall.execute(http, request(user, false), policy(), timer, latencies, this::attempt).whenComplete((body, err) -> {
+                sample.stop(requestTimer("completion", err));
+                if (err != null) {
+                    if (degraded(err)) breaker.onFailure(); else breaker.onSuccess();
+                    finish(userName, version, key, mine, null, err);
+                    return;
+                }
+                breaker.onSuccess();
+                try {
+                    JsonNode json = mapper.readTree(body);
+                    usage(json.path("usage"));
+                    finish(userName, version, key, mine, json.path("choices").get(0).path("message").path("content").asText(), null);
+                } catch (Exception e) {
+                    finish(userName, version, key, mine, null, e);
+                }
+            });
+        } catch (Exception e) {
+            breaker.release();                                        // never reached the upstream
+            finish(userName, version, key, mine, null, e);
+        }
+        return mine.copy();
+    }
+
+    /** Settle the bookkeeping before completing, so a caller that sees the result never joins a finished flight. */
+    private void finish(String userName, long version, String key, CompletableFuture<String> flight, String text, Throwable err) {
+        admission.release();
+        if (err == null) cache.put(userName, version, key, text);
+        inFlight.remove(key, flight);
+        if (err == null) flight.complete(text); else flight.completeExceptionally(err);
+    }
+
+    private ResilientCall.Policy policy() {
+        return new ResilientCall.Policy(deadline, maxAttempts, baseBackoff, maxBackoff, hedge, minHedgeDelay);
+    }
+
+    /** Whether insights for the user's current summary are already cached (does not count as a cache lookup). */
+    public boolean isCached(String userName) {
+        return cache.contains(promptKey(userName));
+    }
+
+    /** Fingerprint of the model and prompt for the user's current summary; the same across restarts. */
+    public String promptKey(String userName) {
+        return InsightsCache.fingerprint(model, SYSTEM, userPrompt(userName, requireSummary(userName), flags(userName)));
+    }
+
+    /** Upper bound on the tokens one completion for this user can spend: ~4 chars per prompt token plus max_tokens. */
+    public int estimateTokens(String userName) {
+        return (SYSTEM.length() + userPrompt(userName, requireSummary(userName), flags(userName)).length()) / 4 + MAX_TOKENS;
+    }
+
+    /**
+     * Like {@link #getInsights} but requests {@code stream: true} and hands each content
+     * delta to {@code onToken} as its SSE line arrives. A cached answer is delivered as one
+     * token. Returns the full text, which is cached only when the stream ended with
+     * {@code data: [DONE]} and carried some content; a stream cut off before {@code [DONE]}
+     * is an {@link IOException}. The call goes through the dispatcher, so open streams count
+     * against {@code cerebras.http.max-concurrent} together with async completions.
+     */
+    public String streamInsights(String userName, Consumer<String> onToken) throws Exception {
+        long version = health.version(userName);
+        Summary7d s = requireSummary(userName);
+        String user = userPrompt(userName, s, flags(userName));
+        String key = InsightsCache.fingerprint(model, SYSTEM, user);
+        String cached = cache.get(key);
+        if (cached != null) { onToken.accept(cached); return cached; }
+
+        if (!admission.tryAcquire()) {
+            rejected("admission");
+            throw new RejectedExecutionException("Too many insight requests in flight; retry shortly.");
+        }
+        if (!breaker.tryAcquire()) {
+            rejected("circuit-open");
+            admission.release();
+            String fallback = fallback(s, userName);
+            onToken.accept(fallback);
+            return fallback;
+        }
+        StringBuilder text = new StringBuilder();
+        Call call = http.newCall(request(user, true));
+        call.timeout().timeout(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        CountDownLatch streamed = new CountDownLatch(1);
+        boolean settled = false;                                      // breaker told how the upstream did
+        Timer.Sample sample = Timer.start();
+        long start = System.nanoTime();
+        try (Response resp = enqueue(call, streamed)) {
+            attempt(String.valueOf(resp.code()), System.nanoTime() - start);   // time to headers; the body is the stream
+            if (!resp.isSuccessful()) throw new UpstreamException(resp);
+            BufferedSource source = resp.body().source();
+            boolean done = false;
+            for (String line; (line = source.readUtf8Line()) != null; ) {
+                if (!line.startsWith("data:")) continue;                 // blank separators, comments, event names
+                String data = line.substring(5).trim();
+                if (data.equals("[DONE]")) { done = true; break; }
+                if (data.contains("\"usage\"")) usage(mapper.readTree(data).path("usage"));   // final chunk
+                String delta = deltaContent(data);
+                if (delta == null || delta.isEmpty()) continue;
+                text.append(delta);
+                onToken.accept(delta);
+            }
+            if (!done) throw new IOException("Cerebras stream ended before [DONE]");
+            breaker.onSuccess();
+            settled = true;
+            sample.stop(requestTimer("stream", null));
+        } catch (IOException | UpstreamException e) {
+            sample.stop(requestTimer("stream", e));
+            if (degraded(e)) breaker.onFailure(); else breaker.onSuccess();
+            settled = true;
+            if (!text.isEmpty() || !degraded(e)) throw e;             // tokens already sent: cannot switch answers
+            String fallback = fallback(s, userName);
+            onToken.accept(fallback);
+            return fallback;
+        } finally {
+            if (!settled) breaker.release();                          // e.g. the client went away mid-stream
+            streamed.countDown();
+            admission.release();
+        }
+        if (!text.isEmpty()) cache.put(userName, version, key, text.toString());
+        return text.toString();
+    }
+
+    /**
+     * Run {@code call} on the dispatcher and hand its response to the calling thread. The
+     * dispatcher thread holds on until {@code streamed} opens, so a stream being read counts
+     * against {@code maxConcurrent} like any other call. Waiting for the headers, including
+     * time queued behind the limit, is bounded by the deadline.
+     */
+    private Response enqueue(Call call, CountDownLatch streamed) throws IOException, InterruptedException {
+        CompletableFuture<Response> headers = new CompletableFuture<>();
+        call.enqueue(new Callback() {
+            @Override public void onFailure(Call c, IOException e) { headers.completeExceptionally(e); }
+
+            @Override public void onResponse(Call c, Response resp) {
+                if (!headers.complete(resp)) { resp.close(); return; }      // the caller gave up
+                try { streamed.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+        });
+        try {
+            return headers.get(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            call.cancel();
+            throw new SocketTimeoutException("No Cerebras response within " + deadline);
+        } catch (InterruptedException e) {
+            call.cancel();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        } finally {
+            if (!headers.isDone()) headers.cancel(false);
+        }
+    }
+
+    // ---- metrics; tags are bounded (mode, outcome, status, reason), never the user ----
+
+    private DistributionSummary tokens(String type) {
+        return DistributionSummary.builder("wellness.llm.tokens").description("Tokens per completion, from the response usage block")
+                .baseUnit("tokens").tag("type", type).publishPercentileHistogram().register(meters);
+    }
+
+    /** One HTTP attempt (retries and hedges count separately) by status code. */
+    private void attempt(String status, long nanos) {
+        Timer.builder("wellness.llm.attempts").description("Upstream HTTP attempts by status")
+                .tag("status", status).publishPercentileHistogram().register(meters)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** One logical completion (all attempts under one deadline) by outcome. */
+    private Timer requestTimer(String mode, Throwable err) {
+        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+        String outcome = cause == null ? "success"
+                : cause instanceof SocketTimeoutException ? "timeout"
+                : cause instanceof UpstreamException u ? (u.retryable() ? "upstream-retryable" : "upstream-error")
+                : cause instanceof IOException ? "io" : "error";
+        return Timer.builder("wellness.llm.requests").description("Upstream completions including retries and hedges")
+                .tag("mode", mode).tag("outcome", outcome).publishPercentileHistogram().register(meters);
+    }
+
+    private void usage(JsonNode usage) {
+        if (usage.has("prompt_tokens")) promptTokens.record(usage.path("prompt_tokens").asLong());
+        if (usage.has("completion_tokens")) completionTokens.record(usage.path("completion_tokens").asLong());
+    }
+
+    private void rejected(String reason) {
+        meters.counter("wellness.llm.rejected", "reason", reason).increment();
+    }
+
+    private String fallback(Summary7d s, String userName) {
+        meters.counter("wellness.llm.fallbacks").increment();
+        return InsightFallback.of(s, flags(userName));
+    }
+
+    private Summary7d requireSummary(String userName) {
         if (apiKey == null || apiKey.isBlank()) {
             throw new IllegalStateException("Missing Cerebras API key. Set CEREBRAS_API_KEY or 'cerebras.api.key'.");
         }
-        Summary7d s = health.getLatest();
+        Summary7d s = health.getSummary(userName);
         if (s == null) throw new IllegalStateException("Upload a CSV first.");
+        return s;
+    }
 
-        String system = """
-      You are a precise, encouraging wellness coach. Use the provided 7-day summary to produce:
-      - 3 bullet insights: (1) activity & energy load, (2) heart & recovery, (3) gait/quality-of-movement.
-      - Flags if relevant: low SpO₂, rising resting HR (>5 bpm vs avg), high environmental audio, prolonged low activity.
-      - A 7-day action plan with concrete numbers (daily step goal, exercise minutes, stand hours, hydration, sleep window).
-      - Non-diagnostic tone; suggest clinician only if patterns persist or are concerning.
-      """;
-
-        String user = """
-      User: %s
-
-      7-day Summary:
-      - Active Energy (total): %.0f kcal; Resting Energy (total): %.0f kcal
-      - Exercise: %.1f min/day avg; Stand Hours (total): %.1f; Stand-goal days (>=12h): %d
-      - Move-goal days (>=500 kcal active): %d
-      - Distance (total): %.2f mi; Steps (total): %d
-
-      - HR (avg/min/max): %s / %s / %s bpm
-      - Resting HR (avg/min/max): %s / %s / %s bpm
-      - HRV (median): %s ms
-      - Walking HR avg: %s bpm
-
-      - Gait: Walk speed avg: %s mph; Step length avg: %s in
-      - Double support avg: %s%%; Asymmetry avg: %s%%
-      - Stairs: Up avg: %s ft/s; Down avg: %s ft/s
-
-      - Environment: Audio avg: %s dBA
-      - SpO₂: avg %s%%; min %s%%
-      """.formatted(
-                userName,
-                s.totalActiveEnergyKcal(), s.totalRestingEnergyKcal(),
-                s.avgExerciseMinPerDay(), s.totalStandHours(), s.standGoalDays(),
-                s.moveGoalDays(),
-                s.totalDistanceMi(), s.totalSteps(),
-                n(s.hrAvg()), n(s.hrMin()), n(s.hrMax()),
-                n(s.restingHrAvg()), n(s.restingHrMin()), n(s.restingHrMax()),
-                n(s.hrvMedianMs()),
-                n(s.walkHrAvg()),
-                n(s.walkSpeedAvgMph()), n(s.stepLenAvgIn()),
-                n(s.doubleSupportAvgPct()), n(s.asymmetryAvgPct()),
-                n(s.stairUpAvgFtPerSec()), n(s.stairDownAvgFtPerSec()),
-                n(s.envAudioAvgDbA()),
-                n(s.spo2AvgPct()), n(s.spo2MinPct())
-        );
-
+    private Request request(String user, boolean stream) throws JsonProcessingException {
         ObjectNode root = mapper.createObjectNode();
         root.put("model", model);
         ArrayNode messages = mapper.createArrayNode();
-        messages.add(mapper.createObjectNode().put("role","system").put("content", system));
+        messages.add(mapper.createObjectNode().put("role","system").put("content", SYSTEM));
         messages.add(mapper.createObjectNode().put("role","user").put("content", user));
         root.set("messages", messages);
         root.put("temperature", 0.4);
-        root.put("max_tokens", 500);
+        root.put("max_tokens", MAX_TOKENS);
+        if (stream) root.put("stream", true);
 
-        Request request = new Request.Builder()
+        return new Request.Builder()
                 .url(baseUrl + "/chat/completions")
                 .header("Authorization", "Bearer " + apiKey)
                 .post(RequestBody.create(mapper.writeValueAsString(root), MediaType.parse("application/json")))
                 .build();
+    }
 
-        try (Response resp = http.newCall(request).execute()) {
-            if (!resp.isSuccessful()) throw new RuntimeException("Cerebras error: " + resp.code() + " " + resp.message());
-            JsonNode json = mapper.readTree(resp.body().string());
-            return json.path("choices").get(0).path("message").path("content").asText();
+    /** {@code choices[0].delta.content} of one stream chunk, read with the streaming parser (no tree). */
+    String deltaContent(String chunk) throws IOException {
+        try (JsonParser p = mapper.getFactory().createParser(chunk)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken t = p.nextToken();
+                if (!field.equals("choices") || t != JsonToken.START_ARRAY) { p.skipChildren(); continue; }
+                if (p.nextToken() != JsonToken.START_OBJECT) return null;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    field = p.currentName();
+                    t = p.nextToken();
+                    if (!field.equals("delta") || t != JsonToken.START_OBJECT) { p.skipChildren(); continue; }
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        field = p.currentName();
+                        t = p.nextToken();
+                        if (field.equals("content")) return t == JsonToken.VALUE_STRING ? p.getText() : null;
+                        p.skipChildren();
+                    }
+                    return null;
+                }
+                return null;
+            }
+            return null;
         }
     }
 
+    static final String SYSTEM = """
+      You are a precise, encouraging wellness coach. From the 7-day facts give:
+      - 3 bullet insights: activity & energy; heart & recovery; gait/movement quality.
+      - The listed flags in plain words (they are computed; do not add others).
+      - A 7-day plan with numbers: steps/day, exercise min, stand hours, hydration, sleep window.
+      Non-diagnostic; suggest a clinician only if patterns persist or are concerning.
+      """;
+
+    /** Compact facts for the model: one line per area, then the precomputed flags. */
+    static String userPrompt(String userName, Summary7d s, List<HealthFlag> flags) {
+        StringBuilder p = new StringBuilder(512).append("User: ").append(userName).append('\n');
+        p.append("activity: activeKcal=").append(Math.round(s.totalActiveEnergyKcal()))
+         .append(" restingKcal=").append(Math.round(s.totalRestingEnergyKcal()))
+         .append(" exerciseMinPerDay=").append(r1(s.avgExerciseMinPerDay()))
+         .append(" standHours=").append(r1(s.totalStandHours()))
+         .append(" standGoalDays=").append(s.standGoalDays())
+         .append(" moveGoalDays=").append(s.moveGoalDays())
+         .append(" distanceMi=").append(s.totalDistanceMi())
+         .append(" steps=").append(s.totalSteps()).append('\n');
+        p.append("heart: hr=").append(n(s.hrAvg())).append('/').append(n(s.hrMin())).append('/').append(n(s.hrMax()))
+         .append(" restingHr=").append(n(s.restingHrAvg())).append('/').append(n(s.restingHrMin())).append('/').append(n(s.restingHrMax()))
+         .append(" (avg/min/max bpm) hrvMedianMs=").append(n(s.hrvMedianMs()))
+         .append(" walkHr=").append(n(s.walkHrAvg())).append('\n');
+        p.append("gait: speedMph=").append(n(s.walkSpeedAvgMph()))
+         .append(" stepLenIn=").append(n(s.stepLenAvgIn()))
+         .append(" doubleSupportPct=").append(n(s.doubleSupportAvgPct()))
+         .append(" asymmetryPct=").append(n(s.asymmetryAvgPct()))
+         .append(" stairUpFtS=").append(n(s.stairUpAvgFtPerSec()))
+         .append(" stairDownFtS=").append(n(s.stairDownAvgFtPerSec())).append('\n');
+        p.append("env: audioDbA=").append(n(s.envAudioAvgDbA()))
+         .append(" spo2Pct=").append(n(s.spo2AvgPct())).append(" spo2MinPct=").append(n(s.spo2MinPct())).append('\n');
+        p.append("flags:");
+        if (flags == null || flags.isEmpty()) p.append(" none");
+        else for (HealthFlag f : flags) p.append(' ').append(fact(f)).append(';');
+        return p.append('\n').toString();
+    }
+
+    /** e.g. {@code LOW_SPO2 2024-01-05 spo2Pct=90.0 base=96.2 z=-2.4}. */
+    static String fact(HealthFlag f) {
+        StringBuilder b = new StringBuilder().append(f.type()).append(' ').append(f.date()).append(' ')
+                .append(f.metric()).append('=').append(r1(f.value()));
+        if (f.baseline() != null) b.append(" base=").append(r1(f.baseline()));
+        if (f.z() != null) b.append(" z=").append(r1(f.z()));
+        return b.toString();
+    }
+
+    private List<HealthFlag> flags(String userName) {
+        List<HealthFlag> flags = health.getFlags(userName);
+        return flags == null ? List.of() : flags;
+    }
+
+    private static double r1(double v) { return Math.round(v * 10) / 10.0; }
     private static String n(Object o){ return o==null? "n/a" : o.toString(); }
 
 }
@@ -0,0 +1,78 @@
+package com.futurestack.wellness.Service;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code failureThreshold} failed calls in a
+ * row the circuit opens and {@link #tryAcquire} refuses for {@code openFor}; then a single
+ * probe is let through (half-open), and its outcome closes or re-opens the circuit. A probe
+ * that reports neither outcome within {@code openFor} is presumed lost and the next call
+ * probes instead, so a caller that never settles cannot hold the circuit half-open.
+ */
+final class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openForNanos;
+    private final LongSupplier nanoTime;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt, probeAt;
+
+    CircuitBreaker(int failureThreshold, Duration openFor, LongSupplier nanoTime) {
+        if (failureThreshold < 1) throw new IllegalArgumentException("failure threshold must be positive");
+        this.failureThreshold = failureThreshold;
+        this.openForNanos = openFor.toNanos();
+        this.nanoTime = nanoTime;
+    }
+
+    /** Whether a call may go upstream now; a true answer in half-open state is the probe. */
+    synchronized boolean tryAcquire() {
+        long now = nanoTime.getAsLong();
+        switch (state) {
+            case CLOSED: return true;
+            case OPEN:
+                if (now - openedAt < openForNanos) return false;
+                state = State.HALF_OPEN;
+                probeAt = now;
+                return true;
+            default:
+                if (now - probeAt < openForNanos) return false;    // probe still in flight
+                probeAt = now;
+                return true;
+        }
+    }
+
+    /** The upstream answered (any non-retryable status counts as alive). */
+    synchronized void onSuccess() { state = State.CLOSED; failures = 0; }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nanoTime.getAsLong();
+        }
+    }
+
+    /**
+     * The acquired call ended without telling whether the upstream is alive (the caller went
+     * away, or the request was never sent). An unfinished probe re-opens the circuit with its
+     * wait already served, so the next call probes again.
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN) state = State.OPEN;
+    }
+
+    synchronized State state() { return state; }
+
+    /** How long until a probe would be allowed; zero when closed. */
+    synchronized Duration retryAfter() {
+        long since = switch (state) {
+            case CLOSED -> Long.MIN_VALUE;
+            case OPEN -> openedAt;
+            case HALF_OPEN -> probeAt;
+        };
+        if (since == Long.MIN_VALUE) return Duration.ZERO;
+        return Duration.ofNanos(Math.max(0, openForNanos - (nanoTime.getAsLong() - since)));
+    }
+}
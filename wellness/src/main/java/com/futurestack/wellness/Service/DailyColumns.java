@@ -0,0 +1,418 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.DailySample;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable columnar store of one user's per-day aggregates, sorted by date. Each field
+ * is a primitive column of finished per-day values (see {@link Segment} for the layout),
+ * about 130 bytes a day, and {@link #sample(int)} projects a row back to the
+ * {@link DailySample} it represents. Fractional values are stored as float, which keeps
+ * about seven significant digits; summaries round to two decimals.
+ *
+ * <p>The days are cut into immutable {@link Segment}s of at most {@link #SEGMENT_DAYS}.
+ * A merge rebuilds only the segments its days fall into and shares the rest with the
+ * columns it came from, so appending a day costs one segment plus the segment array,
+ * not the history. Each segment carries an id that survives persistence, which lets
+ * {@link SnapshotFile} write only the segments a publish changed.
+ */
+final class DailyColumns {
+    /** Most days in one segment, and so the most a one-day append copies. */
+    static final int SEGMENT_DAYS = 64;
+    /** Segments ending more than this many days before the newest day drop their HRV samples. */
+    static final int OPEN_DAYS = 31;
+
+    private static final int N = HaeField.ALL.length;
+    private static final AtomicLong SEGMENT_IDS = new AtomicLong();
+
+    private final Segment[] segments;
+    private final int[] starts;                         // starts[k]: first row of segments[k]; starts[segments.length] = size
+
+    private DailyColumns(Segment[] segments) {
+        this.segments = segments;
+        starts = new int[segments.length + 1];
+        for (int k = 0; k < segments.length; k++) starts[k + 1] = starts[k] + segments[k].size;
+    }
+
+    static DailyColumns of(NavigableMap<LocalDate, DayAccumulator> days) {
+        Builder b = new Builder(new ArrayList<>(days.size() / SEGMENT_DAYS + 1));
+        days.forEach(b::append);
+        return b.build();
+    }
+
+    /** Columns made of persisted segments, in date order. */
+    static DailyColumns of(Segment[] segments) { return new DailyColumns(segments.clone()); }
+
+    /** Ids at or below {@code id} were handed out before (by an earlier process); never reuse them. */
+    static void reserveIds(long id) { SEGMENT_IDS.accumulateAndGet(id, Math::max); }
+
+    /**
+     * New columns with {@code delta}'s days merged in; days present in both are re-merged.
+     * A delta day goes to the first segment whose last day is not before it, and days past
+     * the end fill up the last segment before new ones start. Segments without delta days
+     * are shared, so the cost is the touched segments, not the stored days.
+     */
+    DailyColumns merge(NavigableMap<LocalDate, DayAccumulator> delta) {
+        if (delta.isEmpty()) return this;
+        List<Segment> out = new ArrayList<>(segments.length + delta.size() / SEGMENT_DAYS + 1);
+        Iterator<Map.Entry<LocalDate, DayAccumulator>> it = delta.entrySet().iterator();
+        Map.Entry<LocalDate, DayAccumulator> next = it.next();
+        for (int k = 0; k < segments.length; k++) {
+            Segment s = segments[k];
+            boolean openTail = k == segments.length - 1 && s.size < SEGMENT_DAYS;
+            long last = openTail ? Long.MAX_VALUE : s.lastDay();
+            if (next == null || next.getKey().toEpochDay() > last) { out.add(s); continue; }
+            Builder b = new Builder(out);
+            for (int j = 0; j < s.size; j++) {
+                while (next != null && next.getKey().toEpochDay() < s.epochDay[j]) {
+                    b.append(next.getKey(), next.getValue());
+                    next = it.hasNext() ? it.next() : null;
+                }
+                if (next != null && next.getKey().toEpochDay() == s.epochDay[j]) {
+                    b.append(next.getKey(), DayAccumulator.merged(s.row(j), next.getValue()));
+                    next = it.hasNext() ? it.next() : null;
+                } else {
+                    b.copy(s, j);
+                }
+            }
+            for (; next != null && next.getKey().toEpochDay() <= last; next = it.hasNext() ? it.next() : null) {
+                b.append(next.getKey(), next.getValue());
+            }
+            b.flush();
+        }
+        Builder b = new Builder(out);                       // past a full last segment
+        for (; next != null; next = it.hasNext() ? it.next() : null) b.append(next.getKey(), next.getValue());
+        return b.build();
+    }
+
+    int size() { return starts[segments.length]; }
+    LocalDate date(int i) { int k = segmentOf(i); return LocalDate.ofEpochDay(segments[k].epochDay[i - starts[k]]); }
+
+    int segmentCount() { return segments.length; }
+    Segment segment(int k) { return segments[k]; }
+
+    /** Bytes of every segment's {@link Segment#writeTo} form. */
+    long serializedSize() {
+        long n = 0;
+        for (Segment s : segments) n += s.serializedSize();
+        return n;
+    }
+
+    /** First row on or after {@code date} ({@code size()} if none). */
+    int indexOf(LocalDate date) {
+        long day = date.toEpochDay();
+        int lo = 0, hi = segments.length;                   // first segment whose last day is not before date
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segments[mid].lastDay() < day) lo = mid + 1; else hi = mid;
+        }
+        return lo == segments.length ? size() : starts[lo] + segments[lo].indexOf(day);
+    }
+
+    /** True when the day has no value for {@code f} (its DailySample component is null). */
+    boolean isNull(HaeField f, int i) { int k = segmentOf(i); return segments[k].isNull(f, i - starts[k]); }
+
+    /** True when no row of the day carried {@code f}: null days, and averages that report 0.0 for want of data. */
+    boolean missing(HaeField f, int i) { int k = segmentOf(i); return segments[k].missing(f, i - starts[k]); }
+
+    /** Finished value of {@code f} for day {@code i}, as {@link #sample(int)} reports it; undefined when null. */
+    double value(HaeField f, int i) { int k = segmentOf(i); return segments[k].value(f, i - starts[k]); }
+
+    DailySample sample(int i) { int k = segmentOf(i); return segments[k].sample(i - starts[k]); }
+
+    /** Accumulator holding day {@code i}'s state, for merging more rows into it. */
+    DayAccumulator row(int i) { int k = segmentOf(i); return segments[k].row(i - starts[k]); }
+
+    private int segmentOf(int i) {
+        int k = i / SEGMENT_DAYS;                           // exact until a merge split a segment
+        if (k < segments.length && starts[k] <= i && i < starts[k + 1]) return k;
+        if (i < 0 || i >= size()) throw new IndexOutOfBoundsException(i);
+        k = Arrays.binarySearch(starts, 0, segments.length, i);
+        return k >= 0 ? k : -k - 2;
+    }
+
+    /**
+     * Up to {@link #SEGMENT_DAYS} consecutive stored days; immutable once built. Every field
+     * keeps its finished per-day value plus what a merge needs on top of it, column-major in
+     * one flat array per type: SUM and AVG keep a float (the sum, the mean), SUM_LONG an int
+     * total, AVG_INT the int sum, MEDIAN the float median. AVG, AVG_INT and MEDIAN also keep
+     * a 16-bit count of the rows behind the value (saturating; only merge weights use it),
+     * and a zero count is a null day.
+     *
+     * <p>Open segments also keep the sorted HRV samples, so merging more rows into their days
+     * gives the exact median. Sealed segments keep only the medians; a merge into one of their
+     * days counts the stored median once per sample it stood for.
+     */
+    static final class Segment {
+        private static final int[] FLOAT = new int[N], INT = new int[N], COUNT = new int[N];   // column per field, or -1
+        private static final int FLOATS, INTS, COUNTS;
+        static {
+            int floats = 0, ints = 0, counts = 0;
+            for (HaeField f : HaeField.ALL) {
+                int k = f.ordinal();
+                FLOAT[k] = f.kind == HaeField.Kind.SUM || f.kind == HaeField.Kind.AVG || f.kind == HaeField.Kind.MEDIAN ? floats++ : -1;
+                INT[k] = f.kind == HaeField.Kind.SUM_LONG || f.kind == HaeField.Kind.AVG_INT ? ints++ : -1;
+                COUNT[k] = f.kind == HaeField.Kind.AVG || f.kind == HaeField.Kind.AVG_INT || f.kind == HaeField.Kind.MEDIAN ? counts++ : -1;
+            }
+            FLOATS = floats; INTS = ints; COUNTS = counts;
+        }
+
+        /** Bytes per day on disk and in memory, HRV samples aside: epoch day, then the float, int and count columns. */
+        static final int DAY_BYTES = 4 + 4 * FLOATS + 4 * INTS + 2 * COUNTS;
+
+        private final long id;
+        private final int size;
+        private final int[] epochDay;
+        private final float[] floats;                       // FLOAT[k] * size + j
+        private final int[] ints;                           // INT[k] * size + j
+        private final char[] counts;                        // COUNT[k] * size + j
+        private final int[] hrvStart;                       // size+1 offsets into hrv; null once sealed
+        private final double[] hrv;
+
+        private Segment(long id, int size, int[] epochDay, float[] floats, int[] ints, char[] counts, int[] hrvStart, double[] hrv) {
+            this.id = id;
+            this.size = size;
+            this.epochDay = epochDay;
+            this.floats = floats;
+            this.ints = ints;
+            this.counts = counts;
+            this.hrvStart = hrvStart;
+            this.hrv = hrv;
+        }
+
+        /** Identity for {@link SnapshotFile}: a segment keeps its id until a merge rebuilds or seals it. */
+        long id() { return id; }
+        int size() { return size; }
+        long lastDay() { return epochDay[size - 1]; }
+        boolean open() { return hrv != null; }
+
+        /** The same days without the HRV samples, under a new id. */
+        Segment sealed() {
+            return new Segment(SEGMENT_IDS.incrementAndGet(), size, epochDay, floats, ints, counts, null, null);
+        }
+
+        int indexOf(long day) {
+            int j = Arrays.binarySearch(epochDay, 0, size, (int) day);
+            return j >= 0 ? j : -j - 1;
+        }
+
+        private int count(int k, int j) { return counts[COUNT[k] * size + j]; }
+
+        boolean isNull(HaeField f, int j) {
+            return (f.kind == HaeField.Kind.AVG_INT || f.kind == HaeField.Kind.MEDIAN) && count(f.ordinal(), j) == 0;
+        }
+
+        boolean missing(HaeField f, int j) {
+            return f.kind == HaeField.Kind.AVG ? count(f.ordinal(), j) == 0 : isNull(f, j);
+        }
+
+        double value(HaeField f, int j) {
+            int k = f.ordinal();
+            return switch (f.kind) {
+                case SUM, AVG, MEDIAN -> floats[FLOAT[k] * size + j];
+                case SUM_LONG -> ints[INT[k] * size + j];
+                case AVG_INT  -> { int n = count(k, j); yield n == 0 ? 0 : (int) Math.round((double) ints[INT[k] * size + j] / n); }
+                case DATE     -> epochDay[j];
+            };
+        }
+
+        DailySample sample(int j) {
+            return new DailySample(
+                    LocalDate.ofEpochDay(epochDay[j]),
+                    value(HaeField.ACTIVE_ENERGY, j),
+                    value(HaeField.EXERCISE_MIN, j),
+                    value(HaeField.STAND_HOUR, j),
+                    value(HaeField.STAND_MIN, j),
+                    value(HaeField.SPO2, j),
+                    value(HaeField.AUDIO_DB, j),
+                    value(HaeField.FLIGHTS, j),
+                    intOrNull(HaeField.HR_MIN, j),
+                    intOrNull(HaeField.HR_MAX, j),
+                    intOrNull(HaeField.HR_AVG, j),
+                    isNull(HaeField.HRV_MS, j) ? null : value(HaeField.HRV_MS, j),
+                    value(HaeField.PHYS_EFFORT, j),
+                    value(HaeField.RESTING_ENERGY, j),
+                    intOrNull(HaeField.RESTING_HR, j),
+                    value(HaeField.STAIR_DOWN, j),
+                    value(HaeField.STAIR_UP, j),
+                    (long) value(HaeField.STEPS, j),
+                    value(HaeField.DISTANCE_MI, j),
+                    value(HaeField.ASYM_PCT, j),
+                    value(HaeField.DOUBLE_SUPPORT, j),
+                    intOrNull(HaeField.WALK_HR_AVG, j),
+                    value(HaeField.WALK_SPEED, j),
+                    value(HaeField.STEP_LEN_IN, j)
+            );
+        }
+
+        private Integer intOrNull(HaeField f, int j) { return isNull(f, j) ? null : (int) value(f, j); }
+
+        DayAccumulator row(int j) {
+            DayAccumulator acc = new DayAccumulator();
+            for (HaeField f : HaeField.ALL) {
+                int k = f.ordinal();
+                switch (f.kind) {
+                    case SUM      -> acc.restore(f, value(f, j), 0, 0);
+                    case SUM_LONG -> acc.restore(f, 0, ints[INT[k] * size + j], 0);
+                    case AVG      -> acc.restore(f, value(f, j) * count(k, j), 0, count(k, j));
+                    case AVG_INT  -> acc.restore(f, 0, ints[INT[k] * size + j], count(k, j));
+                    case MEDIAN   -> {
+                        if (open()) for (int s = hrvStart[j]; s < hrvStart[j+1]; s++) acc.add(f, hrv[s]);
+                        else for (int s = count(k, j); s > 0; s--) acc.add(f, value(f, j));
+                    }
+                    case DATE     -> { }
+                }
+            }
+            return acc;
+        }
+
+        // ---- binary form used by SnapshotFile: the columns as they are in memory ----
+
+        int serializedSize() { return 8 + size * DAY_BYTES + (open() ? (size + 1) * 4 + hrvStart[size] * 8 : 0); }
+
+        void writeTo(ByteBuffer out) {
+            out.putInt(size).putInt(open() ? hrvStart[size] : -1);
+            for (int v : epochDay) out.putInt(v);
+            for (float v : floats) out.putFloat(v);
+            for (int v : ints) out.putInt(v);
+            for (char v : counts) out.putChar(v);
+            if (!open()) return;
+            for (int v : hrvStart) out.putInt(v);
+            for (int s = 0; s < hrvStart[size]; s++) out.putDouble(hrv[s]);
+        }
+
+        static Segment readFrom(ByteBuffer in, long id) {
+            int size = in.getInt(), samples = in.getInt();
+            if (size < 1 || size > SEGMENT_DAYS || samples < -1) throw new IllegalStateException("corrupt segment header");
+            int[] epochDay = new int[size];
+            float[] floats = new float[FLOATS * size];
+            int[] ints = new int[INTS * size];
+            char[] counts = new char[COUNTS * size];
+            for (int j = 0; j < epochDay.length; j++) epochDay[j] = in.getInt();
+            for (int j = 0; j < floats.length; j++) floats[j] = in.getFloat();
+            for (int j = 0; j < ints.length; j++) ints[j] = in.getInt();
+            for (int j = 0; j < counts.length; j++) counts[j] = in.getChar();
+            if (samples < 0) return new Segment(id, size, epochDay, floats, ints, counts, null, null);
+            int[] hrvStart = new int[size + 1];
+            for (int j = 0; j <= size; j++) hrvStart[j] = in.getInt();
+            if (hrvStart[0] != 0 || hrvStart[size] != samples) throw new IllegalStateException("corrupt HRV sample offsets");
+            double[] hrv = new double[samples];
+            for (int s = 0; s < samples; s++) hrv[s] = in.getDouble();
+            return new Segment(id, size, epochDay, floats, ints, counts, hrvStart, hrv);
+        }
+    }
+
+    /**
+     * Appends rows in ascending date order, emitting an open segment to {@code out} whenever
+     * one fills up; {@link #build} seals the segments that ended {@link #OPEN_DAYS} before the
+     * newest day.
+     */
+    private static final class Builder {
+        private final List<Segment> out;
+        private int size;
+        private final int[] epochDay = new int[SEGMENT_DAYS];
+        private final float[] floats = new float[Segment.FLOATS * SEGMENT_DAYS];   // column-major at full capacity
+        private final int[] ints = new int[Segment.INTS * SEGMENT_DAYS];
+        private final char[] counts = new char[Segment.COUNTS * SEGMENT_DAYS];
+        private final int[] hrvStart = new int[SEGMENT_DAYS + 1];
+        private double[] hrv = new double[16];
+
+        Builder(List<Segment> out) { this.out = out; }
+
+        void append(LocalDate date, DayAccumulator acc) {
+            int i = size++;
+            epochDay[i] = (int) date.toEpochDay();
+            for (HaeField f : HaeField.ALL) {
+                int k = f.ordinal(), fl = Segment.FLOAT[k] * SEGMENT_DAYS + i, in = Segment.INT[k] * SEGMENT_DAYS + i,
+                        n = Segment.COUNT[k] * SEGMENT_DAYS + i;
+                switch (f.kind) {
+                    case SUM      -> floats[fl] = (float) acc.total(f);
+                    case SUM_LONG -> ints[in] = toInt(acc.longTotal(f), f, date);
+                    case AVG      -> { counts[n] = saturated(acc.count(f)); floats[fl] = acc.count(f) == 0 ? 0f : (float) (acc.total(f) / acc.count(f)); }
+                    case AVG_INT  -> { counts[n] = saturated(acc.count(f)); ints[in] = toInt(acc.longTotal(f), f, date); }
+                    case MEDIAN   -> {
+                        double[] s = acc.samples();
+                        Arrays.sort(s);
+                        appendHrv(i, s, 0, s.length);
+                        counts[n] = saturated(s.length);
+                        floats[fl] = s.length == 0 ? Float.NaN : (float) median(s, 0, s.length);
+                    }
+                    case DATE     -> { }
+                }
+            }
+            if (size == SEGMENT_DAYS) flush();
+        }
+
+        void copy(Segment src, int j) {
+            int i = size++;
+            epochDay[i] = src.epochDay[j];
+            for (int c = 0; c < Segment.FLOATS; c++) floats[c * SEGMENT_DAYS + i] = src.floats[c * src.size + j];
+            for (int c = 0; c < Segment.INTS; c++) ints[c * SEGMENT_DAYS + i] = src.ints[c * src.size + j];
+            for (int c = 0; c < Segment.COUNTS; c++) counts[c * SEGMENT_DAYS + i] = src.counts[c * src.size + j];
+            if (src.open()) {
+                appendHrv(i, src.hrv, src.hrvStart[j], src.hrvStart[j+1]);
+            } else {                                        // stands in for the samples, as in Segment#row
+                double m = src.value(HaeField.HRV_MS, j);
+                int n = src.count(HaeField.HRV_MS.ordinal(), j), at = hrvStart[i];
+                if (at + n > hrv.length) hrv = Arrays.copyOf(hrv, Math.max(hrv.length * 2, at + n));
+                Arrays.fill(hrv, at, at + n, m);
+                hrvStart[i+1] = at + n;
+            }
+            if (size == SEGMENT_DAYS) flush();
+        }
+
+        private static double median(double[] sorted, int from, int n) {
+            int s = from;
+            return n%2==0? (sorted[s+n/2-1]+sorted[s+n/2])/2.0 : sorted[s+n/2];
+        }
+
+        private static char saturated(long count) { return (char) Math.min(count, Character.MAX_VALUE); }
+
+        private static int toInt(long v, HaeField f, LocalDate date) {
+            if (v != (int) v) throw new IllegalArgumentException(f + " of " + date + " is out of range: " + v);
+            return (int) v;
+        }
+
+        private void appendHrv(int i, double[] src, int from, int to) {
+            int at = hrvStart[i], n = to - from;
+            if (at + n > hrv.length) hrv = Arrays.copyOf(hrv, Math.max(hrv.length * 2, at + n));
+            System.arraycopy(src, from, hrv, at, n);
+            hrvStart[i+1] = at + n;
+        }
+
+        /** Emit the rows so far as a new open segment and start over. */
+        void flush() {
+            if (size == 0) return;
+            float[] f = new float[Segment.FLOATS * size];
+            int[] n = new int[Segment.INTS * size];
+            char[] c = new char[Segment.COUNTS * size];
+            for (int col = 0; col < Segment.FLOATS; col++) System.arraycopy(floats, col * SEGMENT_DAYS, f, col * size, size);
+            for (int col = 0; col < Segment.INTS; col++) System.arraycopy(ints, col * SEGMENT_DAYS, n, col * size, size);
+            for (int col = 0; col < Segment.COUNTS; col++) System.arraycopy(counts, col * SEGMENT_DAYS, c, col * size, size);
+            out.add(new Segment(SEGMENT_IDS.incrementAndGet(), size, Arrays.copyOf(epochDay, size), f, n, c,
+                    Arrays.copyOf(hrvStart, size + 1), Arrays.copyOf(hrv, hrvStart[size])));
+            size = 0;
+        }
+
+        DailyColumns build() {
+            flush();
+            if (!out.isEmpty()) {
+                long sealBefore = out.get(out.size() - 1).lastDay() - OPEN_DAYS;
+                for (int k = 0; k < out.size(); k++) {
+                    Segment s = out.get(k);
+                    if (s.open() && s.lastDay() < sealBefore) out.set(k, s.sealed());
+                }
+            }
+            return new DailyColumns(out.toArray(new Segment[0]));
+        }
+    }
+}
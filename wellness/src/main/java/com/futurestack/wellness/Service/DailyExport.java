@@ -0,0 +1,113 @@
+package com.futurestack.wellness.Service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Writes stored days as one flat record per user and day, straight from the
+ * {@link DailyColumns} to the output stream: NDJSON through a Jackson
+ * {@link JsonGenerator}, or CSV with a header row. Records carry {@code user}, {@code date}
+ * and every {@link com.futurestack.wellness.Model.DailySample} component, with the same
+ * values {@link DailyColumns#sample(int)} reports (null / empty cell where it is null).
+ * Nothing is collected: memory is the writer's buffer whatever the export size.
+ */
+public final class DailyExport implements Closeable {
+
+    public enum Format {
+        NDJSON("application/x-ndjson"), CSV("text/csv");
+
+        public final String contentType;
+
+        Format(String contentType) { this.contentType = contentType; }
+
+        /** {@code ndjson} or {@code csv}, case-insensitive. */
+        public static Format parse(String s) {
+            for (Format f : values()) if (f.name().equalsIgnoreCase(s)) return f;
+            throw new IllegalArgumentException("Unknown export format: " + s + " (use ndjson or csv)");
+        }
+    }
+
+    private final JsonGenerator json;   // NDJSON
+    private final Writer csv;           // CSV
+
+    private DailyExport(JsonGenerator json, Writer csv) { this.json = json; this.csv = csv; }
+
+    static DailyExport open(Format format, OutputStream out, JsonFactory factory) throws IOException {
+        if (format == Format.CSV) {
+            Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            w.write("user");
+            for (HaeField f : HaeField.ALL) w.append(',').write(f.metric());
+            w.write('\n');
+            return new DailyExport(null, w);
+        }
+        JsonGenerator g = factory.createGenerator(out)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .setRootValueSeparator(null);    // records are newline-terminated below
+        return new DailyExport(g, null);
+    }
+
+    /** Write {@code user}'s days in {@code [from, to]} (null bounds are open); returns the rows written. */
+    long write(String user, DailyColumns days, LocalDate from, LocalDate to) throws IOException {
+        int start = from == null ? 0 : days.indexOf(from);
+        int end = to == null ? days.size() : days.indexOf(to.plusDays(1));
+        for (int i = start; i < end; i++) {
+            if (json != null) json(user, days, i); else csv(user, days, i);
+        }
+        return Math.max(0, end - start);
+    }
+
+    private void json(String user, DailyColumns days, int i) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("user", user);
+        for (HaeField f : HaeField.ALL) {
+            json.writeFieldName(f.metric());
+            switch (f.kind) {
+                case DATE     -> json.writeString(days.date(i).toString());
+                case SUM_LONG -> json.writeNumber((long) days.value(f, i));
+                case AVG_INT  -> { if (days.isNull(f, i)) json.writeNull(); else json.writeNumber((int) days.value(f, i)); }
+                case MEDIAN   -> { if (days.isNull(f, i)) json.writeNull(); else json.writeNumber(days.value(f, i)); }
+                case SUM, AVG -> json.writeNumber(days.value(f, i));
+            }
+        }
+        json.writeEndObject();
+        json.writeRaw('\n');
+    }
+
+    private void csv(String user, DailyColumns days, int i) throws IOException {
+        quoted(user);
+        for (HaeField f : HaeField.ALL) {
+            csv.write(',');
+            switch (f.kind) {
+                case DATE     -> csv.write(days.date(i).toString());
+                case SUM_LONG -> csv.write(Long.toString((long) days.value(f, i)));
+                case AVG_INT  -> { if (!days.isNull(f, i)) csv.write(Integer.toString((int) days.value(f, i))); }
+                case MEDIAN   -> { if (!days.isNull(f, i)) csv.write(Double.toString(days.value(f, i))); }
+                case SUM, AVG -> csv.write(Double.toString(days.value(f, i)));
+            }
+        }
+        csv.write('\n');
+    }
+
+    /** RFC 4180 quoting, only when the user name needs it (metric cells never do). */
+    private void quoted(String s) throws IOException {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) { csv.write(s); return; }
+        csv.write('"');
+        csv.write(s.replace("\"", "\"\""));
+        csv.write('"');
+    }
+
+    /** Flushes what is buffered; the stream itself belongs to the caller. */
+    @Override
+    public void close() throws IOException {
+        if (json != null) json.close(); else csv.flush();
+    }
+}
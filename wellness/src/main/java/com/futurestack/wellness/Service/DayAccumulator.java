@@ -0,0 +1,176 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.DailySample;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Primitive running aggregate of every whitelisted field for one date. Rows are folded
+ * in as they are read, so memory depends on the number of days rather than rows.
+ * Means use the same compensated summation as {@code DoubleStream.average()} so the
+ * resulting {@link DailySample} is identical to averaging the collected values.
+ */
+final class DayAccumulator {
+    private static final int N = HaeField.ALL.length;
+
+    private final double[] sum   = new double[N];   // SUM, or Kahan high-order sum for AVG
+    private final double[] comp  = new double[N];   // Kahan compensation for AVG
+    private final long[]   lsum  = new long[N];     // SUM_LONG and AVG_INT
+    private final long[]   count = new long[N];     // non-blank cells for AVG / AVG_INT / MEDIAN
+    private double[] hrv = new double[4];           // MEDIAN samples (HRV only)
+    private int rows;                               // CSV rows / most points of one JSON metric (ingest metrics only; not persisted)
+    private int pointMetric, points;                // JSON metric whose points are being counted, and its count so far
+
+    /** Count one CSV row of this date. */
+    void countRow() { rows++; }
+
+    /** Count one JSON data point of the {@code metric}-th metric; rows become the most points of any one metric. */
+    void countPoint(int metric) {
+        if (pointMetric != metric) { pointMetric = metric; points = 0; }
+        if (++points > rows) rows = points;
+    }
+    int rows() { return rows; }
+
+    /** Fold one raw CSV cell; blank cells are ignored just like the per-kind parse helpers did. */
+    void accept(HaeField f, String raw) {
+        if (raw == null) return;
+        String v = raw.trim();
+        if (v.isEmpty()) return;
+        switch (f.kind) {
+            case SUM_LONG -> addLong(f, Long.parseLong(v));
+            case AVG_INT  -> addLong(f, (int) Math.round(Double.parseDouble(v)));
+            case DATE     -> { }
+            default       -> add(f, Double.parseDouble(v));
+        }
+    }
+
+    /**
+     * Fold one numeric value (a JSON data point); NaN is a blank cell. Integral fields are
+     * rounded, as exports that aggregate several sources report fractional step counts.
+     */
+    void accept(HaeField f, double v) {
+        if (Double.isNaN(v)) return;
+        switch (f.kind) {
+            case SUM_LONG -> addLong(f, Math.round(v));
+            case AVG_INT  -> addLong(f, (int) Math.round(v));
+            case DATE     -> { }
+            default       -> add(f, v);
+        }
+    }
+
+    void add(HaeField f, double v) {
+        int i = f.ordinal();
+        switch (f.kind) {
+            case SUM -> sum[i] += v;
+            case AVG -> {
+                double tmp = v - comp[i], s = sum[i], velvel = s + tmp;
+                comp[i] = (velvel - s) - tmp;
+                sum[i] = velvel;
+                count[i]++;
+            }
+            case MEDIAN -> {
+                int n = (int) count[i];
+                if (n == hrv.length) hrv = Arrays.copyOf(hrv, n * 2);
+                hrv[n] = v;
+                count[i]++;
+            }
+            default -> throw new IllegalArgumentException(f + " is not a double field");
+        }
+    }
+
+    void addLong(HaeField f, long v) {
+        int i = f.ordinal();
+        lsum[i] += v;
+        if (f.kind == HaeField.Kind.AVG_INT) count[i]++;
+    }
+
+    /**
+     * New accumulator holding both days' rows, {@code b}'s after {@code a}'s. Counts, integral
+     * sums and HRV samples match reading the rows in that order; compensated totals add
+     * {@code b}'s as a single Kahan step, so they can differ from a row-by-row read in the
+     * last bits. Neither input is modified, so published accumulators stay immutable.
+     */
+    static DayAccumulator merged(DayAccumulator a, DayAccumulator b) {
+        DayAccumulator m = new DayAccumulator();
+        System.arraycopy(a.sum, 0, m.sum, 0, N);
+        System.arraycopy(a.comp, 0, m.comp, 0, N);
+        System.arraycopy(a.lsum, 0, m.lsum, 0, N);
+        System.arraycopy(a.count, 0, m.count, 0, N);
+        m.rows = a.rows + b.rows;
+        m.hrv = Arrays.copyOf(a.hrv, (int) (a.count[HaeField.HRV_MS.ordinal()] + b.count[HaeField.HRV_MS.ordinal()]) + 1);
+        for (HaeField f : HaeField.ALL) {
+            int i = f.ordinal();
+            switch (f.kind) {
+                case SUM, SUM_LONG, AVG_INT -> { m.sum[i] += b.sum[i]; m.lsum[i] += b.lsum[i]; m.count[i] += b.count[i]; }
+                case AVG -> {
+                    if (b.count[i] == 0) break;
+                    long n = m.count[i];
+                    m.add(f, b.sum[i] - b.comp[i]);   // b's compensated total as one Kahan step
+                    m.count[i] = n + b.count[i];
+                }
+                case MEDIAN -> { for (int k = 0; k < b.count[i]; k++) m.add(f, b.hrv[k]); }
+                case DATE -> { }
+            }
+        }
+        return m;
+    }
+
+    /** Compensated total of a SUM/AVG field (the sum {@link #toSample} divides by the count). */
+    double total(HaeField f) { int i = f.ordinal(); return sum[i] - comp[i]; }
+    long longTotal(HaeField f) { return lsum[f.ordinal()]; }
+    long count(HaeField f) { return count[f.ordinal()]; }
+    /** MEDIAN samples in arrival order. */
+    double[] samples() { return Arrays.copyOf(hrv, (int) count[HaeField.HRV_MS.ordinal()]); }
+
+    /** Rebuild an accumulator from stored column state (see {@link DailyColumns#row}). */
+    void restore(HaeField f, double total, long longTotal, long count) {
+        int i = f.ordinal();
+        sum[i] = total; comp[i] = 0; lsum[i] = longTotal; this.count[i] = count;
+    }
+
+    DailySample toSample(LocalDate date) {
+        return new DailySample(
+                date,
+                sum(HaeField.ACTIVE_ENERGY),
+                avg(HaeField.EXERCISE_MIN),       // avg exercise minutes across records that day
+                sum(HaeField.STAND_HOUR),         // count of hours (sum if multiple records report)
+                sum(HaeField.STAND_MIN),
+                avg(HaeField.SPO2),
+                avg(HaeField.AUDIO_DB),
+                sum(HaeField.FLIGHTS),
+                avgInt(HaeField.HR_MIN),
+                avgInt(HaeField.HR_MAX),
+                avgInt(HaeField.HR_AVG),
+                median(HaeField.HRV_MS),
+                avg(HaeField.PHYS_EFFORT),
+                sum(HaeField.RESTING_ENERGY),
+                avgInt(HaeField.RESTING_HR),
+                avg(HaeField.STAIR_DOWN),
+                avg(HaeField.STAIR_UP),
+                lsum[HaeField.STEPS.ordinal()],
+                sum(HaeField.DISTANCE_MI),
+                avg(HaeField.ASYM_PCT),
+                avg(HaeField.DOUBLE_SUPPORT),
+                avgInt(HaeField.WALK_HR_AVG),
+                avg(HaeField.WALK_SPEED),
+                avg(HaeField.STEP_LEN_IN)
+        );
+    }
+
+    private double sum(HaeField f) { return sum[f.ordinal()]; }
+    private double avg(HaeField f) {
+        int i = f.ordinal();
+        return count[i] == 0 ? 0.0 : (sum[i] - comp[i]) / count[i];
+    }
+    private Integer avgInt(HaeField f) {
+        int i = f.ordinal();
+        return count[i] == 0 ? null : (int) Math.round((double) lsum[i] / count[i]);
+    }
+    private Double median(HaeField f) {
+        int n = (int) count[f.ordinal()];
+        if (n == 0) return null;
+        double[] a = Arrays.copyOf(hrv, n); Arrays.sort(a);
+        return n%2==0? (a[n/2-1]+a[n/2])/2.0 : a[n/2];
+    }
+}
@@ -0,0 +1,155 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.HealthFlag;
+import com.futurestack.wellness.Model.HealthFlag.Type;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming anomaly detector over a user's days, folded in date order at O(1) per metric
+ * per day: a 7-observation-span EWMA of every metric, and a mean / standard deviation over
+ * the previous 28 calendar days kept as ring-buffered sums. Windows and runs are in
+ * calendar days, so gaps in the data age values out and break low-activity runs. Each day
+ * is scored against the state before it, then folded in. Appending later days continues
+ * from a copy of the previous state; anything else refolds from the first day. Only the
+ * flags of the last {@value #RECENT_DAYS} days are kept, the window {@code /flags} and the
+ * prompt read, so a result is the same size whatever the history.
+ */
+final class FlagEngine {
+    static final int WINDOW = 28, MIN_HISTORY = 7, RECENT_DAYS = 7;
+    private static final double ALPHA = 2.0 / (7 + 1);
+    private static final HaeField[] METRICS = Arrays.copyOfRange(HaeField.ALL, 1, HaeField.ALL.length);   // all but DATE
+
+    /** State after the last folded day plus the flags of its last {@value #RECENT_DAYS} days, oldest first. */
+    record Result(FlagEngine state, List<HealthFlag> flags) {
+        /** Flags dated in {@code [from, to]}, keeping only the latest per type and metric. */
+        List<HealthFlag> between(LocalDate from, LocalDate to) {
+            List<HealthFlag> out = new ArrayList<>();
+            for (int i = flags.size() - 1; i >= 0; i--) {
+                HealthFlag f = flags.get(i);
+                if (f.date().isBefore(from)) break;
+                if (f.date().isAfter(to)) continue;
+                if (out.stream().noneMatch(o -> o.type() == f.type() && o.metric().equals(f.metric()))) out.add(f);
+            }
+            out.sort((a, b) -> a.date().compareTo(b.date()));
+            return out;
+        }
+    }
+
+    private final double[] ewma = new double[METRICS.length];
+    private final int[] seen = new int[METRICS.length];
+    private final double[][] ring = new double[METRICS.length][WINDOW];
+    private final long[][] ringDay = new long[METRICS.length][WINDOW];   // epoch day of each ring value
+    private final double[] sum = new double[METRICS.length], sumSq = new double[METRICS.length];
+    private final int[] n = new int[METRICS.length], head = new int[METRICS.length];
+    private int lowActivityRun;
+    private long lastEpochDay = Long.MIN_VALUE;
+
+    private FlagEngine() {}
+
+    private FlagEngine(FlagEngine o) {
+        System.arraycopy(o.ewma, 0, ewma, 0, ewma.length);
+        System.arraycopy(o.seen, 0, seen, 0, seen.length);
+        for (int m = 0; m < ring.length; m++) {
+            System.arraycopy(o.ring[m], 0, ring[m], 0, WINDOW);
+            System.arraycopy(o.ringDay[m], 0, ringDay[m], 0, WINDOW);
+        }
+        System.arraycopy(o.sum, 0, sum, 0, sum.length);
+        System.arraycopy(o.sumSq, 0, sumSq, 0, sumSq.length);
+        System.arraycopy(o.n, 0, n, 0, n.length);
+        System.arraycopy(o.head, 0, head, 0, head.length);
+        lowActivityRun = o.lowActivityRun;
+        lastEpochDay = o.lastEpochDay;
+    }
+
+    static Result fold(DailyColumns days) {
+        FlagEngine e = new FlagEngine();
+        List<HealthFlag> flags = new ArrayList<>();
+        for (int i = 0; i < days.size(); i++) e.accept(days, i, flags);
+        return new Result(e, e.recent(flags));
+    }
+
+    /** {@code prev} extended by {@code days}; refolds unless every new or changed day is after the last one folded. */
+    static Result extend(Result prev, DailyColumns days, LocalDate firstChanged) {
+        if (prev == null || firstChanged.toEpochDay() <= prev.state().lastEpochDay) return fold(days);
+        FlagEngine e = new FlagEngine(prev.state());
+        List<HealthFlag> flags = new ArrayList<>(prev.flags());
+        for (int i = days.indexOf(firstChanged); i < days.size(); i++) e.accept(days, i, flags);
+        return new Result(e, e.recent(flags));
+    }
+
+    /** The tail of {@code flags} dated in the last {@value #RECENT_DAYS} days up to the last folded one. */
+    private List<HealthFlag> recent(List<HealthFlag> flags) {
+        int from = flags.size();
+        while (from > 0 && flags.get(from - 1).date().toEpochDay() > lastEpochDay - RECENT_DAYS) from--;
+        return List.copyOf(flags.subList(from, flags.size()));
+    }
+
+    private void accept(DailyColumns days, int i, List<HealthFlag> out) {
+        LocalDate date = days.date(i);
+        long day = date.toEpochDay();
+        boolean nextDay = day - lastEpochDay == 1;
+        lastEpochDay = day;
+        for (int m = 0; m < METRICS.length; m++) {
+            HaeField f = METRICS[m];
+            expire(m, day);
+            if (days.missing(f, i)) continue;
+            double x = days.value(f, i);
+            Double mean = n[m] >= MIN_HISTORY ? sum[m] / n[m] : null;
+            Double z = null;
+            if (mean != null) {
+                double var = sumSq[m] / n[m] - mean * mean;
+                if (var > 1e-9 * Math.max(1, mean * mean)) z = (x - mean) / Math.sqrt(var);   // flat history: no z
+            }
+            if (!specific(f, m, x, mean, z, date, out) && z != null && Math.abs(z) >= 3)
+                out.add(new HealthFlag(Type.OUTLIER, f.metric(), date, x, round(mean), round(z)));
+            fold(m, x, day);
+        }
+        long steps = (long) days.value(HaeField.STEPS, i);
+        lowActivityRun = steps >= 5000 ? 0 : nextDay ? lowActivityRun + 1 : 1;   // a day without data breaks the run
+        if (lowActivityRun >= 3)
+            out.add(new HealthFlag(Type.LOW_ACTIVITY, HaeField.STEPS.metric(), date, lowActivityRun, null, null));
+    }
+
+    /** Emit the metric's dedicated flag if it has one and fires; true when it did. */
+    private boolean specific(HaeField f, int m, double x, Double mean, Double z, LocalDate date, List<HealthFlag> out) {
+        Type t = switch (f) {
+            case SPO2       -> x < 92 || z != null && z <= -2 ? Type.LOW_SPO2 : null;
+            case AUDIO_DB   -> x > 80 || z != null && z >= 2.5 ? Type.HIGH_AUDIO : null;
+            case RESTING_HR -> seen[m] >= 3 && x - ewma[m] > 5 ? Type.RISING_RESTING_HR : null;
+            default         -> null;
+        };
+        if (t == null) return false;
+        Double base = t == Type.RISING_RESTING_HR ? Double.valueOf(ewma[m]) : mean;
+        out.add(new HealthFlag(t, f.metric(), date, x, round(base), round(z)));
+        return true;
+    }
+
+    /** Drop the metric's ring values from {@value #WINDOW} or more days before {@code day}, oldest first. */
+    private void expire(int m, long day) {
+        while (n[m] > 0) {
+            int tail = Math.floorMod(head[m] - n[m], WINDOW);
+            if (ringDay[m][tail] > day - WINDOW) return;
+            double old = ring[m][tail];
+            sum[m] -= old;
+            sumSq[m] -= old * old;
+            if (--n[m] == 0) sum[m] = sumSq[m] = 0;           // no rounding residue left behind
+        }
+    }
+
+    /** Fold the day's value in; {@link #expire} has left at most {@code WINDOW - 1} earlier days in the ring. */
+    private void fold(int m, double x, long day) {
+        ewma[m] = seen[m]++ == 0 ? x : ewma[m] + ALPHA * (x - ewma[m]);
+        ring[m][head[m]] = x;
+        ringDay[m][head[m]] = day;
+        head[m] = (head[m] + 1) % WINDOW;
+        n[m]++;
+        sum[m] += x;
+        sumSq[m] += x * x;
+    }
+
+    private static Double round(Double v) { return v == null ? null : Math.round(v * 100.0) / 100.0; }
+}
@@ -0,0 +1,34 @@
+package com.futurestack.wellness.Service;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/** Column index of every {@link HaeField} for one CSV header (-1 when an optional field is absent). */
+record HaeColumns(int[] columns) {
+
+    int of(HaeField f) { return columns[f.ordinal()]; }
+
+    /** Resolve the whitelist against a header map keyed by {@link #norm(String)}-ed names. */
+    static HaeColumns resolve(Map<String,Integer> head) {
+        int[] cols = new int[HaeField.ALL.length];
+        for (HaeField f : HaeField.ALL) {
+            String key = f.optional ? any(head, f.expects) : req(head, f.expects);
+            Integer i = key == null ? null : head.get(key);
+            cols[f.ordinal()] = i == null ? -1 : i;
+        }
+        return new HaeColumns(cols);
+    }
+
+    static String norm(String s){ return s==null? "" : s.replace("\uFEFF","").trim().toLowerCase(Locale.ROOT); }
+    private static String req(Map<String,Integer> idx, String... expects){
+        for (String e : expects){ String k = norm(e); if (idx.containsKey(k)) return k; }
+        // loose contains match for odd symbols like kcal/hr·kg
+        for (String key : idx.keySet()) for (String e : expects) if (key.contains(norm(e))) return key;
+        throw new IllegalArgumentException("CSV missing required header, expected one of: "+Arrays.toString(expects));
+    }
+    private static String any(Map<String,Integer> idx, String... needles){
+        for (String k : idx.keySet()) for (String n : needles) if (k.contains(norm(n))) return k;
+        return null;
+    }
+}
@@ -0,0 +1,349 @@
+package com.futurestack.wellness.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Byte-level reader for the plain (unquoted) CSV that Health Auto Export writes.
+ * Cells are located by offset in the upload buffer and numbers/dates are parsed in
+ * place, so the hot loop allocates nothing per cell. Anything that needs a real CSV
+ * parser (quotes, bare CR, ragged rows, duplicate headers) or that is not plain ASCII
+ * raises {@link Malformed} and the caller falls back to commons-csv.
+ */
+final class HaeCsvTokenizer {
+
+    /** Input this tokenizer does not handle; re-read it with commons-csv. */
+    static final class Malformed extends Exception {
+        Malformed(String msg) { super(msg, null, false, false); }
+    }
+
+    // header line -> resolved whitelist columns; exports from one app version share a header
+    private static final int MAX_CACHED_HEADERS = 256;
+    private static final Map<String, HaeColumns> COLUMNS = new ConcurrentHashMap<>();
+
+    private final ByteBuffer buf;
+    private final HaeColumns cols;
+    private final int bodyStart;
+    private final int width;        // cells per row we need to locate (max whitelisted column + 1)
+
+    private HaeCsvTokenizer(ByteBuffer buf, HaeColumns cols, int bodyStart) {
+        this.buf = buf; this.cols = cols; this.bodyStart = bodyStart;
+        this.width = Arrays.stream(cols.columns()).max().orElse(-1) + 1;
+    }
+
+    /** Read and resolve the header line of {@code buf}. */
+    static HaeCsvTokenizer open(ByteBuffer buf) throws Malformed {
+        int limit = buf.limit(), eol = 0;
+        while (eol < limit && buf.get(eol) != '\n') eol++;
+        int end = eol;
+        if (end > 0 && buf.get(end-1) == '\r') end--;
+        byte[] raw = new byte[end];
+        buf.get(0, raw);
+        String header = new String(raw, StandardCharsets.UTF_8);
+        if (header.indexOf('"') >= 0 || header.indexOf('\r') >= 0) throw new Malformed("quoted header");
+
+        HaeColumns cols = COLUMNS.get(header);
+        if (cols == null) {
+            cols = HaeColumns.resolve(headerMap(header));
+            if (COLUMNS.size() >= MAX_CACHED_HEADERS) COLUMNS.clear();
+            COLUMNS.put(header, cols);
+        }
+        return new HaeCsvTokenizer(buf, cols, Math.min(eol + 1, limit));
+    }
+
+    private static Map<String,Integer> headerMap(String header) throws Malformed {
+        String[] names = header.split(",", -1);
+        Map<String,Integer> head = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].isBlank()) throw new Malformed("missing header name");   // commons-csv rejects these
+            head.put(names[i], i);
+        }
+        if (head.size() != names.length) throw new Malformed("duplicate header names");
+        try {
+            return head.entrySet().stream()
+                    .collect(Collectors.toMap(e -> HaeColumns.norm(e.getKey()), Map.Entry::getValue));
+        } catch (IllegalStateException dup) {
+            throw new Malformed("duplicate normalized header names");
+        }
+    }
+
+    int bodyStart() { return bodyStart; }
+    int limit() { return buf.limit(); }
+
+    /** Aggregate every row of the body. */
+    NavigableMap<LocalDate, DayAccumulator> parse() throws Malformed { return parse(bodyStart, buf.limit()); }
+
+    /** Aggregate the rows in {@code [from, to)}; both ends must sit on row boundaries. */
+    NavigableMap<LocalDate, DayAccumulator> parse(int from, int to) throws Malformed {
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+        int[] start = new int[width], end = new int[width];
+        int dateCol = cols.of(HaeField.DATE);
+        DateFormat fmt = null;
+        int lastDateStart = -1, lastDateEnd = -1;
+        DayAccumulator day = null;
+
+        int pos = from;
+        while (pos < to) {
+            // locate the cells we need, then skip to the end of the line
+            int cell = 0, cellStart = pos, p = pos;
+            byte b = 0;
+            for (; p < to; p++) {
+                b = buf.get(p);
+                if (b == ',' || b == '\n' || b == '\r') {
+                    if (cell < width) { start[cell] = cellStart; end[cell] = p; }
+                    cell++; cellStart = p + 1;
+                    if (b != ',') break;
+                } else if (b == '"') {
+                    throw new Malformed("quoted cell at byte " + p);
+                } else if (b < 0) {                  // multi-byte UTF-8: trimming and numbers are the JDK's call
+                    throw new Malformed("non-ASCII byte at " + p);
+                }
+            }
+            if (p == to) {                       // last line without a terminator
+                if (cell < width) { start[cell] = cellStart; end[cell] = p; }
+                cell++;
+            }
+            int next = p + 1;
+            if (b == '\r') {
+                if (next >= to || buf.get(next) != '\n') throw new Malformed("bare CR at byte " + p);
+                next++;
+            }
+            boolean emptyLine = cell == 1 && end[0] == start[0];
+            pos = next;
+            if (emptyLine) continue;
+            if (cell < width) throw new Malformed("short row at byte " + start[0]);
+
+            // consecutive rows of one day share the accumulator without a map lookup
+            int ds = start[dateCol], de = end[dateCol];
+            if (day == null || !sameBytes(ds, de, lastDateStart, lastDateEnd)) {
+                LocalDate date = null;
+                if (fmt == null) fmt = DateFormat.detect(buf, ds, de);
+                if (fmt != null) date = fmt.parseCell(buf, ds, de);
+                if (date == null) date = HealthService.parseDate(string(ds, de));
+                day = byDate.computeIfAbsent(date, d -> new DayAccumulator());
+                lastDateStart = ds; lastDateEnd = de;
+            }
+            day.countRow();
+
+            for (HaeField f : HaeField.ALL) {
+                int c = cols.of(f);
+                if (c < 0 || f == HaeField.DATE) continue;
+                int s = start[c], e = end[c];
+                while (s < e && (buf.get(s) & 0xFF) <= ' ') s++;
+                while (e > s && (buf.get(e-1) & 0xFF) <= ' ') e--;
+                if (s == e) continue;
+                switch (f.kind) {
+                    case SUM_LONG -> day.addLong(f, parseLong(s, e));
+                    case AVG_INT  -> day.addLong(f, (int) Math.round(parseDouble(s, e)));
+                    default       -> day.add(f, parseDouble(s, e));
+                }
+            }
+        }
+        return byDate;
+    }
+
+    /**
+     * Aggregate the body on the common fork/join pool. Ranges are halved until they are at
+     * most {@code chunkBytes}, and every cut is moved forward to the first row of a new date,
+     * so each day is folded by exactly one task in file order and the per-date results merge
+     * as a disjoint union (identical to {@link #parse()}). If a date shows up in more than
+     * one chunk (unsorted export) the whole body is re-parsed sequentially.
+     */
+    NavigableMap<LocalDate, DayAccumulator> parseParallel(int chunkBytes) throws Malformed {
+        AtomicReference<Malformed> malformed = new AtomicReference<>();
+        var byDate = ForkJoinPool.commonPool().invoke(new Chunk(bodyStart, buf.limit(), Math.max(chunkBytes, 1), malformed));
+        if (malformed.get() != null) throw malformed.get();
+        return byDate != null ? byDate : parse();
+    }
+
+    /** Returns null when a date was split across chunks or a chunk was malformed. */
+    private final class Chunk extends RecursiveTask<NavigableMap<LocalDate, DayAccumulator>> {
+        private final int from, to, chunkBytes;
+        private final AtomicReference<Malformed> malformed;
+
+        Chunk(int from, int to, int chunkBytes, AtomicReference<Malformed> malformed) {
+            this.from = from; this.to = to; this.chunkBytes = chunkBytes; this.malformed = malformed;
+        }
+
+        @Override
+        protected NavigableMap<LocalDate, DayAccumulator> compute() {
+            if (malformed.get() != null) return null;
+            int cut = to - from > chunkBytes ? dateBoundary(from + (to - from) / 2, to) : -1;
+            if (cut < 0) {
+                try { return parse(from, to); }
+                catch (Malformed e) { malformed.compareAndSet(null, e); return null; }
+            }
+            Chunk left = new Chunk(from, cut, chunkBytes, malformed);
+            left.fork();
+            var right = new Chunk(cut, to, chunkBytes, malformed).compute();
+            var merged = left.join();
+            if (merged == null || right == null) return null;
+            for (var e : right.entrySet()) if (merged.putIfAbsent(e.getKey(), e.getValue()) != null) return null;
+            return merged;
+        }
+    }
+
+    /** Start of the first row at or after {@code at} whose date cell differs from the row before it, or -1. */
+    private int dateBoundary(int at, int to) {
+        int line = at;
+        while (line < to && buf.get(line-1) != '\n') line++;
+        if (line >= to) return -1;
+        int prev = line - 1;
+        while (prev > bodyStart && buf.get(prev-1) != '\n') prev--;
+        long date = dateCell(prev, to);
+        while (line < to) {
+            long next = dateCell(line, to);
+            if (next < 0 || date < 0) return -1;    // irregular row; let the sequential parser report it
+            if (!sameBytes((int) (next >>> 32), (int) next, (int) (date >>> 32), (int) date)) return line;
+            while (line < to && buf.get(line) != '\n') line++;
+            line++;
+        }
+        return -1;
+    }
+
+    /** {@code start << 32 | end} of the date cell of the row starting at {@code line}, or -1. */
+    private long dateCell(int line, int to) {
+        int col = 0, s = line, dateCol = cols.of(HaeField.DATE);
+        for (int p = line; p < to; p++) {
+            byte b = buf.get(p);
+            if (b == ',' || b == '\n' || b == '\r') {
+                if (col == dateCol) return (long) s << 32 | p;
+                if (b != ',') return -1;
+                col++; s = p + 1;
+            }
+        }
+        return col == dateCol ? (long) s << 32 | to : -1;
+    }
+
+    private boolean sameBytes(int s1, int e1, int s2, int e2) {
+        if (e1 - s1 != e2 - s2) return false;
+        for (int i = 0; i < e1 - s1; i++) if (buf.get(s1+i) != buf.get(s2+i)) return false;
+        return true;
+    }
+
+    private String string(int s, int e) {
+        byte[] raw = new byte[e - s];
+        buf.get(s, raw);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    // ---- in-place number parsing; anything unusual goes through the JDK parsers ----
+    private static final double[] POW10 = new double[23];
+    static { POW10[0] = 1; for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i-1] * 10; }
+
+    /**
+     * Plain decimals whose digits fit in 2^53 and with at most 22 fraction digits are
+     * exact as {@code mantissa / 10^k} (a single correctly rounded division), which is
+     * what {@link Double#parseDouble} returns for them.
+     */
+    double parseDouble(int s, int e) {
+        int p = s;
+        boolean neg = false;
+        byte b = buf.get(p);
+        if (b == '-' || b == '+') { neg = b == '-'; p++; }
+        long m = 0; int digits = 0, frac = -1;
+        for (; p < e; p++) {
+            b = buf.get(p);
+            if (b >= '0' && b <= '9') {
+                if (++digits > 15) return Double.parseDouble(string(s, e));
+                m = m * 10 + (b - '0');
+                if (frac >= 0) frac++;
+            } else if (b == '.' && frac < 0) {
+                frac = 0;
+            } else {
+                return Double.parseDouble(string(s, e));
+            }
+        }
+        if (digits == 0) return Double.parseDouble(string(s, e));
+        double v = frac > 0 ? m / POW10[frac] : m;
+        return neg ? -v : v;
+    }
+
+    long parseLong(int s, int e) {
+        int p = s;
+        boolean neg = false;
+        byte b = buf.get(p);
+        if (b == '-' || b == '+') { neg = b == '-'; p++; }
+        if (p == e || e - p > 18) return Long.parseLong(string(s, e));
+        long v = 0;
+        for (; p < e; p++) {
+            b = buf.get(p);
+            if (b < '0' || b > '9') return Long.parseLong(string(s, e));
+            v = v * 10 + (b - '0');
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * The three layouts {@link HealthService#parseDate} accepts, matched on bytes. A
+     * cell that does not match exactly (padding, out-of-range values) returns null and
+     * goes through the formatter path so results and errors stay the same.
+     */
+    enum DateFormat {
+        ISO   { LocalDate parse(ByteBuffer b, int s, int e) { return ymd(b, s, e, '-', 4, 2, 2, 2, 2); } },  // yyyy-MM-dd
+        SHORT {                                                                                               // M/d/yy
+            LocalDate parse(ByteBuffer b, int s, int e) {
+                int m1 = s, m2 = scanDigits(b, m1, e, 1, 2);
+                if (m2 < 0 || m2 >= e || b.get(m2) != '/') return null;
+                int d1 = m2 + 1, d2 = scanDigits(b, d1, e, 1, 2);
+                if (d2 < 0 || d2 >= e || b.get(d2) != '/') return null;
+                int y1 = d2 + 1, y2 = scanDigits(b, y1, e, 2, 2);
+                if (y2 != e) return null;
+                return of(2000 + num(b, y1, y2), num(b, m1, m2), num(b, d1, d2));
+            }
+        },
+        YMD_S { LocalDate parse(ByteBuffer b, int s, int e) { return ymd(b, s, e, '/', 4, 1, 2, 1, 2); } };  // yyyy/M/d
+
+        abstract LocalDate parse(ByteBuffer b, int s, int e);
+
+        /** First layout the (untrimmed) cell matches, checked in the same order as parseDate. */
+        static DateFormat detect(ByteBuffer b, int s, int e) {
+            while (s < e && (b.get(s) & 0xFF) <= ' ') s++;
+            while (e > s && (b.get(e-1) & 0xFF) <= ' ') e--;
+            for (DateFormat f : values()) if (f.parse(b, s, e) != null) return f;
+            return null;
+        }
+
+        LocalDate parseCell(ByteBuffer b, int s, int e) {
+            while (s < e && (b.get(s) & 0xFF) <= ' ') s++;
+            while (e > s && (b.get(e-1) & 0xFF) <= ' ') e--;
+            return parse(b, s, e);
+        }
+
+        private static LocalDate ymd(ByteBuffer b, int s, int e, char sep, int yw, int mMin, int mMax, int dMin, int dMax) {
+            int y2 = scanDigits(b, s, e, yw, yw);
+            if (y2 < 0 || y2 >= e || b.get(y2) != sep) return null;
+            int m1 = y2 + 1, m2 = scanDigits(b, m1, e, mMin, mMax);
+            if (m2 < 0 || m2 >= e || b.get(m2) != sep) return null;
+            int d1 = m2 + 1, d2 = scanDigits(b, d1, e, dMin, dMax);
+            if (d2 != e) return null;
+            return of(num(b, s, y2), num(b, m1, m2), num(b, d1, d2));
+        }
+
+        private static LocalDate of(int y, int m, int d) {
+            if (m < 1 || m > 12 || d < 1 || d > 31) return null;
+            if (d > 28 && d > java.time.YearMonth.of(y, m).lengthOfMonth()) return null;  // formatter clamps these
+            return LocalDate.of(y, m, d);
+        }
+
+        /** End offset of a run of {@code min..max} digits starting at {@code s}, or -1. */
+        private static int scanDigits(ByteBuffer b, int s, int e, int min, int max) {
+            int p = s;
+            while (p < e && p - s < max && b.get(p) >= '0' && b.get(p) <= '9') p++;
+            return p - s < min ? -1 : p;
+        }
+
+        private static int num(ByteBuffer b, int s, int e) {
+            int v = 0;
+            for (int p = s; p < e; p++) v = v * 10 + (b.get(p) - '0');
+            return v;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.DailySample;
+
+/**
+ * Whitelisted Health Auto Export columns, in header-resolution order, with the
+ * per-day aggregation each one gets when rows of the same date are collapsed.
+ */
+enum HaeField {
+    DATE          (Kind.DATE,     false, "date"),
+    ACTIVE_ENERGY (Kind.SUM,      false, "active energy"),                  // (kcal)
+    EXERCISE_MIN  (Kind.AVG,      false, "apple exercise time"),            // (min)
+    STAND_HOUR    (Kind.SUM,      false, "apple stand hour"),               // (count)
+    STAND_MIN     (Kind.SUM,      false, "apple stand time"),               // (min)
+    SPO2          (Kind.AVG,      false, "blood oxygen saturation (% )", "blood oxygen saturation (%)"),
+    AUDIO_DB      (Kind.AVG,      false, "environmental audio exposure (dbaspl)"),
+    FLIGHTS       (Kind.SUM,      false, "flights climbed (count)"),
+    HR_MIN        (Kind.AVG_INT,  false, "heart rate [min] (count/min)"),
+    HR_MAX        (Kind.AVG_INT,  false, "heart rate [max] (count/min)"),
+    HR_AVG        (Kind.AVG_INT,  false, "heart rate [avg] (count/min)"),
+    HRV_MS        (Kind.MEDIAN,   false, "heart rate variability (ms)"),
+    PHYS_EFFORT   (Kind.AVG,      true,  "physical effort (kcal/hr", "physical effort (kcal/hr"), // tolerate odd symbol
+    RESTING_ENERGY(Kind.SUM,      false, "resting energy (kcal)"),
+    RESTING_HR    (Kind.AVG_INT,  false, "resting heart rate (count/min)"),
+    STAIR_DOWN    (Kind.AVG,      false, "stair speed: down (ft/s)"),
+    STAIR_UP      (Kind.AVG,      false, "stair speed: up (ft/s)"),
+    STEPS         (Kind.SUM_LONG, false, "step count (count)"),
+    DISTANCE_MI   (Kind.SUM,      false, "walking + running distance (mi)"),
+    ASYM_PCT      (Kind.AVG,      false, "walking asymmetry percentage (%)"),
+    DOUBLE_SUPPORT(Kind.AVG,      false, "walking double support percentage (%)"),
+    WALK_HR_AVG   (Kind.AVG_INT,  false, "walking heart rate average (count/min)"),
+    WALK_SPEED    (Kind.AVG,      false, "walking speed (mi/hr)"),
+    STEP_LEN_IN   (Kind.AVG,      false, "walking step length (in)");
+
+    /** How raw cells of one date fold into the day's value. */
+    enum Kind {
+        DATE,
+        SUM,       // double sum, blank cells count as 0
+        SUM_LONG,  // integral sum (Long.parseLong)
+        AVG,       // mean of non-blank cells, 0.0 when none
+        AVG_INT,   // mean of rounded non-blank cells, null when none
+        MEDIAN     // median of non-blank cells, null when none
+    }
+
+    static final HaeField[] ALL = values();
+    private static final String[] METRIC = new String[ALL.length];
+    static {
+        var comps = DailySample.class.getRecordComponents();      // declared in HaeField order
+        if (comps.length != ALL.length) throw new IllegalStateException("DailySample and HaeField are out of step");
+        for (int i = 0; i < comps.length; i++) METRIC[i] = comps[i].getName();
+    }
+
+    final Kind kind;
+    final boolean optional;
+    final String[] expects;
+
+    HaeField(Kind kind, boolean optional, String... expects) {
+        this.kind = kind; this.optional = optional; this.expects = expects;
+    }
+
+    /** Name of the {@link DailySample} component holding this field's daily value. */
+    String metric() { return METRIC[ordinal()]; }
+}
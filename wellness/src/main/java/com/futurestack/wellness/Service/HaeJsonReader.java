@@ -0,0 +1,181 @@
+package com.futurestack.wellness.Service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Token-level reader for Health Auto Export's JSON export,
+ * {@code {"data":{"metrics":[{"name":..., "units":..., "data":[{"date":..., "qty":...}, ...]}, ...]}}}.
+ * Each data point is folded into its date's {@link DayAccumulator} as it is read, exactly
+ * like a non-blank CSV cell, so the result matches the CSV path for the same export and
+ * memory depends on the number of days, never on the size of the document. Metrics
+ * outside the whitelist (sleep, workouts, ...) are skipped without being materialized. A
+ * day's row count is the largest number of points any one metric has on it: the rows the
+ * CSV export of the same data would have when some metric is sampled at every timestamp,
+ * and a lower bound otherwise.
+ *
+ * <p>Unlike a CSV header, a JSON export may leave out metrics that had no samples; those
+ * fold as all-blank columns. A whitelisted metric in other units than the CSV headers
+ * name rejects the upload, as does a metric whose {@code data} comes before its
+ * {@code name}. The day of a point is the local date its timestamp was written in.
+ * {@code basal_energy_burned} and {@code resting_energy} are one quantity under two names
+ * (older and newer exports); only the first of them in the document is read, so an export
+ * carrying both does not count resting energy twice.
+ */
+final class HaeJsonReader {
+
+    /** A whitelisted metric: the field its {@code qty} feeds, or (heart rate) the fields of Min/Avg/Max. */
+    private record Metric(String units, HaeField qty, HaeField min, HaeField avg, HaeField max) {
+        static Metric qty(String units, HaeField f) { return new Metric(units, f, null, null, null); }
+    }
+
+    private static final Map<String, Metric> METRICS = Map.ofEntries(
+            Map.entry("active_energy",                     Metric.qty("kcal", HaeField.ACTIVE_ENERGY)),
+            Map.entry("apple_exercise_time",               Metric.qty("min", HaeField.EXERCISE_MIN)),
+            Map.entry("apple_stand_hour",                  Metric.qty("count", HaeField.STAND_HOUR)),
+            Map.entry("apple_stand_time",                  Metric.qty("min", HaeField.STAND_MIN)),
+            Map.entry("blood_oxygen_saturation",           Metric.qty("%", HaeField.SPO2)),
+            Map.entry("environmental_audio_exposure",      Metric.qty("dBASPL", HaeField.AUDIO_DB)),
+            Map.entry("flights_climbed",                   Metric.qty("count", HaeField.FLIGHTS)),
+            Map.entry("heart_rate",                        new Metric("count/min", null, HaeField.HR_MIN, HaeField.HR_AVG, HaeField.HR_MAX)),
+            Map.entry("heart_rate_variability",            Metric.qty("ms", HaeField.HRV_MS)),
+            Map.entry("physical_effort",                   Metric.qty("kcal/hr", HaeField.PHYS_EFFORT)),   // kcal/hr·kg, odd symbols
+            Map.entry("basal_energy_burned",               Metric.qty("kcal", HaeField.RESTING_ENERGY)),
+            Map.entry("resting_energy",                    Metric.qty("kcal", HaeField.RESTING_ENERGY)),
+            Map.entry("resting_heart_rate",                Metric.qty("count/min", HaeField.RESTING_HR)),
+            Map.entry("stair_speed_down",                  Metric.qty("ft/s", HaeField.STAIR_DOWN)),
+            Map.entry("stair_speed_up",                    Metric.qty("ft/s", HaeField.STAIR_UP)),
+            Map.entry("step_count",                        Metric.qty("count", HaeField.STEPS)),
+            Map.entry("walking_running_distance",          Metric.qty("mi", HaeField.DISTANCE_MI)),
+            Map.entry("walking_asymmetry_percentage",      Metric.qty("%", HaeField.ASYM_PCT)),
+            Map.entry("walking_double_support_percentage", Metric.qty("%", HaeField.DOUBLE_SUPPORT)),
+            Map.entry("walking_heart_rate_average",        Metric.qty("count/min", HaeField.WALK_HR_AVG)),
+            Map.entry("walking_speed",                     Metric.qty("mi/hr", HaeField.WALK_SPEED)),
+            Map.entry("walking_step_length",               Metric.qty("in", HaeField.STEP_LEN_IN)));
+
+    private final NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+    // every metric walks the same days again, so date text is parsed once per export, not per metric
+    private final Map<String, DayAccumulator> byText = new HashMap<>();
+    private final Map<HaeField, String> fedBy = new EnumMap<>(HaeField.class);   // metric name each field is read from
+    private int metrics;              // metrics read so far; numbers each one's points for the row count
+    private String lastDate;          // date text of the previous point: consecutive points mostly share a day
+    private DayAccumulator lastDay;
+
+    private HaeJsonReader() {}
+
+    /** Read the whole document; the parser is left at its end. */
+    static NavigableMap<LocalDate, DayAccumulator> read(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) throw new JsonParseException(p, "HAE JSON export must be an object");
+        HaeJsonReader r = new HaeJsonReader();
+        r.object(p);
+        return r.byDate;
+    }
+
+    /** Descend into {@code data}, read {@code metrics}, skip everything else. */
+    private void object(JsonParser p) throws IOException {
+        for (String name; (name = p.nextFieldName()) != null; ) {
+            JsonToken t = p.nextToken();
+            if (name.equals("data") && t == JsonToken.START_OBJECT) object(p);
+            else if (name.equals("metrics") && t == JsonToken.START_ARRAY) metrics(p);
+            else p.skipChildren();
+        }
+    }
+
+    private void metrics(JsonParser p) throws IOException {
+        for (JsonToken t; (t = p.nextToken()) != JsonToken.END_ARRAY; ) {
+            if (t != JsonToken.START_OBJECT) throw new JsonParseException(p, "metrics must hold objects");
+            metric(p);
+        }
+    }
+
+    private void metric(JsonParser p) throws IOException {
+        String name = null, units = null;
+        Metric m = null;
+        for (String field; (field = p.nextFieldName()) != null; ) {
+            p.nextToken();
+            switch (field) {
+                case "name"  -> { name = p.getText(); m = METRICS.get(name); checkUnits(name, m, units); }
+                case "units" -> { units = p.getText(); checkUnits(name, m, units); }
+                case "data"  -> {
+                    if (name == null) throw new JsonParseException(p, "metric data before its name");
+                    if (m == null || p.currentToken() != JsonToken.START_ARRAY || !firstSource(name, m)) p.skipChildren();
+                    else points(p, m, ++metrics);
+                }
+                default -> p.skipChildren();
+            }
+        }
+    }
+
+    private static void checkUnits(String name, Metric m, String units) {
+        if (m == null || units == null) return;
+        if (!units.trim().toLowerCase(Locale.ROOT).startsWith(m.units().toLowerCase(Locale.ROOT)))
+            throw new IllegalArgumentException("JSON metric " + name + " is in " + units + ", expected " + m.units());
+    }
+
+    /** Whether {@code name} is the metric {@code m}'s fields are read from: the first one mapped to them. */
+    private boolean firstSource(String name, Metric m) {
+        String first = fedBy.putIfAbsent(m.qty() != null ? m.qty() : m.avg(), name);
+        return first == null || first.equals(name);
+    }
+
+    private void points(JsonParser p, Metric m, int metric) throws IOException {
+        for (JsonToken t; (t = p.nextToken()) != JsonToken.END_ARRAY; ) {
+            if (t != JsonToken.START_OBJECT) throw new JsonParseException(p, "data must hold objects");
+            String date = null;
+            double qty = Double.NaN, min = Double.NaN, avg = Double.NaN, max = Double.NaN;   // NaN: blank
+            for (String field; (field = p.nextFieldName()) != null; ) {
+                p.nextToken();
+                switch (field) {
+                    case "date" -> date = p.getText();
+                    case "qty"  -> qty = number(p);
+                    case "Min"  -> min = number(p);
+                    case "Avg"  -> avg = number(p);
+                    case "Max"  -> max = number(p);
+                    default     -> p.skipChildren();
+                }
+            }
+            if (date == null) throw new JsonParseException(p, "data point without a date");
+            DayAccumulator day = day(date);
+            day.countPoint(metric);
+            if (m.qty() != null) day.accept(m.qty(), qty);
+            else { day.accept(m.min(), min); day.accept(m.avg(), avg); day.accept(m.max(), max); }
+        }
+    }
+
+    /** A numeric value (numbers, numeric strings); NaN for null or blank. */
+    private static double number(JsonParser p) throws IOException {
+        return switch (p.currentToken()) {
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> p.getDoubleValue();
+            case VALUE_NULL -> Double.NaN;
+            case VALUE_STRING -> p.getText().isBlank() ? Double.NaN : Double.parseDouble(p.getText().trim());
+            default -> throw new JsonParseException(p, "expected a number");
+        };
+    }
+
+    /** Accumulator for a HAE timestamp ({@code 2024-01-31 23:00:00 -0800}, or a bare date). */
+    private DayAccumulator day(String date) {
+        int end = date.indexOf(' ');
+        if (end < 0) end = date.indexOf('T');
+        if (end < 0) end = date.length();
+        if (lastDate != null && lastDate.length() == end && date.startsWith(lastDate)) return lastDay;
+        String key = date.substring(0, end);
+        DayAccumulator day = byText.get(key);
+        if (day == null) {
+            day = byDate.computeIfAbsent(HealthService.parseDate(key), d -> new DayAccumulator());
+            byText.put(key, day);
+        }
+        lastDate = key;
+        lastDay = day;
+        return lastDay;
+    }
+}
@@ -1,111 +1,367 @@
 package com.futurestack.wellness.Service;
 
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.futurestack.wellness.Model.DailySample;
+import com.futurestack.wellness.Model.HealthFlag;
 import com.futurestack.wellness.Model.Summary7d;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
 public class HealthService {
-    private Summary7d latest;
+    private static final long MAP_THRESHOLD_BYTES = 8L << 20;
+
+    // uploads at least this large are split across the fork/join pool
+    @Value("${wellness.ingest.parallel-threshold-bytes:33554432}") long parallelThresholdBytes = 32L << 20;
+    @Value("${wellness.ingest.chunk-bytes:4194304}")               int  chunkBytes = 4 << 20;
+
+    private final SummaryStore store;
+    private final SnapshotFile snapshots;
+
+    // ingest/summary metrics; tags are bounded (parser, reason), never the user
+    private final MeterRegistry meters;
+    private final DistributionSummary ingestBytes, ingestRows;
+    private final Timer collapseTimer, reduceTimer, flagsTimer;
+
+    // summary response bytes are built once per publish; the epoch keeps ETags unique across restarts
+    private final ObjectWriter summaryWriter;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final JsonFactory jsonFactory;
+
+    @Autowired
+    public HealthService(SummaryStore store, SnapshotFile snapshots, MeterRegistry meters, ObjectMapper mapper) {
+        this.store = store;
+        this.snapshots = snapshots;
+        this.meters = meters;
+        this.summaryWriter = mapper.writerFor(Summary7d.class);
+        this.jsonFactory = mapper.getFactory();
+        this.ingestBytes = DistributionSummary.builder("wellness.ingest.bytes").description("Size of accepted uploads")
+                .baseUnit("bytes").publishPercentileHistogram().register(meters);
+        this.ingestRows = DistributionSummary.builder("wellness.ingest.rows").description("CSV rows, or the most points of one JSON metric per day, per accepted upload")
+                .baseUnit("rows").publishPercentileHistogram().register(meters);
+        this.collapseTimer = Timer.builder("wellness.ingest.collapse")
+                .description("Per-date aggregates to daily columns, or merged into the stored ones")
+                .publishPercentileHistogram().register(meters);
+        this.reduceTimer = Timer.builder("wellness.summary.reduce").description("7-day reduction of the daily columns")
+                .publishPercentileHistogram().register(meters);
+        this.flagsTimer = Timer.builder("wellness.flags.compute").description("Anomaly flag fold over the daily columns")
+                .publishPercentileHistogram().register(meters);
+        store.onPublish((user, snap) -> serialized(snap));
+    }
+
+    /** Unmetered instance for tests and benchmarks. */
+    HealthService(SummaryStore store, SnapshotFile snapshots) {
+        this(store, snapshots, new SimpleMeterRegistry(), new ObjectMapper());
+    }
+
+    /**
+     * Anomaly flags in the stored summary's 7-day window (latest per type and metric), or
+     * null before the first upload. Computed at upload time; no LLM involved.
+     */
+    public List<HealthFlag> getFlags(String user) {
+        UserSnapshot snap = snapshot(user);
+        if (snap == null) return null;
+        LocalDate max = snap.days().date(snap.days().size() - 1);
+        return snap.flags().between(max.minusDays(6), max);
+    }
+
+    /** Version of the user's current snapshot, or 0 before their first upload. */
+    long version(String user) {
+        UserSnapshot snap = snapshot(user);
+        return snap == null ? 0 : snap.version();
+    }
+
+    /** Latest summary published for {@code user}, or null before their first upload. */
+    public Summary7d getSummary(String user) {
+        UserSnapshot snap = snapshot(user);
+        return snap == null ? null : snap.summary();
+    }
+
+    /**
+     * The latest summary as pre-serialized JSON and gzip bytes with a strong ETag, or null
+     * before the first upload. Built when the snapshot is published, so reads do no Jackson work.
+     */
+    public SerializedSummary getSerializedSummary(String user) {
+        UserSnapshot snap = snapshot(user);
+        return snap == null ? null : serialized(snap);
+    }
+
+    private SerializedSummary serialized(UserSnapshot snap) {
+        return snap.serialized(s -> SerializedSummary.of(epoch, s.version(), s.summary(), summaryWriter));
+    }
+
+    /** The user's snapshot, loading their persisted days if it is not in memory yet (or was evicted). */
+    private UserSnapshot snapshot(String user) {
+        UserSnapshot snap = store.get(user);
+        if (snap != null) return snap;
+        DailyColumns days = load(user);
+        if (days == null) return null;
+        UserSnapshot loaded = new UserSnapshot(store.nextVersion(), days, reduce(days), flagsTimer.record(() -> FlagEngine.fold(days)));
+        return store.publish(user, prev -> prev != null ? prev : loaded);
+    }
+
+    /** The user's persisted days, or null when none are (or persistence is off). */
+    private DailyColumns load(String user) {
+        if (!snapshots.enabled()) return null;
+        try { return snapshots.load(user); }
+        catch (IOException e) { throw new UncheckedIOException("Failed to read snapshot for " + user, e); }
+    }
+
+    /**
+     * Summary over the user's stored days in {@code [from, to]}; either bound may be null
+     * to mean the first/last stored day. Null before the first upload or if no day is in range.
+     */
+    public Summary7d getSummary(String user, LocalDate from, LocalDate to) {
+        UserSnapshot snap = snapshot(user);
+        if (snap == null) return null;
+        SeriesIndex idx = snap.index();
+        return idx.summarize(from == null ? idx.first() : from, to == null ? idx.last() : to);
+    }
+
+    /** Summary over the last {@code window} calendar days ending at the user's latest day. */
+    public Summary7d getSummary(String user, int window) {
+        if (window < 1) throw new IllegalArgumentException("window must be at least 1 day");
+        UserSnapshot snap = snapshot(user);
+        if (snap == null) return null;
+        SeriesIndex idx = snap.index();
+        return idx.summarize(idx.last().minusDays(window - 1), idx.last());
+    }
+
+    /**
+     * Stream the stored days of {@code users} (every stored user when null or empty) in
+     * {@code [from, to]} to {@code out}, one record per user and day; returns the rows written.
+     * Users are visited one at a time, in no particular order, and only their days are held:
+     * persisted users not in memory are read from the snapshot file without being published,
+     * and in-memory users are peeked, so the scan neither evicts nor pins anyone.
+     */
+    public long export(Collection<String> users, LocalDate from, LocalDate to, DailyExport.Format format,
+                       OutputStream out) throws IOException {
+        if (from != null && to != null && from.isAfter(to)) throw new IllegalArgumentException("from is after to");
+        long rows = 0;
+        try (DailyExport export = DailyExport.open(format, out, jsonFactory)) {
+            if (users != null && !users.isEmpty()) {
+                for (String user : users) rows += export(export, user, from, to);
+                return rows;
+            }
+            for (String user : snapshots.users()) rows += export(export, user, from, to);
+            for (String user : store.users()) {
+                if (!snapshots.users().contains(user)) rows += export(export, user, from, to);   // not persisted (yet)
+            }
+        }
+        return rows;
+    }
+
+    private long export(DailyExport export, String user, LocalDate from, LocalDate to) throws IOException {
+        UserSnapshot snap = store.peek(user);
+        DailyColumns days = snap != null ? snap.days() : snapshots.load(user);
+        return days == null ? 0 : export.write(user, days, from, to);
+    }
+
+    /** Upload the new HAE CSV (or JSON) export and compute a 7-day summary from the whitelisted fields. */
+    public Summary7d uploadAndSummarize(String user, MultipartFile file) throws Exception {
+        // 1) Fold CSV rows straight into per-date accumulators (headers from first row)
+        NavigableMap<LocalDate, DayAccumulator> byDate = read(file);
+
+        DailyColumns days = collapseTimer.record(() -> DailyColumns.of(byDate));
+        Summary7d summary = reduce(days);
+        FlagEngine.Result flags = flagsTimer.record(() -> FlagEngine.fold(days));
+        persist(user, store.publish(user, prev -> new UserSnapshot(store.nextVersion(), days, summary, flags)));
+        return summary;
+    }
+
+    /**
+     * Merge an export holding only new rows into the user's stored per-day aggregates and
+     * refresh the summary. Only the delta's rows are parsed; its days are merged into (or
+     * added to) the stored days and the 7-day window is re-reduced from at most seven
+     * stored aggregates. Without prior data this is a plain upload.
+     */
+    public Summary7d appendAndSummarize(String user, MultipartFile file) throws Exception {
+        NavigableMap<LocalDate, DayAccumulator> delta = read(file);
+
+        UserSnapshot snap = store.publish(user, prev -> {
+            // not in memory (never loaded, or evicted since): merge into the persisted history, never replace it
+            DailyColumns stored = prev != null ? prev.days() : load(user);
+            DailyColumns days = collapseTimer.record(() -> stored == null ? DailyColumns.of(delta) : stored.merge(delta));
+            FlagEngine.Result flags = flagsTimer.record(() -> prev != null ? FlagEngine.extend(prev.flags(), days, delta.firstKey())
+                    : FlagEngine.fold(days));
+            return new UserSnapshot(store.nextVersion(), days, reduce(days), flags);
+        });
+        persist(user, snap);
+        return snap.summary();
+    }
+
+    private void persist(String user, UserSnapshot snap) throws IOException {
+        snapshots.append(user, snap.version(), snap.days());
+    }
+
+    /**
+     * {@link #ingest} with the ingest metrics. One bad row (unparseable date or number) or a
+     * missing required header rejects the whole upload, so rejections are counted per upload
+     * and tagged with the reason.
+     */
+    private NavigableMap<LocalDate, DayAccumulator> read(MultipartFile file) throws IOException {
+        NavigableMap<LocalDate, DayAccumulator> byDate;
+        try {
+            byDate = ingest(file);
+        } catch (DateTimeException e) {
+            rejected("date"); throw e;
+        } catch (NumberFormatException e) {
+            rejected("number"); throw e;
+        } catch (IllegalArgumentException e) {                        // required header missing or duplicated, or JSON units differ
+            rejected("header"); throw e;
+        } catch (JsonProcessingException e) {
+            rejected("json"); throw e;
+        }
+        if (byDate.isEmpty()) { rejected("empty"); throw new IllegalArgumentException("No data rows."); }
+        ingestBytes.record(file.getSize());
+        ingestRows.record(byDate.values().stream().mapToLong(DayAccumulator::rows).sum());
+        return byDate;
+    }
+
+    private void rejected(String reason) {
+        meters.counter("wellness.ingest.rejected", "reason", reason).increment();
+    }
 
-    public Summary7d getLatest() { return latest; }
+    private Timer parseTimer(String parser) {
+        return Timer.builder("wellness.ingest.parse").description("Upload body to per-date aggregates")
+                .tag("parser", parser).publishPercentileHistogram().register(meters);
+    }
+
+    private Summary7d reduce(DailyColumns days) {
+        return reduceTimer.record(() -> summarize(days));
+    }
 
-    /** Upload the new HAE CSV and compute a 7-day summary from the whitelisted fields. */
-    public Summary7d uploadAndSummarize(MultipartFile file) throws Exception {
-        // 1) Parse CSV (headers from first row)
+    /**
+     * Parse the upload: JSON exports with the streaming reader, CSV with the byte-level
+     * tokenizer, small files straight from memory and larger ones memory-mapped from a
+     * temp file so the heap never holds the export.
+     */
+    NavigableMap<LocalDate, DayAccumulator> ingest(MultipartFile file) throws IOException {
+        if (isJson(file)) return ingestJson(file);
+        if (file.getSize() <= MAP_THRESHOLD_BYTES) {
+            byte[] bytes = file.getBytes();
+            return ingest(ByteBuffer.wrap(bytes), () -> new ByteArrayInputStream(bytes));
+        }
+        Path tmp = Files.createTempFile("hae-upload-", ".csv");
+        try {
+            file.transferTo(tmp);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                if (ch.size() > Integer.MAX_VALUE) return ingestCsv(tmp);   // beyond one mapping
+                return ingest(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()), () -> Files.newInputStream(tmp));
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private NavigableMap<LocalDate, DayAccumulator> ingest(ByteBuffer buf, InputStreamSource source) throws IOException {
+        long start = System.nanoTime();
+        try {
+            HaeCsvTokenizer tok = HaeCsvTokenizer.open(buf);
+            boolean parallel = buf.limit() >= parallelThresholdBytes;
+            var byDate = parallel ? tok.parseParallel(chunkBytes) : tok.parse();
+            parseTimer(parallel ? "tokenizer-parallel" : "tokenizer").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return byDate;
+        } catch (HaeCsvTokenizer.Malformed e) {
+            try (Reader r = new InputStreamReader(source.getInputStream(), StandardCharsets.UTF_8)) {
+                var byDate = ingestCsv(r);   // quoted or irregular CSV: let commons-csv handle it
+                parseTimer("commons-csv").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);   // incl. the abandoned pass
+                return byDate;
+            }
+        }
+    }
+
+    private NavigableMap<LocalDate, DayAccumulator> ingestCsv(Path file) throws IOException {
+        long start = System.nanoTime();
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            var byDate = ingestCsv(r);
+            parseTimer("commons-csv").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return byDate;
+        }
+    }
+
+    /** HAE JSON, read token by token from the upload's stream (Jackson skips a BOM). */
+    private NavigableMap<LocalDate, DayAccumulator> ingestJson(InputStreamSource file) throws IOException {
+        long start = System.nanoTime();
+        try (InputStream in = file.getInputStream(); JsonParser p = jsonFactory.createParser(in)) {
+            var byDate = HaeJsonReader.read(p);
+            parseTimer("jackson-streaming").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return byDate;
+        }
+    }
+
+    /** Whether the body starts with '{' (after a BOM and whitespace); HAE CSVs start with the Date header. */
+    private static boolean isJson(InputStreamSource file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            for (int i = 0, b; i < 64 && (b = in.read()) >= 0; i++) {
+                if (b == '{') return true;
+                if (b != 0xEF && b != 0xBB && b != 0xBF && !Character.isWhitespace(b)) return false;
+            }
+            return false;
+        }
+    }
+
+    /** Single pass over the CSV: each record is folded into its date's accumulator and dropped. */
+    NavigableMap<LocalDate, DayAccumulator> ingestCsv(Reader r) throws IOException {
         CSVFormat format = CSVFormat.Builder.create().setHeader().setSkipHeaderRecord(true).build();
-        List<Map<String,String>> rows = new ArrayList<>();
-
-        try (Reader r = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
-            var parser = format.parse(r);
-            Map<String,Integer> head = parser.getHeaderMap().entrySet().stream()
-                    .collect(Collectors.toMap(e -> norm(e.getKey()), Map.Entry::getValue));
-
-            // whitelist headers (normalized)
-            String DATE   = req(head, "date");
-            String AE     = req(head, "active energy");                  // (kcal)
-            String EX     = req(head, "apple exercise time");            // (min)
-            String SHOUR  = req(head, "apple stand hour");               // (count)
-            String STIME  = req(head, "apple stand time");               // (min)
-            String SPO2   = req(head, "blood oxygen saturation (% )", "blood oxygen saturation (%)");
-            String AUDIO  = req(head, "environmental audio exposure (dbaspl)");
-            String FLIGHTS= req(head, "flights climbed (count)");
-            String HRMIN  = req(head, "heart rate [min] (count/min)");
-            String HRMAX  = req(head, "heart rate [max] (count/min)");
-            String HRAVG  = req(head, "heart rate [avg] (count/min)");
-            String HRV    = req(head, "heart rate variability (ms)");
-            String PEFF   = any(head, "physical effort (kcal/hr", "physical effort (kcal/hr"); // tolerate odd symbol
-            String RENG   = req(head, "resting energy (kcal)");
-            String RHR    = req(head, "resting heart rate (count/min)");
-            String STAIRD = req(head, "stair speed: down (ft/s)");
-            String STAIRU = req(head, "stair speed: up (ft/s)");
-            String STEPS  = req(head, "step count (count)");
-            String DIST   = req(head, "walking + running distance (mi)");
-            String ASYM   = req(head, "walking asymmetry percentage (%)");
-            String DSUPP  = req(head, "walking double support percentage (%)");
-            String WHRAVG = req(head, "walking heart rate average (count/min)");
-            String WSPEED = req(head, "walking speed (mi/hr)");
-            String WSTEP  = req(head, "walking step length (in)");
-
-            for (CSVRecord rec : parser) {
-                Map<String,String> m = new HashMap<>();
-                put(m,"date", rec, head, DATE);
-                put(m,"activeEnergy", rec, head, AE);
-                put(m,"exerciseMin",  rec, head, EX);
-                put(m,"standHour",    rec, head, SHOUR);
-                put(m,"standMin",     rec, head, STIME);
-                put(m,"spo2",         rec, head, SPO2);
-                put(m,"audioDb",      rec, head, AUDIO);
-                put(m,"flights",      rec, head, FLIGHTS);
-                put(m,"hrMin",        rec, head, HRMIN);
-                put(m,"hrMax",        rec, head, HRMAX);
-                put(m,"hrAvg",        rec, head, HRAVG);
-                put(m,"hrvMs",        rec, head, HRV);
-                put(m,"physEff",      rec, head, PEFF);
-                put(m,"restEnergy",   rec, head, RENG);
-                put(m,"restingHr",    rec, head, RHR);
-                put(m,"stairDown",    rec, head, STAIRD);
-                put(m,"stairUp",      rec, head, STAIRU);
-                put(m,"steps",        rec, head, STEPS);
-                put(m,"distanceMi",   rec, head, DIST);
-                put(m,"asymPct",      rec, head, ASYM);
-                put(m,"doubleSupp",   rec, head, DSUPP);
-                put(m,"walkHrAvg",    rec, head, WHRAVG);
-                put(m,"walkSpeed",    rec, head, WSPEED);
-                put(m,"stepLenIn",    rec, head, WSTEP);
-                rows.add(m);
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+
+        var parser = format.parse(r);
+        Map<String,Integer> head = parser.getHeaderMap().entrySet().stream()
+                .collect(Collectors.toMap(e -> HaeColumns.norm(e.getKey()), Map.Entry::getValue));
+        HaeColumns cols = HaeColumns.resolve(head);   // whitelist headers (normalized)
+        int dateCol = cols.of(HaeField.DATE);
+
+        for (CSVRecord rec : parser) {
+            DayAccumulator day = byDate.computeIfAbsent(parseDate(rec.get(dateCol)), d -> new DayAccumulator());
+            day.countRow();
+            for (HaeField f : HaeField.ALL) {
+                int c = cols.of(f);
+                if (c >= 0 && f != HaeField.DATE) day.accept(f, rec.get(c));
             }
         }
+        return byDate;
+    }
 
-        // 2) Collapse by date (sum/avg as needed)
-        Map<LocalDate, List<DailySample>> byDate = rows.stream()
-                .collect(Collectors.groupingBy(m -> parseDate(m.get("date"))))
-                .entrySet().stream().collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        e -> toDailySamples(e.getValue())
-                ));
-
-        // 3) Last 7 days window
-        List<LocalDate> days = new ArrayList<>(byDate.keySet());
-        Collections.sort(days);
-        if (days.isEmpty()) throw new IllegalArgumentException("No data rows.");
-        LocalDate max = days.get(days.size()-1);
+    // ---- reduce the last 7 days of collapsed samples into the summary ----
+    Summary7d summarize(DailyColumns days) {
+        LocalDate max = days.date(days.size()-1);
         LocalDate from = max.minusDays(6);
-        days = days.stream().filter(d -> !d.isBefore(from)).toList();
 
-        // 4) Reduce into 7-day summary
         double totalAE=0, totalRE=0, dist=0, standMinSum=0;
         long stepsSum=0;
         int standGoalDays=0, moveGoalDays=0;
@@ -117,10 +373,8 @@ public class HealthService {
                 stairDownL=new ArrayList<>(), audioL=new ArrayList<>(), spo2L=new ArrayList<>(), spo2MinL=new ArrayList<>(),
                 exMinL=new ArrayList<>();
 
-        for (LocalDate d : days) {
-            // we merged each date list into a single DailySample (see toDailySamples)
-            DailySample s = byDate.get(d).get(0);
-
+        for (int i = days.indexOf(from); i < days.size(); i++) {
+            DailySample s = days.sample(i);
             totalAE += s.activeEnergyKcal();
             totalRE += s.restingEnergyKcal();
             dist    += s.distanceMi();
@@ -153,8 +407,7 @@ public class HealthService {
             exMinL.add(s.exerciseMin());
         }
 
-        int n = Math.max(days.size(), 1);
-        Summary7d summary = new Summary7d(
+        return new Summary7d(
                 round2(totalAE),
                 round2(totalRE),
                 round2(avg(exMinL)),
@@ -184,106 +437,9 @@ public class HealthService {
                 avgD(spo2L),
                 minD(spo2MinL)
         );
-
-        latest = summary;
-        return summary;
-    }
-
-    // ---- merge multiple raw rows of same date into ONE DailySample (sum/avg logic) ----
-    private List<DailySample> toDailySamples(List<Map<String,String>> raw) {
-        // sums
-        double ae=0, re=0, dist=0, standMin=0, flights=0;
-        long steps=0;
-        // “goals” inputs
-        double standHour=0;
-        // avgs (non-null only)
-        List<Integer> hrMinL = new ArrayList<>(), hrMaxL = new ArrayList<>(), hrAvgL = new ArrayList<>(), rhrL = new ArrayList<>(), walkHrL = new ArrayList<>();
-        List<Double> hrvL = new ArrayList<>(), spo2L = new ArrayList<>(), audioL=new ArrayList<>(), peffL=new ArrayList<>(),
-                stairU=new ArrayList<>(), stairD=new ArrayList<>(), speedL=new ArrayList<>(), stepLenL=new ArrayList<>(),
-                dblSuppL=new ArrayList<>(), asymL=new ArrayList<>(), exMinL=new ArrayList<>();
-
-        LocalDate date = null;
-
-        for (var m : raw) {
-            if (date == null) date = parseDate(m.get("date"));
-
-            ae      += safeDouble(m.get("activeEnergy"));
-            re      += safeDouble(m.get("restEnergy"));
-            dist    += safeDouble(m.get("distanceMi"));
-            steps   += safeLong(m.get("steps"));
-            standMin+= safeDouble(m.get("standMin"));
-            flights += safeDouble(m.get("flights"));
-
-            standHour += safeDouble(m.get("standHour"));
-            pushInt(hrMinL, m.get("hrMin"));
-            pushInt(hrMaxL, m.get("hrMax"));
-            pushInt(hrAvgL, m.get("hrAvg"));
-            pushInt(rhrL,   m.get("restingHr"));
-            pushInt(walkHrL,m.get("walkHrAvg"));
-            pushD(hrvL,     m.get("hrvMs"));
-            pushD(spo2L,    m.get("spo2"));
-            pushD(audioL,   m.get("audioDb"));
-            pushD(peffL,    m.get("physEff"));
-            pushD(stairU,   m.get("stairUp"));
-            pushD(stairD,   m.get("stairDown"));
-            pushD(speedL,   m.get("walkSpeed"));
-            pushD(stepLenL, m.get("stepLenIn"));
-            pushD(dblSuppL, m.get("doubleSupp"));
-            pushD(asymL,    m.get("asymPct"));
-            pushD(exMinL,   m.get("exerciseMin"));
-        }
-
-        DailySample s = new DailySample(
-                date,
-                ae,
-                avg(exMinL),                 // avg exercise minutes across records that day
-                standHour,                   // count of hours (sum if multiple records report)
-                standMin,
-                avg(spo2L),
-                avg(audioL),
-                flights,
-                avgInt(hrMinL),
-                avgInt(hrMaxL),
-                avgInt(hrAvgL),
-                median(hrvL),
-                avg(peffL),
-                re,
-                avgInt(rhrL),
-                avg(stairD),
-                avg(stairU),
-                steps,
-                dist,
-                avg(asymL),
-                avg(dblSuppL),
-                avgInt(walkHrL),
-                avg(speedL),
-                avg(stepLenL)
-        );
-
-        return List.of(s);
     }
 
     // ---- parsing & math helpers ----
-    private static String norm(String s){ return s==null? "" : s.replace("\uFEFF","").trim().toLowerCase(Locale.ROOT); }
-    private static String req(Map<String,Integer> idx, String... expects){
-        for (String e : expects){ String k = norm(e); if (idx.containsKey(k)) return k; }
-        // loose contains match for odd symbols like kcal/hr·kg
-        for (String key : idx.keySet()) for (String e : expects) if (key.contains(norm(e))) return key;
-        throw new IllegalArgumentException("CSV missing required header, expected one of: "+Arrays.toString(expects));
-    }
-    private static String any(Map<String,Integer> idx, String... needles){
-        for (String k : idx.keySet()) for (String n : needles) if (k.contains(norm(n))) return k;
-        return null;
-    }
-    private static void put(Map<String,String> m, String outKey, CSVRecord rec, Map<String,Integer> idx, String inKey){
-        if (inKey==null) return; Integer i = idx.get(inKey); if (i==null) return; m.put(outKey, rec.get(i));
-    }
-    private static void pushInt(List<Integer> list, String s){ if(s!=null && !s.trim().isEmpty()) list.add((int) Math.round(Double.parseDouble(s.trim()))); }
-    private static void pushD(List<Double> list, String s){ if(s!=null && !s.trim().isEmpty()) list.add(Double.parseDouble(s.trim())); }
-
-    private static double safeDouble(String s){ return (s==null || s.trim().isEmpty()) ? 0.0 : Double.parseDouble(s.trim()); }
-    private static long   safeLong(String s){ return (s==null || s.trim().isEmpty()) ? 0L  : Long.parseLong(s.trim()); }
-
     private static Double avg(List<Double> l){ return l.isEmpty()? 0.0 : l.stream().mapToDouble(x->x).average().orElse(0.0); }
     private static Integer avgInt(List<Integer> l){ return l.isEmpty()? null : (int)Math.round(l.stream().mapToInt(i->i).average().orElse(0)); }
     private static Double median(List<Double> l){
@@ -299,7 +455,7 @@ public class HealthService {
     private static final DateTimeFormatter ISO   = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter SHORT = DateTimeFormatter.ofPattern("M/d/yy");
     private static final DateTimeFormatter YMD_S = DateTimeFormatter.ofPattern("yyyy/M/d");
-    private static LocalDate parseDate(String raw){
+    static LocalDate parseDate(String raw){
         String v = raw==null? "" : raw.trim();
         for (var f : List.of(ISO, SHORT, YMD_S)) try { return LocalDate.parse(v, f); } catch(Exception ignored){}
         return LocalDate.parse(v); // throw with clear msg if totally unexpected
@@ -0,0 +1,262 @@
+package com.futurestack.wellness.Service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Generates insights for many users at once (e.g. nightly coaching). Calls are paced by a
+ * shared {@link RateBudget} sized to the upstream's RPM/TPM quotas, and each job's
+ * concurrency follows an {@link AdaptiveLimit} fed by latency and 429s. Throttled and 5xx
+ * calls are retried (and held back while the circuit is open); users whose answer is
+ * already cached cost nothing. Every answer is appended, with the fingerprint of the prompt
+ * it was generated for, to {@code <checkpoint-dir>/<job>.results}: that file is the job's
+ * output ({@link #results}), which the bounded insights cache cannot be, and starting the
+ * job again with the same id skips users whose recorded fingerprint still matches their
+ * current summary, after a restart too.
+ */
+@Service
+public class InsightBatchService {
+    private static final Logger log = LoggerFactory.getLogger(InsightBatchService.class);
+    private static final Pattern JOB_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+    private static final int MAX_ATTEMPTS = 5;
+
+    public record Progress(String id, String state, int total, int done, int failed, int concurrencyLimit,
+                           Map<String, String> errors) {}
+
+    private final CerebrasService cerebras;
+    private final RateBudget budget;
+    private final int maxConcurrency;
+    private final long latencyTargetNanos;
+    private final Path checkpointDir;
+    private final LongSupplier nanoTime;
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public InsightBatchService(CerebrasService cerebras,
+                               @Value("${cerebras.rate.requests-per-minute:30}") int requestsPerMinute,
+                               @Value("${cerebras.rate.tokens-per-minute:60000}") int tokensPerMinute,
+                               @Value("${wellness.batch.max-concurrency:8}") int maxConcurrency,
+                               @Value("${wellness.batch.latency-target:PT5S}") Duration latencyTarget,
+                               @Value("${wellness.batch.checkpoint-dir:${java.io.tmpdir}/wellness-batch}") String checkpointDir) {
+        this(cerebras, requestsPerMinute, tokensPerMinute, maxConcurrency, latencyTarget, Path.of(checkpointDir), System::nanoTime);
+    }
+
+    InsightBatchService(CerebrasService cerebras, int requestsPerMinute, int tokensPerMinute, int maxConcurrency,
+                        Duration latencyTarget, Path checkpointDir, LongSupplier nanoTime) {
+        this.cerebras = cerebras;
+        this.budget = new RateBudget(requestsPerMinute, tokensPerMinute, nanoTime);
+        this.maxConcurrency = maxConcurrency;
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.checkpointDir = checkpointDir;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Start (or resume) job {@code id} over {@code users} on a background thread. A job that
+     * is still running is returned as is; a new id is generated when {@code id} is null.
+     */
+    public Progress start(String id, Collection<String> users) throws IOException {
+        String jobId = id == null || id.isBlank() ? UUID.randomUUID().toString() : id;
+        if (!JOB_ID.matcher(jobId).matches()) throw new IllegalArgumentException("Invalid job id: " + jobId);
+        Files.createDirectories(checkpointDir);
+        Job job = jobs.compute(jobId, (k, prev) -> prev != null && prev.running() ? prev : new Job(k, users));
+        job.startOnce();
+        return job.progress();
+    }
+
+    /** Progress of a job started since boot, or null. */
+    public Progress progress(String id) {
+        Job job = jobs.get(id);
+        return job == null ? null : job.progress();
+    }
+
+    /**
+     * Answers recorded by job {@code id}, by user (the latest when a user was generated more
+     * than once), or null when the job never recorded anything.
+     */
+    public Map<String, String> results(String id) throws IOException {
+        if (!JOB_ID.matcher(id).matches()) throw new IllegalArgumentException("Invalid job id: " + id);
+        Path file = checkpointDir.resolve(id + ".results");
+        if (!Files.exists(file)) return null;
+        Map<String, String> texts = new LinkedHashMap<>();
+        readResults(file, (user, key, text) -> texts.put(user, text));
+        return texts;
+    }
+
+    /** Block until the job finishes; for callers that want batch semantics in-process. */
+    Progress await(String id, Duration timeout) throws Exception {
+        jobs.get(id).finished.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        return progress(id);
+    }
+
+    private final class Job {
+        final String id;
+        final List<String> users;
+        final Path checkpoint;
+        final AdaptiveLimit limit = new AdaptiveLimit(Math.max(1, maxConcurrency / 4), maxConcurrency, latencyTargetNanos);
+        final AtomicInteger done = new AtomicInteger(), failed = new AtomicInteger();
+        final Map<String, String> errors = new ConcurrentSkipListMap<>();
+        final CompletableFuture<Void> finished = new CompletableFuture<>();
+        volatile String state = "pending";
+        private boolean started;
+
+        Job(String id, Collection<String> users) {
+            this.id = id;
+            this.users = List.copyOf(new LinkedHashSet<>(users));
+            this.checkpoint = checkpointDir.resolve(id + ".results");
+        }
+
+        boolean running() { return !finished.isDone(); }
+
+        synchronized void startOnce() {
+            if (started) return;
+            started = true;
+            state = "running";
+            Thread.ofVirtual().name("insight-batch-" + id).start(() -> {
+                try {
+                    run();
+                    state = "completed";
+                } catch (Throwable t) {
+                    state = "interrupted";
+                    log.warn("Insight batch {} stopped; start it again to resume", id, t);
+                } finally {
+                    finished.complete(null);
+                }
+            });
+        }
+
+        Progress progress() {
+            return new Progress(id, state, users.size(), done.get(), failed.get(), limit.limit(), Map.copyOf(errors));
+        }
+
+        private void run() throws Exception {
+            Map<String, String> recorded = new HashMap<>();            // user -> prompt fingerprint of their latest answer
+            if (Files.exists(checkpoint)) readResults(checkpoint, (user, key, text) -> recorded.put(user, key));
+            BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+            for (String u : users) { if (stillCurrent(u, recorded.get(u))) done.incrementAndGet(); else queue.add(u); }
+            AtomicInteger remaining = new AtomicInteger(queue.size());
+            Map<String, Integer> attempts = new ConcurrentHashMap<>();
+
+            try (BufferedWriter out = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8, CREATE, WRITE, APPEND)) {
+                if (tornTail()) out.newLine();                             // keep the first new record off a crash's partial line
+                while (remaining.get() > 0) {
+                    String user = queue.poll(50, TimeUnit.MILLISECONDS);
+                    if (user == null) continue;
+                    limit.acquire();
+                    CompletableFuture<String> call;
+                    String key;
+                    try {
+                        if (!cerebras.isCached(user)) budget.acquire(cerebras.estimateTokens(user));
+                        key = cerebras.promptKey(user);                     // before the call: a newer summary only makes the record stale
+                        call = cerebras.getInsightsStrict(user);
+                    } catch (IllegalStateException | IllegalArgumentException e) {   // no summary, no key: not retryable
+                        limit.cancel();
+                        fail(user, e, remaining);
+                        continue;
+                    }
+                    long start = nanoTime.getAsLong();
+                    call.whenComplete((text, err) -> {
+                        Throwable cause = err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+                        boolean throttled = cause instanceof CerebrasService.UpstreamException u && u.status() == 429
+                                || cause instanceof RejectedExecutionException;
+                        if (cause instanceof RejectedExecutionException || cause instanceof CerebrasService.CircuitOpenException) limit.cancel();
+                        else limit.release(nanoTime.getAsLong() - start, throttled);
+                        if (cause == null) {
+                            try {
+                                record(out, user, key, text);
+                                done.incrementAndGet();
+                                remaining.decrementAndGet();
+                            } catch (UncheckedIOException e) {                      // answered, but a resume would redo it
+                                fail(user, e.getCause(), remaining);
+                            }
+                        } else if (cause instanceof CerebrasService.CircuitOpenException open) {
+                            budget.pause(open.retryAfter().toNanos());            // wait for the probe; not an attempt
+                            queue.add(user);
+                        } else if (retryable(cause) && attempts.merge(user, 1, Integer::sum) < MAX_ATTEMPTS) {
+                            if (cause instanceof CerebrasService.UpstreamException u && u.retryAfter() != null)
+                                budget.pause(u.retryAfter().toNanos());
+                            queue.add(user);
+                        } else {
+                            fail(user, cause, remaining);
+                        }
+                    });
+                }
+            }
+        }
+
+        /** A recorded user counts as done while the answer was for their current summary; a newer upload means generating again. */
+        private boolean stillCurrent(String user, String recordedKey) {
+            if (recordedKey == null) return false;
+            try {
+                return recordedKey.equals(cerebras.promptKey(user));
+            } catch (IllegalStateException | IllegalArgumentException e) {   // no summary: let the run report it
+                return false;
+            }
+        }
+
+        private boolean tornTail() throws IOException {
+            try (var ch = Files.newByteChannel(checkpoint)) {
+                if (ch.size() == 0) return false;
+                ByteBuffer last = ByteBuffer.allocate(1);
+                ch.position(ch.size() - 1).read(last);
+                return last.get(0) != '\n';
+            }
+        }
+
+        private boolean retryable(Throwable cause) {
+            return cause instanceof RejectedExecutionException || cause instanceof IOException
+                    || cause instanceof CerebrasService.UpstreamException u && u.retryable();
+        }
+
+        private void fail(String user, Throwable cause, AtomicInteger remaining) {
+            errors.put(user, String.valueOf(cause.getMessage()));
+            failed.incrementAndGet();
+            remaining.decrementAndGet();
+        }
+
+        private void record(BufferedWriter out, String user, String key, String text) {
+            synchronized (out) {
+                try {
+                    out.write(URLEncoder.encode(user, StandardCharsets.UTF_8) + '\t' + key + '\t'
+                            + URLEncoder.encode(text, StandardCharsets.UTF_8) + '\t');   // the trailing tab marks a whole line
+                    out.newLine();
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    private interface ResultLine { void accept(String user, String key, String text); }
+
+    /** Each complete {@code user TAB fingerprint TAB text TAB} line, in file order; a torn line is skipped. */
+    private static void readResults(Path file, ResultLine each) throws IOException {
+        try (var lines = Files.lines(file, StandardCharsets.UTF_8)) {
+            lines.map(line -> line.split("\t", -1)).filter(f -> f.length == 4 && f[3].isEmpty() && !f[0].isEmpty())
+                    .forEach(f -> each.accept(URLDecoder.decode(f[0], StandardCharsets.UTF_8), f[1],
+                            URLDecoder.decode(f[2], StandardCharsets.UTF_8)));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.HealthFlag;
+import com.futurestack.wellness.Model.Summary7d;
+
+import java.util.List;
+
+/**
+ * Deterministic, rule-based insights built only from the summary, served when the LLM is
+ * unavailable (circuit open, deadline passed, retries exhausted). Same shape as the coach
+ * prompt asks for: three bullets, the {@link FlagEngine} flags, and a 7-day plan.
+ */
+final class InsightFallback {
+    private InsightFallback() {}
+
+    static String of(Summary7d s, List<HealthFlag> flags) {
+        long stepsPerDay = s.totalSteps() / 7;
+        double standPerDay = s.totalStandHours() / 7;
+        StringBuilder out = new StringBuilder("AI coach is unavailable right now, so here is a quick rule-based read of your week.\n\n");
+
+        out.append("- Activity & energy: ").append(stepsPerDay).append(" steps/day, ")
+           .append(fmt(s.avgExerciseMinPerDay())).append(" exercise min/day, move goal hit on ")
+           .append(s.moveGoalDays()).append("/7 days. ")
+           .append(stepsPerDay >= 8000 && s.avgExerciseMinPerDay() >= 30 ? "Solid load; keep it steady."
+                   : "Below common targets; build up gradually.").append('\n');
+
+        out.append("- Heart & recovery: resting HR ").append(n(s.restingHrAvg())).append(" bpm (range ")
+           .append(n(s.restingHrMin())).append('–').append(n(s.restingHrMax())).append("), HRV median ")
+           .append(n(s.hrvMedianMs())).append(" ms. ")
+           .append(s.restingHrAvg() != null && s.restingHrMax() != null && s.restingHrMax() - s.restingHrAvg() > 5
+                   ? "Resting HR spiked on some days; prioritise sleep and easier sessions." : "Recovery markers look stable.")
+           .append('\n');
+
+        out.append("- Movement quality: walking speed ").append(n(s.walkSpeedAvgMph())).append(" mph, asymmetry ")
+           .append(n(s.asymmetryAvgPct())).append("%, double support ").append(n(s.doubleSupportAvgPct())).append("%. ")
+           .append(s.asymmetryAvgPct() != null && s.asymmetryAvgPct() > 10 ? "Asymmetry is elevated; add mobility and balance work."
+                   : "Gait looks balanced.").append("\n\n");
+
+        out.append("Flags: ");
+        if (flags.isEmpty()) out.append("none");
+        else out.append(String.join("; ", flags.stream().map(InsightFallback::describe).toList()));
+        out.append("\n\n");
+
+        long stepGoal = Math.max(6000, Math.min(12000, Math.round((stepsPerDay + 1000) / 500.0) * 500));
+        long exerciseGoal = Math.max(20, Math.min(60, Math.round(s.avgExerciseMinPerDay() / 5.0) * 5 + 5));
+        long standGoal = Math.max(8, Math.min(12, Math.round(standPerDay) + 1));
+        out.append("7-day plan: ").append(stepGoal).append(" steps/day, ").append(exerciseGoal)
+           .append(" exercise min/day, ").append(standGoal).append(" stand hours/day, ~2 L water/day, ")
+           .append("sleep 7–9 h in a consistent window (e.g. 23:00–07:00).\n\n")
+           .append("This is not medical advice; see a clinician if concerning patterns persist.");
+        return out.toString();
+    }
+
+    private static String describe(HealthFlag f) {
+        return switch (f.type()) {
+            case LOW_SPO2          -> "low SpO₂ on " + f.date() + " (" + fmt(f.value()) + "%)";
+            case RISING_RESTING_HR -> "resting HR up to " + fmt(f.value()) + " bpm on " + f.date() + " (usual " + n(f.baseline()) + ")";
+            case HIGH_AUDIO        -> "high environmental audio on " + f.date() + " (" + fmt(f.value()) + " dBA)";
+            case LOW_ACTIVITY      -> "low activity for " + (int) f.value() + " days in a row (to " + f.date() + ")";
+            case OUTLIER           -> "unusual " + f.metric() + " on " + f.date() + " (" + fmt(f.value()) + " vs usual " + n(f.baseline()) + ")";
+        };
+    }
+
+    private static String n(Object o) { return o == null ? "n/a" : o instanceof Double d ? fmt(d) : o.toString(); }
+    private static String fmt(double v) { return String.valueOf(Math.round(v * 10) / 10.0); }
+}
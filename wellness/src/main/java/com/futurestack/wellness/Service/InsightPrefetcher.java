@@ -0,0 +1,258 @@
+package com.futurestack.wellness.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Optional background insight generation after uploads, so the user's next
+ * {@code /api/insights} is a cache hit instead of an LLM round trip. Jobs wait in a bounded
+ * queue ordered by priority: users who used an interactive endpoint within
+ * {@code interactive-window} come first, most recent first, then everyone else in arrival
+ * order. A user has at most one queued job; submitting again raises its priority and
+ * restarts its age, so it counts as newly arrived.
+ * When the queue is full the {@link DropPolicy} decides what gives way. A job that waited
+ * longer than {@code max-queue-age} is dropped as stale, and one whose current summary is
+ * already cached costs nothing. Answers go through {@link CerebrasService#getInsightsStrict}
+ * into the insights cache, which drops them as soon as a newer summary is published.
+ */
+@Service
+public class InsightPrefetcher {
+    private static final Logger log = LoggerFactory.getLogger(InsightPrefetcher.class);
+
+    public enum DropPolicy {
+        /** A full queue turns new jobs away. */
+        REJECT_NEW,
+        /** A full queue evicts the longest-waiting job of its lowest priority, unless the new job ranks below all of them. */
+        DROP_OLDEST
+    }
+
+    /** {@code rank}: nanoTime of the user's last interactive request within the window, else {@link Long#MIN_VALUE}. */
+    private record Job(String user, long rank, long seq, long enqueuedNanos) {}
+
+    private static final Comparator<Job> ORDER = Comparator.comparingLong(Job::rank).reversed()
+            .thenComparingLong(Job::enqueuedNanos).thenComparingLong(Job::seq);
+
+    private final CerebrasService cerebras;
+    private final boolean enabled;
+    private final int capacity, workers, maxTracked;
+    private final DropPolicy dropPolicy;
+    private final long interactiveWindowNanos, maxQueueAgeNanos;
+    private final LongSupplier nanoTime;
+    private final MeterRegistry meters;
+    private final Timer waitTimer, generateTimer;
+
+    private final TreeSet<Job> queue = new TreeSet<>(ORDER);
+    private final Map<String, Job> queued = new ConcurrentHashMap<>();      // written under the lock, read without it by touch
+    private final ConcurrentHashMap<String, Long> lastInteractive = new ConcurrentHashMap<>();
+    private final AtomicBoolean pruning = new AtomicBoolean();
+    private final List<Thread> threads = new ArrayList<>();
+    private long seq;
+
+    @Autowired
+    public InsightPrefetcher(CerebrasService cerebras, MeterRegistry meters,
+                             @Value("${wellness.prefetch.enabled:false}") boolean enabled,
+                             @Value("${wellness.prefetch.queue-capacity:1000}") int capacity,
+                             @Value("${wellness.prefetch.drop-policy:DROP_OLDEST}") DropPolicy dropPolicy,
+                             @Value("${wellness.prefetch.workers:2}") int workers,
+                             @Value("${wellness.prefetch.interactive-window:PT15M}") Duration interactiveWindow,
+                             @Value("${wellness.prefetch.max-queue-age:PT10M}") Duration maxQueueAge,
+                             @Value("${wellness.store.max-users:100000}") int maxTracked) {
+        this(cerebras, meters, enabled, capacity, dropPolicy, workers, interactiveWindow, maxQueueAge, maxTracked, System::nanoTime);
+    }
+
+    InsightPrefetcher(CerebrasService cerebras, MeterRegistry meters, boolean enabled, int capacity, DropPolicy dropPolicy,
+                      int workers, Duration interactiveWindow, Duration maxQueueAge, int maxTracked, LongSupplier nanoTime) {
+        if (capacity < 1) throw new IllegalArgumentException("wellness.prefetch.queue-capacity must be positive");
+        if (workers < 1) throw new IllegalArgumentException("wellness.prefetch.workers must be positive");
+        this.cerebras = cerebras;
+        this.meters = meters;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.dropPolicy = dropPolicy;
+        this.workers = workers;
+        this.interactiveWindowNanos = interactiveWindow.toNanos();
+        this.maxQueueAgeNanos = maxQueueAge.toNanos();
+        this.maxTracked = maxTracked;
+        this.nanoTime = nanoTime;
+        this.waitTimer = Timer.builder("wellness.prefetch.wait").description("Time a prefetch job spent queued")
+                .publishPercentileHistogram().register(meters);
+        this.generateTimer = Timer.builder("wellness.prefetch.generate").description("Background insight generation")
+                .publishPercentileHistogram().register(meters);
+        Gauge.builder("wellness.prefetch.queue.size", this, InsightPrefetcher::size)
+                .description("Queued prefetch jobs").register(meters);
+    }
+
+    @PostConstruct
+    synchronized void start() {
+        if (!enabled || !threads.isEmpty()) return;
+        for (int i = 0; i < workers; i++) {
+            Thread t = new Thread(this::work, "insight-prefetch-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        threads.forEach(Thread::interrupt);
+        threads.clear();
+    }
+
+    /**
+     * Record an interactive request by {@code user}; a job already queued for them moves up.
+     * Every interactive request calls this, so only moving a queued job takes the queue's lock.
+     */
+    public void touch(String user) {
+        if (!enabled) return;
+        long now = nanoTime.getAsLong();
+        lastInteractive.put(user, now);
+        prune(now);
+        if (!queued.containsKey(user)) return;
+        synchronized (this) {
+            Job job = queued.get(user);
+            if (job != null && job.rank() < now) requeue(job, now, job.enqueuedNanos());
+        }
+    }
+
+    /**
+     * Forget touches older than the window, then arbitrary users until a quarter of
+     * {@code maxTracked} is free again, so the scan is not repeated on every touch. A user
+     * forgotten early only loses their priority.
+     */
+    private void prune(long now) {
+        // one pruner at a time; the others carry on, and it checks again for what they added meanwhile
+        while (lastInteractive.size() > maxTracked && pruning.compareAndSet(false, true)) {
+            try {
+                lastInteractive.values().removeIf(t -> now - t > interactiveWindowNanos);
+                int keep = maxTracked - maxTracked / 4;
+                for (var it = lastInteractive.keySet().iterator(); lastInteractive.size() > keep && it.hasNext(); ) {
+                    it.next();
+                    it.remove();
+                }
+            } finally {
+                pruning.set(false);
+            }
+        }
+    }
+
+    /**
+     * Queue insight generation for {@code user} (after an upload). Returns whether a job is
+     * queued for them now; false when disabled or the drop policy turned it away.
+     */
+    public synchronized boolean submit(String user) {
+        if (!enabled) return false;
+        long now = nanoTime.getAsLong();
+        long rank = rank(user, now);
+        Job prev = queued.get(user);
+        if (prev != null) {                                           // collapse into the queued job; its age restarts
+            requeue(prev, Math.max(rank, prev.rank()), now);
+            outcome("coalesced");
+            return true;
+        }
+        Job job = new Job(user, rank, seq++, now);
+        if (queue.size() >= capacity) {
+            Job victim = dropPolicy == DropPolicy.DROP_OLDEST ? oldestOfLowestRank() : null;
+            if (victim == null || victim.rank() > rank) { outcome("rejected"); return false; }
+            queue.remove(victim);
+            queued.remove(victim.user());
+            outcome("evicted");
+        }
+        queue.add(job);
+        queued.put(user, job);
+        outcome("queued");
+        notifyAll();
+        return true;
+    }
+
+    public synchronized int size() { return queue.size(); }
+
+    /** Users whose interactive requests are remembered. */
+    int tracked() { return lastInteractive.size(); }
+
+    /** Queued users in the order they will run. */
+    synchronized List<String> pending() {
+        return queue.stream().map(Job::user).toList();
+    }
+
+    private long rank(String user, long now) {
+        Long seen = lastInteractive.get(user);
+        return seen != null && now - seen <= interactiveWindowNanos ? seen : Long.MIN_VALUE;
+    }
+
+    private void requeue(Job job, long rank, long enqueuedNanos) {
+        queue.remove(job);
+        Job moved = new Job(job.user(), rank, job.seq(), enqueuedNanos);
+        queue.add(moved);
+        queued.put(job.user(), moved);
+    }
+
+    private Job oldestOfLowestRank() {
+        long lowest = queue.last().rank();
+        return queue.ceiling(new Job(null, lowest, Long.MIN_VALUE, Long.MIN_VALUE));   // longest waiting of that rank
+    }
+
+    private synchronized Job take() throws InterruptedException {
+        while (queue.isEmpty()) wait();
+        Job job = queue.pollFirst();
+        queued.remove(job.user());
+        return job;
+    }
+
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) run(take());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Generate one job's insights unless it went stale in the queue or the answer is already cached. */
+    private void run(Job job) throws InterruptedException {
+        long waited = nanoTime.getAsLong() - job.enqueuedNanos();
+        waitTimer.record(waited, TimeUnit.NANOSECONDS);
+        if (waited > maxQueueAgeNanos) { outcome("stale"); return; }
+        try {
+            if (cerebras.isCached(job.user())) { outcome("cached"); return; }
+            long start = System.nanoTime();
+            cerebras.getInsightsStrict(job.user()).get();
+            generateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            outcome("generated");
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            outcome("failed");
+            log.debug("Insight prefetch for {} failed: {}", job.user(), e.toString());
+        }
+    }
+
+    /** Run the next queued job on the calling thread, for tests (no worker threads). */
+    boolean runNext() throws InterruptedException {
+        Job job;
+        synchronized (this) {
+            if (queue.isEmpty()) return false;
+            job = take();
+        }
+        run(job);
+        return true;
+    }
+
+    private void outcome(String outcome) {
+        meters.counter("wellness.prefetch.jobs", "outcome", outcome).increment();
+    }
+}
@@ -0,0 +1,139 @@
+package com.futurestack.wellness.Service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of generated insights with a time-to-live. Entries are keyed by a
+ * fingerprint of the model and the full prompt (template plus rendered summary values),
+ * so an unchanged summary never pays for a second completion. Each user keeps at most
+ * one entry, and it is dropped as soon as a new snapshot is published for the user; a
+ * completion that finishes after that, for the older snapshot, is not cached.
+ * Hits, misses, evictions, size and hit ratio are published as {@code wellness.insights.cache.*}.
+ */
+@Component
+public class InsightsCache implements MeterBinder {
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+        public double hitRatio() { long n = hits + misses; return n == 0 ? 0 : (double) hits / n; }
+    }
+
+    private record Entry(String user, String text, long expiresAtMillis) {}
+
+    private final SummaryStore store;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);   // access order
+    private final Map<String, String> byUser = new HashMap<>();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder();
+
+    @Autowired
+    public InsightsCache(SummaryStore store,
+                         @Value("${wellness.insights.cache.max-entries:10000}") int maxEntries,
+                         @Value("${wellness.insights.cache.ttl:PT6H}") Duration ttl) {
+        this(store, maxEntries, ttl, Clock.systemUTC());
+    }
+
+    InsightsCache(SummaryStore store, int maxEntries, Duration ttl, Clock clock) {
+        if (maxEntries < 1) throw new IllegalArgumentException("wellness.insights.cache.max-entries must be positive");
+        this.store = store;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.clock = clock;
+        store.onPublish((user, snap) -> invalidate(user));
+    }
+
+    /** Hex SHA-256 over the given parts, each length-prefixed so boundaries cannot shift. */
+    public static String fingerprint(String... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String p : parts) {
+                byte[] b = p.getBytes(StandardCharsets.UTF_8);
+                md.update(new byte[]{ (byte)(b.length >>> 24), (byte)(b.length >>> 16), (byte)(b.length >>> 8), (byte) b.length });
+                md.update(b);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Cached insights for {@code key}, or null on a miss (absent or expired). */
+    public synchronized String get(String key) {
+        Entry e = entries.get(key);
+        if (e != null && e.expiresAtMillis() <= clock.millis()) { remove(key); e = null; }
+        if (e == null) { misses.increment(); return null; }
+        hits.increment();
+        return e.text();
+    }
+
+    /** Whether {@code key} has a live entry; unlike {@link #get} it is not counted as a hit or miss. */
+    public synchronized boolean contains(String key) {
+        Entry e = entries.get(key);
+        return e != null && e.expiresAtMillis() > clock.millis();
+    }
+
+    /**
+     * Cache {@code text}, generated from the user's snapshot {@code version}, under {@code key}.
+     * Dropped when that is no longer the user's current snapshot: the publish that replaced it
+     * has already invalidated the user, and a late completion must not evict the entry of the
+     * current summary.
+     */
+    public synchronized void put(String user, long version, String key, String text) {
+        UserSnapshot current = store.peek(user);
+        if (current == null || current.version() != version) return;
+        String prev = byUser.put(user, key);
+        if (prev != null && !prev.equals(key)) entries.remove(prev);
+        entries.put(key, new Entry(user, text, clock.millis() + ttlMillis));
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());   // eldest in access order
+            evictions.increment();
+        }
+    }
+
+    /** Drop the user's entry; called whenever their summary changes. */
+    public synchronized void invalidate(String user) {
+        String key = byUser.remove(user);
+        if (key != null) entries.remove(key);
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("wellness.insights.cache.requests", hits, LongAdder::sum)
+                .description("Insight cache lookups").tag("result", "hit").register(registry);
+        FunctionCounter.builder("wellness.insights.cache.requests", misses, LongAdder::sum)
+                .description("Insight cache lookups").tag("result", "miss").register(registry);
+        FunctionCounter.builder("wellness.insights.cache.evictions", evictions, LongAdder::sum)
+                .description("Entries evicted by the size bound").register(registry);
+        Gauge.builder("wellness.insights.cache.size", this, c -> c.stats().size())
+                .description("Cached insights").register(registry);
+        Gauge.builder("wellness.insights.cache.hit.ratio", this, c -> c.stats().hitRatio())
+                .description("Hits over lookups since start").register(registry);
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null) byUser.remove(e.user(), key);
+    }
+}
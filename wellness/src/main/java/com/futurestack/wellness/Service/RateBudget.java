@@ -0,0 +1,54 @@
+package com.futurestack.wellness.Service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets for an upstream's requests-per-minute and tokens-per-minute quotas. Both
+ * refill continuously at their per-minute rate up to one minute's worth, and a request
+ * is only admitted when both can pay for it, so neither budget is overdrawn in any
+ * rolling minute. A 429 can freeze the budget for the server's Retry-After.
+ */
+final class RateBudget {
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    private final double maxRequests, maxTokens;
+    private final LongSupplier nanoTime;
+    private double requests, tokens;
+    private long last, pausedUntil;
+
+    RateBudget(int requestsPerMinute, int tokensPerMinute, LongSupplier nanoTime) {
+        if (requestsPerMinute < 1 || tokensPerMinute < 1) throw new IllegalArgumentException("rate limits must be positive");
+        this.maxRequests = requestsPerMinute;
+        this.maxTokens = tokensPerMinute;
+        this.nanoTime = nanoTime;
+        this.requests = maxRequests;
+        this.tokens = maxTokens;
+        this.last = nanoTime.getAsLong();
+        this.pausedUntil = last;
+    }
+
+    /** Spend one request and {@code cost} tokens if both are available: 0 on success, otherwise the nanos to wait. */
+    synchronized long tryAcquire(int cost) {
+        long now = nanoTime.getAsLong();
+        if (now - pausedUntil < 0) return pausedUntil - now;
+        double elapsed = (now - last) / NANOS_PER_MINUTE;
+        last = now;
+        requests = Math.min(maxRequests, requests + elapsed * maxRequests);
+        tokens = Math.min(maxTokens, tokens + elapsed * maxTokens);
+        double need = Math.min(cost, maxTokens);                 // an oversized call waits for a full bucket
+        if (requests >= 1 && tokens >= need) { requests -= 1; tokens -= need; return 0; }
+        double wait = Math.max(requests >= 1 ? 0 : (1 - requests) / maxRequests, tokens >= need ? 0 : (need - tokens) / maxTokens);
+        return Math.max(1, (long) Math.ceil(wait * NANOS_PER_MINUTE));
+    }
+
+    void acquire(int cost) throws InterruptedException {
+        for (long wait; (wait = tryAcquire(cost)) > 0; ) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /** Admit nothing for {@code nanos}, e.g. after the upstream answered 429 with Retry-After. */
+    synchronized void pause(long nanos) {
+        long until = nanoTime.getAsLong() + nanos;
+        if (until - pausedUntil > 0) pausedUntil = until;
+    }
+}
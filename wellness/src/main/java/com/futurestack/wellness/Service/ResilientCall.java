@@ -0,0 +1,157 @@
+package com.futurestack.wellness.Service;
+
+import okhttp3.*;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * One logical completion request under a deadline. The first attempt is hedged by a second
+ * one if it has not answered after the recent p95 latency (floored at {@code minHedgeDelay});
+ * 429, 5xx and I/O failures are retried with full-jitter exponential backoff (or the
+ * server's Retry-After when longer) while the deadline allows. The first success wins and
+ * every other attempt is cancelled. Fails with the last error, or a
+ * {@link SocketTimeoutException} once the deadline passes.
+ */
+final class ResilientCall {
+
+    record Policy(Duration deadline, int maxAttempts, Duration baseBackoff, Duration maxBackoff,
+                  boolean hedge, Duration minHedgeDelay) {}
+
+    /** Told about every finished attempt: the HTTP status, or "io" / "cancelled" without a response. */
+    interface AttemptListener { void attempt(String status, long nanos); }
+
+    /** Recent successful attempt latencies, for the hedge delay. */
+    static final class Latencies {
+        private static final int MIN_SAMPLES = 20;
+        private final long[] ring = new long[256];
+        private int count, next;
+
+        synchronized void record(long nanos) {
+            ring[next] = nanos;
+            next = (next + 1) % ring.length;
+            count = Math.min(count + 1, ring.length);
+        }
+
+        /** The p95 of recent latencies, or -1 with too few samples. */
+        synchronized long p95() {
+            if (count < MIN_SAMPLES) return -1;
+            long[] sorted = Arrays.copyOf(ring, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(count * 0.95) - 1];
+        }
+    }
+
+    private final OkHttpClient http;
+    private final Request request;
+    private final Policy policy;
+    private final ScheduledExecutorService timer;
+    private final Latencies latencies;
+    private final AttemptListener listener;
+    private final long deadlineAt;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private final List<Call> calls = new ArrayList<>();
+    private final List<ScheduledFuture<?>> timers = new ArrayList<>();
+    private int attempts, outstanding;
+    private Throwable lastError;
+
+    private ResilientCall(OkHttpClient http, Request request, Policy policy, ScheduledExecutorService timer,
+                          Latencies latencies, AttemptListener listener) {
+        this.http = http;
+        this.request = request;
+        this.policy = policy;
+        this.timer = timer;
+        this.latencies = latencies;
+        this.listener = listener;
+        this.deadlineAt = System.nanoTime() + policy.deadline().toNanos();
+    }
+
+    /** Run {@code request}; the future yields the 2xx response body. */
+    static CompletableFuture<String> execute(OkHttpClient http, Request request, Policy policy,
+                                             ScheduledExecutorService timer, Latencies latencies, AttemptListener listener) {
+        ResilientCall c = new ResilientCall(http, request, policy, timer, latencies, listener);
+        c.result.whenComplete((body, err) -> c.cancelAll());
+        synchronized (c) {
+            c.schedule(() -> c.result.completeExceptionally(
+                    new SocketTimeoutException("Deadline of " + policy.deadline().toMillis() + " ms exceeded")), policy.deadline().toNanos());
+            c.launch();
+            if (policy.hedge() && policy.maxAttempts() > 1) {
+                long p95 = latencies.p95();
+                c.schedule(c::hedge, Math.max(policy.minHedgeDelay().toNanos(), p95));
+            }
+        }
+        return c.result;
+    }
+
+    private synchronized void hedge() {
+        if (!result.isDone() && outstanding > 0 && attempts < policy.maxAttempts()) launch();
+    }
+
+    private synchronized void retry() {
+        if (!result.isDone() && outstanding == 0) launch();
+    }
+
+    private void launch() {
+        long remaining = deadlineAt - System.nanoTime();
+        if (remaining <= 0) return;                                   // the deadline timer completes the result
+        attempts++;
+        outstanding++;
+        Call call = http.newCall(request);
+        call.timeout().timeout(remaining, TimeUnit.NANOSECONDS);
+        calls.add(call);
+        long start = System.nanoTime();
+        call.enqueue(new Callback() {
+            @Override public void onFailure(Call c, IOException e) {
+                listener.attempt(c.isCanceled() ? "cancelled" : "io", System.nanoTime() - start);
+                failed(e);
+            }
+            @Override public void onResponse(Call c, Response resp) {
+                try (resp) {
+                    if (!resp.isSuccessful()) {
+                        listener.attempt(String.valueOf(resp.code()), System.nanoTime() - start);
+                        failed(new CerebrasService.UpstreamException(resp));
+                        return;
+                    }
+                    String body = resp.body().string();
+                    long took = System.nanoTime() - start;
+                    latencies.record(took);
+                    listener.attempt(String.valueOf(resp.code()), took);
+                    result.complete(body);
+                } catch (IOException e) {
+                    listener.attempt(c.isCanceled() ? "cancelled" : "io", System.nanoTime() - start);
+                    failed(e);
+                }
+            }
+        });
+    }
+
+    private synchronized void failed(Throwable e) {
+        outstanding--;
+        if (result.isDone()) return;
+        lastError = e;
+        if (outstanding > 0) return;                                  // a hedge is still running
+        boolean retryable = e instanceof IOException || e instanceof CerebrasService.UpstreamException u && u.retryable();
+        if (!retryable || attempts >= policy.maxAttempts()) { result.completeExceptionally(lastError); return; }
+
+        long cap = Math.min(policy.maxBackoff().toNanos(), policy.baseBackoff().toNanos() << Math.min(attempts - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        if (e instanceof CerebrasService.UpstreamException u && u.retryAfter() != null)
+            delay = Math.max(delay, u.retryAfter().toNanos());
+        if (System.nanoTime() + delay >= deadlineAt) { result.completeExceptionally(lastError); return; }
+        schedule(this::retry, delay);
+    }
+
+    private void schedule(Runnable task, long delayNanos) {
+        timers.add(timer.schedule(task, delayNanos, TimeUnit.NANOSECONDS));
+    }
+
+    private synchronized void cancelAll() {
+        for (Call c : calls) c.cancel();
+        for (ScheduledFuture<?> t : timers) t.cancel(false);
+    }
+}
@@ -0,0 +1,77 @@
+package com.futurestack.wellness.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.futurestack.wellness.Model.Summary7d;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A published summary as response bytes: the JSON and its gzip encoding, built once per
+ * snapshot so polling {@code GET /health/summary} never runs Jackson. The strong ETag is
+ * the snapshot version qualified by the store's boot epoch (versions restart after a
+ * restart); the gzip representation carries a {@code -gz} suffix, as a differently encoded
+ * body needs its own strong validator.
+ */
+public final class SerializedSummary {
+    private final String etag, gzipEtag;
+    private final byte[] json, gzip;
+
+    private SerializedSummary(String etag, byte[] json, byte[] gzip) {
+        this.etag = '"' + etag + '"';
+        this.gzipEtag = '"' + etag + "-gz\"";
+        this.json = json;
+        this.gzip = gzip;
+    }
+
+    static SerializedSummary of(String epoch, long version, Summary7d summary, ObjectWriter writer) {
+        try {
+            byte[] json = writer.writeValueAsBytes(summary);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(json.length / 2 + 32);
+            try (GZIPOutputStream gz = new GZIPOutputStream(buf)) { gz.write(json); }
+            return new SerializedSummary(epoch + "-" + version, json, buf.toByteArray());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Summary is not serializable", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String etag(boolean gzipped) { return gzipped ? gzipEtag : etag; }
+    public byte[] body(boolean gzipped) { return gzipped ? gzip : json; }
+
+    /**
+     * Whether an {@code If-None-Match} header names this summary (weak comparison, either
+     * encoding, or {@code *}), so the client's copy is current and a 304 suffices.
+     */
+    public boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            String t = tag.trim();
+            if (t.startsWith("W/")) t = t.substring(2);
+            if (t.equals("*") || t.equals(etag) || t.equals(gzipEtag)) return true;
+        }
+        return false;
+    }
+
+    /** Whether {@code Accept-Encoding} allows gzip (listed, or via {@code *}, without {@code q=0}). */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] p = part.trim().split(";");
+            String coding = p[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+            boolean refused = false;
+            for (int i = 1; i < p.length; i++) {
+                String param = p[i].trim().replace(" ", "");
+                if (!param.startsWith("q=")) continue;
+                try { refused = Double.parseDouble(param.substring(2)) == 0; } catch (NumberFormatException ignored) {}
+            }
+            return !refused;
+        }
+        return false;
+    }
+}
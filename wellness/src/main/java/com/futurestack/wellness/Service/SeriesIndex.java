@@ -0,0 +1,251 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.Summary7d;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Range-query indexes over one user's daily series, so a summary of a date range does not
+ * re-reduce the days: prefix sums give totals and means in O(1), segment trees min/max in
+ * O(log n), about 370 bytes per day in all. The exact HRV median of up to
+ * {@value #SCAN_DAYS} days is selected from a sorted copy of the range's values. Longer
+ * ranges use a merge-sort tree, O(log³ n) per median (a binary search over the values,
+ * each step counting with a binary search in O(log n) nodes) and O(n log n) doubles of
+ * memory, so it is built on the first long-range median only, and not at all past
+ * {@value #MAX_TREE_DAYS} days, where every median sorts its range. Values are reduced with
+ * the same rules as the 7-day summary (means skip null days, goals count days).
+ */
+final class SeriesIndex {
+    static final int SCAN_DAYS = 256, MAX_TREE_DAYS = 4096;
+
+    private final long[] epochDays;                                        // sorted
+    private final Prefix ae, re, dist, standMin, exMin, steps, standGoal, moveGoal;
+    private final Prefix hrAvg, rhr, walkHr, speed, stepLen, dblSupp, asym, stairUp, stairDown, audio, spo2;
+    private final MinMax hrMin, hrMax, rhrRange, spo2Range;
+    private final double[] hrv;                                            // per day; NaN when null
+    private final int scanDays, maxTreeDays;
+    private volatile MedianTree hrvTree;
+
+    SeriesIndex(DailyColumns days) {
+        this(days, SCAN_DAYS, MAX_TREE_DAYS);
+    }
+
+    SeriesIndex(DailyColumns days, int scanDays, int maxTreeDays) {
+        this.scanDays = scanDays;
+        this.maxTreeDays = maxTreeDays;
+        epochDays = new long[days.size()];
+        for (int i = 0; i < epochDays.length; i++) epochDays[i] = days.date(i).toEpochDay();
+        ae        = Prefix.of(days, HaeField.ACTIVE_ENERGY);
+        re        = Prefix.of(days, HaeField.RESTING_ENERGY);
+        dist      = Prefix.of(days, HaeField.DISTANCE_MI);
+        standMin  = Prefix.of(days, HaeField.STAND_MIN);
+        exMin     = Prefix.of(days, HaeField.EXERCISE_MIN);
+        steps     = Prefix.of(days, HaeField.STEPS);
+        standGoal = Prefix.of(days, i -> days.value(HaeField.STAND_HOUR, i) >= 12 ? 1 : 0);
+        moveGoal  = Prefix.of(days, i -> days.value(HaeField.ACTIVE_ENERGY, i) >= 500 ? 1 : 0);
+
+        hrAvg     = Prefix.of(days, HaeField.HR_AVG);
+        rhr       = Prefix.of(days, HaeField.RESTING_HR);
+        walkHr    = Prefix.of(days, HaeField.WALK_HR_AVG);
+        speed     = Prefix.of(days, HaeField.WALK_SPEED);
+        stepLen   = Prefix.of(days, HaeField.STEP_LEN_IN);
+        dblSupp   = Prefix.of(days, HaeField.DOUBLE_SUPPORT);
+        asym      = Prefix.of(days, HaeField.ASYM_PCT);
+        stairUp   = Prefix.of(days, HaeField.STAIR_UP);
+        stairDown = Prefix.of(days, HaeField.STAIR_DOWN);
+        audio     = Prefix.of(days, HaeField.AUDIO_DB);
+        spo2      = Prefix.of(days, HaeField.SPO2);
+
+        hrMin     = new MinMax(days, HaeField.HR_MIN);
+        hrMax     = new MinMax(days, HaeField.HR_MAX);
+        rhrRange  = new MinMax(days, HaeField.RESTING_HR);
+        spo2Range = new MinMax(days, HaeField.SPO2);
+        hrv       = new double[days.size()];
+        for (int i = 0; i < hrv.length; i++) hrv[i] = days.isNull(HaeField.HRV_MS, i) ? Double.NaN : days.value(HaeField.HRV_MS, i);
+    }
+
+    int size() { return epochDays.length; }
+    LocalDate first() { return LocalDate.ofEpochDay(epochDays[0]); }
+    LocalDate last()  { return LocalDate.ofEpochDay(epochDays[epochDays.length-1]); }
+
+    /** Summary of the stored days in {@code [from, to]} (inclusive), or null if there are none. */
+    Summary7d summarize(LocalDate from, LocalDate to) {
+        int l = lowerBound(from.toEpochDay()), r = lowerBound(to.toEpochDay() + 1);
+        if (l >= r) return null;
+        return new Summary7d(
+                round2(ae.sum(l, r)),
+                round2(re.sum(l, r)),
+                round2(exMin.sum(l, r) / (r - l)),
+                round2(standMin.sum(l, r) / 60.0),
+                (int) standGoal.sum(l, r),
+                (int) moveGoal.sum(l, r),
+                round2(dist.sum(l, r)),
+                (long) steps.sum(l, r),
+
+                hrAvg.meanInt(l, r),
+                toInt(hrMin.min(l, r)),
+                toInt(hrMax.max(l, r)),
+                rhr.meanInt(l, r),
+                toInt(rhrRange.min(l, r)),
+                toInt(rhrRange.max(l, r)),
+                hrvMedian(l, r),
+                walkHr.meanInt(l, r),
+
+                speed.mean(l, r),
+                stepLen.mean(l, r),
+                dblSupp.mean(l, r),
+                asym.mean(l, r),
+                stairUp.mean(l, r),
+                stairDown.mean(l, r),
+
+                audio.mean(l, r),
+                spo2.mean(l, r),
+                spo2Range.min(l, r)
+        );
+    }
+
+    private Double hrvMedian(int l, int r) {
+        if (r - l <= scanDays || hrv.length > maxTreeDays) return sortedMedian(l, r);
+        MedianTree t = hrvTree;
+        if (t == null) hrvTree = t = new MedianTree(hrv);                 // racing builders produce equal trees
+        return t.median(l, r);
+    }
+
+    private Double sortedMedian(int l, int r) {
+        double[] v = new double[r - l];
+        int k = 0;
+        for (int i = l; i < r; i++) if (!Double.isNaN(hrv[i])) v[k++] = hrv[i];
+        if (k == 0) return null;
+        Arrays.sort(v, 0, k);
+        return k%2==0 ? (v[k/2-1] + v[k/2])/2.0 : v[k/2];
+    }
+
+    private int lowerBound(long epochDay) {
+        int i = Arrays.binarySearch(epochDays, epochDay);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private static Integer toInt(Double v) { return v == null ? null : v.intValue(); }
+    private static double round2(double v){ return Math.round(v*100.0)/100.0; }
+
+    /** Prefix sums (and non-null counts) of one metric; index i covers the first i days. */
+    private record Prefix(double[] sum, int[] count) {
+        static Prefix of(DailyColumns days, HaeField f) {
+            double[] sum = new double[days.size()+1];
+            int[] count = new int[days.size()+1];
+            for (int i = 0; i < days.size(); i++) {
+                boolean none = days.isNull(f, i);
+                sum[i+1] = sum[i] + (none ? 0 : days.value(f, i));
+                count[i+1] = count[i] + (none ? 0 : 1);
+            }
+            return new Prefix(sum, count);
+        }
+        static Prefix of(DailyColumns days, IntToDoubleFunction f) {
+            double[] sum = new double[days.size()+1];
+            int[] count = new int[days.size()+1];
+            for (int i = 0; i < days.size(); i++) { sum[i+1] = sum[i] + f.applyAsDouble(i); count[i+1] = i+1; }
+            return new Prefix(sum, count);
+        }
+        double sum(int l, int r) { return sum[r] - sum[l]; }
+        Double mean(int l, int r) { int n = count[r] - count[l]; return n == 0 ? null : sum(l, r) / n; }
+        Integer meanInt(int l, int r) { Double m = mean(l, r); return m == null ? null : (int) Math.round(m); }
+    }
+
+    /** Iterative segment trees of the per-day min and max, ignoring null days. */
+    private static final class MinMax {
+        private final int n;
+        private final double[] min, max;
+
+        MinMax(DailyColumns days, HaeField f) {
+            n = days.size();
+            min = new double[2*n]; max = new double[2*n];
+            for (int i = 0; i < n; i++) {
+                boolean none = days.isNull(f, i);
+                min[n+i] = none ? Double.POSITIVE_INFINITY : days.value(f, i);
+                max[n+i] = none ? Double.NEGATIVE_INFINITY : days.value(f, i);
+            }
+            for (int i = n-1; i > 0; i--) {
+                min[i] = Math.min(min[2*i], min[2*i+1]);
+                max[i] = Math.max(max[2*i], max[2*i+1]);
+            }
+        }
+
+        Double min(int l, int r) {
+            double m = Double.POSITIVE_INFINITY;
+            for (l += n, r += n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) m = Math.min(m, min[l++]);
+                if ((r & 1) == 1) m = Math.min(m, min[--r]);
+            }
+            return m == Double.POSITIVE_INFINITY ? null : m;
+        }
+
+        Double max(int l, int r) {
+            double m = Double.NEGATIVE_INFINITY;
+            for (l += n, r += n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) m = Math.max(m, max[l++]);
+                if ((r & 1) == 1) m = Math.max(m, max[--r]);
+            }
+            return m == Double.NEGATIVE_INFINITY ? null : m;
+        }
+    }
+
+    /**
+     * Merge-sort tree: each segment-tree node keeps its days' non-null values sorted. A
+     * range is covered by O(log n) nodes, and the k-th smallest value is found by binary
+     * searching the root's values while counting with a binary search per node.
+     */
+    private static final class MedianTree {
+        private final int n;
+        private final double[][] nodes;
+
+        MedianTree(double[] values) {
+            n = values.length;
+            nodes = new double[2*n][];
+            double[] none = new double[0];
+            for (int i = 0; i < n; i++) nodes[n+i] = Double.isNaN(values[i]) ? none : new double[]{ values[i] };
+            for (int i = n-1; i > 0; i--) nodes[i] = merge(nodes[2*i], nodes[2*i+1]);
+        }
+
+        Double median(int l, int r) {
+            double[][] cover = new double[64][];
+            int parts = 0, total = 0;
+            for (l += n, r += n; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1) { cover[parts++] = nodes[l]; total += nodes[l++].length; }
+                if ((r & 1) == 1) { cover[parts++] = nodes[--r]; total += nodes[r].length; }
+            }
+            if (total == 0) return null;
+            double hi = kth(cover, parts, total/2);
+            return total%2==0 ? (kth(cover, parts, total/2-1) + hi)/2.0 : hi;
+        }
+
+        /** k-th smallest (0-based) value across the covering nodes. */
+        private double kth(double[][] cover, int parts, int k) {
+            double[] all = nodes[1];                    // root holds every value in sorted order
+            int lo = 0, hi = all.length - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int le = 0;
+                for (int i = 0; i < parts; i++) le += upperBound(cover[i], all[mid]);
+                if (le > k) hi = mid; else lo = mid + 1;
+            }
+            return all[lo];
+        }
+
+        private static int upperBound(double[] a, double v) {
+            int lo = 0, hi = a.length;
+            while (lo < hi) { int mid = (lo + hi) >>> 1; if (Double.compare(a[mid], v) <= 0) lo = mid + 1; else hi = mid; }
+            return lo;
+        }
+
+        private static double[] merge(double[] a, double[] b) {
+            double[] m = new double[a.length + b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) m[k++] = Double.compare(a[i], b[j]) <= 0 ? a[i++] : b[j++];
+            while (i < a.length) m[k++] = a[i++];
+            while (j < b.length) m[k++] = b[j++];
+            return m;
+        }
+    }
+}
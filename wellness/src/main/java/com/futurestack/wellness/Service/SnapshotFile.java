@@ -0,0 +1,438 @@
+package com.futurestack.wellness.Service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Append-only binary file of per-user daily aggregates, so a restart never needs the
+ * original CSVs. Layout (big-endian):
+ * <pre>
+ *   header  : int magic "WLNS", int schema version, int field count, int day width
+ *   record  : int length, int CRC-32 of the rest, short user length, user (UTF-8),
+ *             int segment count, int segments written, then each written segment
+ *   segment : int position, long id, int length, {@link DailyColumns.Segment#writeTo} body
+ *   padding : int length, int CRC-32 of the rest, short -1, zeros
+ * </pre>
+ * A publish appends one record with only the {@link DailyColumns} segments whose id differs
+ * from the one the file holds at that position (after an append, the last segment), and the
+ * user's segment count. A user's days are, for each position below the latest count, the
+ * segment the latest record writing that position holds. Startup memory-maps the file to
+ * index segment offsets per user, checking each record's CRC and truncating the file at
+ * the first one that does not match (a torn tail); the days themselves are only
+ * decoded when a user is first read. Once most bytes are superseded segments the file is
+ * compacted, at startup or by the append that tipped it over.
+ *
+ * <p>Appends of one user run one at a time, since each record is a delta against the
+ * previous one; appends of different users encode and write without holding a lock, and
+ * a short critical section only reserves the file range. A range whose write fails is
+ * handed back when nothing was reserved after it, and otherwise filled with a padding
+ * record that startup skips. Compaction takes the file exclusively.
+ *
+ * <p>An append returns once its record is forced to the device, so a published snapshot
+ * survives a crash of the process or the machine. Appends that finish writing while a
+ * force is running share the next one, so the forces per second stay bounded by the
+ * device, not the upload rate. A crash can still leave a reserved range unwritten (its
+ * append never returned); startup then keeps the records before it. Disabled when
+ * {@code wellness.snapshot.path} is blank.
+ */
+@Component
+public class SnapshotFile {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotFile.class);
+
+    private static final int MAGIC = 0x574C4E53, SCHEMA_VERSION = 4, HEADER_BYTES = 16;
+    private static final int SEGMENT_HEADER_BYTES = 16, RECORD_HEADER_BYTES = 8;
+    private static final short PADDING = -1;
+    private static final long MAP_WINDOW = 1L << 30;
+    private static final long COMPACT_MIN_DEAD_BYTES = 16L << 20;
+
+    /**
+     * A user's persisted segments by position: id, and offset and length of the body. The
+     * version is the snapshot version of the latest record, 0 for records found at startup.
+     */
+    private record Entry(long version, long[] ids, long[] offsets, int[] lengths) {
+        int segments() { return ids.length; }
+    }
+
+    private final Path path;
+    private final long compactMinDeadBytes;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final ReadWriteLock file = new ReentrantReadWriteLock();   // write: compaction swaps the channel
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final AtomicLong dead = new AtomicLong();                  // bytes of superseded segments
+    private final Set<String> appending = new HashSet<>();             // users with an append in flight; guarded by this
+    private final AtomicLong writes = new AtomicLong();                // appends whose bytes reached the channel
+    private final Object forcing = new Object();
+    private long forced;                                               // writes covered by a finished force; guarded by forcing
+    private FileChannel ch;
+    private long end;                                                  // guarded by this
+
+    @Autowired
+    public SnapshotFile(@Value("${wellness.snapshot.path:}") String path) throws IOException {
+        this(path, COMPACT_MIN_DEAD_BYTES);
+    }
+
+    SnapshotFile(String path, long compactMinDeadBytes) throws IOException {
+        this.path = path == null || path.isBlank() ? null : Path.of(path);
+        this.compactMinDeadBytes = compactMinDeadBytes;
+        if (this.path != null) open();
+    }
+
+    public boolean enabled() { return path != null; }
+
+    /** Users with a persisted record. */
+    Set<String> users() { return index.keySet(); }
+
+    /** The user's latest persisted days, or null if none were written. */
+    DailyColumns load(String user) throws IOException {
+        if (!enabled()) return null;
+        file.readLock().lock();
+        try {
+            Entry e = index.get(user);
+            if (e == null) return null;
+            DailyColumns.Segment[] segments = new DailyColumns.Segment[e.segments()];
+            for (int j = 0; j < segments.length; j++) {
+                ByteBuffer body = ByteBuffer.allocate(e.lengths()[j]);
+                for (long p = e.offsets()[j]; body.hasRemaining(); ) {
+                    int n = ch.read(body, p);
+                    if (n < 0) throw new IOException("snapshot file ends inside a segment of " + user);
+                    p += n;
+                }
+                segments[j] = DailyColumns.Segment.readFrom(body.flip(), e.ids()[j]);
+            }
+            return DailyColumns.of(segments);
+        } finally {
+            file.readLock().unlock();
+        }
+    }
+
+    /**
+     * Persist {@code days} for {@code user} unless a newer version was already written. Only
+     * segments the file does not hold yet at their position are written.
+     */
+    void append(String user, long version, DailyColumns days) throws IOException {
+        if (!enabled()) return;
+        byte[] name = user.getBytes(StandardCharsets.UTF_8);
+        if (name.length > Short.MAX_VALUE) throw new IllegalArgumentException("user name too long");
+        synchronized (this) {
+            try {
+                while (appending.contains(user)) wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for another append of " + user);
+            }
+            appending.add(user);
+        }
+        try {
+            Entry prev = index.get(user);
+            if (prev != null && prev.version() > version) return;
+            write(user, name, version, days, prev);
+        } finally {
+            synchronized (this) {
+                appending.remove(user);
+                notifyAll();
+            }
+        }
+        if (shouldCompact() && compacting.compareAndSet(false, true)) {
+            file.writeLock().lock();
+            try {
+                if (shouldCompact()) compact();
+            } catch (IOException e) {
+                log.warn("Compacting snapshot file {} failed; will retry on a later append", path, e);
+            } finally {
+                file.writeLock().unlock();
+                compacting.set(false);
+            }
+        }
+    }
+
+    /** Append the record of {@code days}' segments that differ from {@code prev}, and index it. */
+    private void write(String user, byte[] name, long version, DailyColumns days, Entry prev) throws IOException {
+        int n = days.segmentCount();
+        long[] ids = new long[n], offsets = new long[n];
+        int[] lengths = new int[n];
+        boolean[] changed = new boolean[n];
+        int length = 4 + 2 + name.length + 8, written = 0;
+        for (int j = 0; j < n; j++) {
+            DailyColumns.Segment s = days.segment(j);
+            ids[j] = s.id();
+            changed[j] = prev == null || j >= prev.segments() || prev.ids()[j] != s.id();
+            if (changed[j]) {
+                lengths[j] = s.serializedSize();
+                length += SEGMENT_HEADER_BYTES + lengths[j];
+                written++;
+            } else {
+                offsets[j] = prev.offsets()[j];
+                lengths[j] = prev.lengths()[j];
+            }
+        }
+        if (prev != null && written == 0 && n == prev.segments()) return;   // nothing new to say
+
+        ByteBuffer rec = ByteBuffer.allocate(4 + length);
+        rec.putInt(length).putInt(0).putShort((short) name.length).put(name).putInt(n).putInt(written);
+        for (int j = 0; j < n; j++) {
+            if (!changed[j]) continue;
+            rec.putInt(j).putLong(ids[j]).putInt(lengths[j]);
+            offsets[j] = rec.position();                       // relative until the range is known
+            days.segment(j).writeTo(rec);
+        }
+        rec.putInt(4, crc(rec.flip(), RECORD_HEADER_BYTES));
+
+        file.readLock().lock();
+        try {
+            long at;
+            synchronized (this) {
+                at = end;
+                end += rec.remaining();
+            }
+            try {
+                writeFully(rec, at);
+            } catch (IOException e) {
+                abandon(at, rec.limit());
+                throw e;
+            }
+            force(writes.incrementAndGet());
+            for (int j = 0; j < n; j++) if (changed[j]) offsets[j] += at;
+            index.put(user, new Entry(version, ids, offsets, lengths));
+            if (prev != null) dead.addAndGet(superseded(prev, changed));
+        } finally {
+            file.readLock().unlock();
+        }
+    }
+
+    /** Write all of {@code rec} at file offset {@code at}. */
+    void writeFully(ByteBuffer rec, long at) throws IOException {
+        for (long p = at; rec.hasRemaining(); ) p += ch.write(rec, p);
+    }
+
+    /**
+     * Give up the range {@code [at, at + length)} after its write failed: hand it back if
+     * nothing was reserved after it, else fill it with padding so that startup steps over it
+     * rather than truncating the records behind it.
+     */
+    private void abandon(long at, int length) {
+        synchronized (this) {
+            if (end == at + length) { end = at; return; }
+        }
+        ByteBuffer pad = ByteBuffer.allocate(length).putInt(length - 4).putInt(0).putShort(PADDING);
+        pad.putInt(4, crc(pad.clear(), RECORD_HEADER_BYTES));
+        try {
+            writeFully(pad, at);
+            dead.addAndGet(length);
+        } catch (IOException e) {
+            log.error("Snapshot file {}: cannot pad the failed write at {}; startup will drop the records after it", path, at, e);
+        }
+    }
+
+    /**
+     * Return once the {@code ticket}-th write is on the device. A force covers every write
+     * counted before it started, so callers whose write it covered return without another.
+     * Needs the file shared.
+     */
+    private void force(long ticket) throws IOException {
+        synchronized (forcing) {
+            if (forced >= ticket) return;
+            long upTo = writes.get();
+            ch.force(false);
+            forced = upTo;
+        }
+    }
+
+    private static int crc(ByteBuffer buf, int from) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(from, buf.limit() - from));
+        return (int) crc.getValue();
+    }
+
+    /** Bytes of {@code prev}'s segments that are replaced ({@code changed}) or beyond the new count. */
+    private static long superseded(Entry prev, boolean[] changed) {
+        long bytes = 0;
+        for (int j = 0; j < prev.segments(); j++) {
+            if (j >= changed.length || changed[j]) bytes += SEGMENT_HEADER_BYTES + prev.lengths()[j];
+        }
+        return bytes;
+    }
+
+    /** Most bytes belong to superseded segments, and enough of them to be worth a rewrite. */
+    private boolean shouldCompact() {
+        long d = dead.get(), size;
+        synchronized (this) { size = end; }
+        return d > compactMinDeadBytes && d > size - HEADER_BYTES - d;
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        file.writeLock().lock();
+        try {
+            if (ch != null && ch.isOpen()) { ch.force(false); ch.close(); }
+        } finally {
+            file.writeLock().unlock();
+        }
+    }
+
+    // ---- startup ----
+
+    private void open() throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        ch = FileChannel.open(path, CREATE, READ, WRITE);
+        if (ch.size() == 0) { writeHeader(ch); end = HEADER_BYTES; return; }
+        if (!headerMatches()) {
+            ch.close();
+            Path aside = path.resolveSibling(path.getFileName() + ".incompatible-" + System.currentTimeMillis());
+            Files.move(path, aside);
+            log.warn("Snapshot file {} has a different schema; moved it to {} and starting empty", path, aside);
+            ch = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+            writeHeader(ch);
+            end = HEADER_BYTES;
+            return;
+        }
+        dead.set(scan());
+        if (shouldCompact()) compact();
+        log.info("Snapshot file {}: {} users, {} bytes", path, index.size(), end);
+    }
+
+    private static void writeHeader(FileChannel c) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC).putInt(SCHEMA_VERSION).putInt(HaeField.ALL.length).putInt(DailyColumns.Segment.DAY_BYTES).flip();
+        while (h.hasRemaining()) c.write(h, h.position());
+    }
+
+    private boolean headerMatches() throws IOException {
+        if (ch.size() < HEADER_BYTES) return false;
+        ByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        return h.getInt() == MAGIC && h.getInt() == SCHEMA_VERSION
+                && h.getInt() == HaeField.ALL.length && h.getInt() == DailyColumns.Segment.DAY_BYTES;
+    }
+
+    /** Index every record through read-only mappings; returns the bytes held by superseded segments. */
+    private long scan() throws IOException {
+        long size = ch.size(), pos = HEADER_BYTES, dead = 0;
+        MappedByteBuffer win = null;
+        long winStart = 0;
+        while (pos + 4 <= size) {
+            if (win == null || pos + 4 > winStart + win.limit()) {
+                winStart = pos;
+                win = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW, size - pos));
+            }
+            int length = win.getInt((int) (pos - winStart));
+            if (length < 6 || length > MAP_WINDOW - 4 || pos + 4 + length > size) break;   // torn tail
+            if (pos + 4 + length > winStart + win.limit()) { win = null; continue; }
+            ByteBuffer rec = win.slice((int) (pos - winStart), 4 + length);
+            if (crc(rec, RECORD_HEADER_BYTES) != rec.getInt(4)) break;                    // torn or overwritten
+            rec.position(RECORD_HEADER_BYTES);
+            long recorded = rec.getShort(RECORD_HEADER_BYTES) == PADDING ? 4L + length : index(rec.slice(), pos + RECORD_HEADER_BYTES);
+            if (recorded < 0) break;                                                       // torn or inconsistent
+            dead += recorded;
+            pos += 4L + length;
+        }
+        if (pos < size) {
+            log.warn("Snapshot file {}: dropping {} trailing bytes from an incomplete or corrupt record on", path, size - pos);
+            ch.truncate(pos);
+        }
+        end = pos;
+        return dead;
+    }
+
+    /**
+     * Apply one record (its bytes after the length and CRC, found at {@code base}) to the index.
+     * Returns the bytes of segments it supersedes, or -1 without touching the index when it
+     * does not hold together.
+     */
+    private long index(ByteBuffer rec, long base) {
+        int nameLength = rec.getShort();
+        if (nameLength < 0 || rec.remaining() < nameLength + 8) return -1;
+        byte[] name = new byte[nameLength];
+        rec.get(name);
+        String user = new String(name, StandardCharsets.UTF_8);
+        int n = rec.getInt(), written = rec.getInt();
+        if (n < 0 || written < 0 || written > n) return -1;
+        Entry prev = index.get(user);
+        long[] ids = new long[n], offsets = new long[n];
+        int[] lengths = new int[n];
+        boolean[] changed = new boolean[n];
+        int kept = prev == null ? 0 : Math.min(n, prev.segments());
+        if (kept > 0) {
+            System.arraycopy(prev.ids(), 0, ids, 0, kept);
+            System.arraycopy(prev.offsets(), 0, offsets, 0, kept);
+            System.arraycopy(prev.lengths(), 0, lengths, 0, kept);
+        }
+        for (int s = 0; s < written; s++) {
+            if (rec.remaining() < SEGMENT_HEADER_BYTES) return -1;
+            int j = rec.getInt();
+            long id = rec.getLong();
+            int length = rec.getInt();
+            if (j < 0 || j >= n || changed[j] || length < 8 || length > rec.remaining()) return -1;
+            changed[j] = true;
+            ids[j] = id;
+            offsets[j] = base + rec.position();
+            lengths[j] = length;
+            rec.position(rec.position() + length);
+        }
+        for (int j = kept; j < n; j++) if (!changed[j]) return -1;   // a position no record ever wrote
+        for (long id : ids) DailyColumns.reserveIds(id);
+        index.put(user, new Entry(0, ids, offsets, lengths));          // any publish after boot is newer
+        return prev == null ? 0 : superseded(prev, changed);
+    }
+
+    /** Rewrite the file with one full record per user, then swap it in atomically. Needs the file exclusively. */
+    private void compact() throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+        Map<String, Entry> moved = new HashMap<>();
+        try (FileChannel out = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, READ, WRITE)) {
+            writeHeader(out);
+            long at = HEADER_BYTES;
+            for (var e : index.entrySet()) {
+                Entry cur = e.getValue();
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                int n = cur.segments(), length = 4 + 2 + name.length + 8;
+                for (int j = 0; j < n; j++) length += SEGMENT_HEADER_BYTES + cur.lengths()[j];
+                ByteBuffer rec = ByteBuffer.allocate(4 + length)
+                        .putInt(length).putInt(0).putShort((short) name.length).put(name).putInt(n).putInt(n);
+                long[] offsets = new long[n];
+                for (int j = 0; j < n; j++) {
+                    rec.putInt(j).putLong(cur.ids()[j]).putInt(cur.lengths()[j]);
+                    offsets[j] = at + rec.position();
+                    for (ByteBuffer body = rec.slice(rec.position(), cur.lengths()[j]); body.hasRemaining(); ) {
+                        if (ch.read(body, cur.offsets()[j] + body.position()) < 0) throw new IOException("snapshot file ends inside a segment");
+                    }
+                    rec.position(rec.position() + cur.lengths()[j]);
+                }
+                rec.putInt(4, crc(rec.flip(), RECORD_HEADER_BYTES));
+                while (rec.hasRemaining()) at += out.write(rec, at);
+                moved.put(e.getKey(), new Entry(cur.version(), cur.ids(), offsets, cur.lengths()));
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ch.close();
+        ch = FileChannel.open(path, READ, WRITE);
+        index.putAll(moved);
+        synchronized (this) { end = ch.size(); }
+        dead.set(0);
+    }
+}
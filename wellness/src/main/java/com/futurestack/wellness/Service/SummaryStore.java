@@ -0,0 +1,96 @@
+package com.futurestack.wellness.Service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Per-user snapshots with lock-free reads. Each user owns a slot whose snapshot is
+ * swapped atomically, so readers never see a half-written state and uploads for
+ * different users never contend. Capacity is bounded with CLOCK (second-chance)
+ * eviction: slots read or written since the hand last passed survive one more round.
+ */
+@Component
+public class SummaryStore {
+    private final int maxUsers;
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final List<BiConsumer<String, UserSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    private static final class Slot {
+        final AtomicReference<UserSnapshot> ref = new AtomicReference<>();
+        volatile boolean referenced = true;
+    }
+
+    public SummaryStore(@Value("${wellness.store.max-users:100000}") int maxUsers) {
+        if (maxUsers < 1) throw new IllegalArgumentException("wellness.store.max-users must be positive");
+        this.maxUsers = maxUsers;
+    }
+
+    /** Current snapshot for {@code user}, or null if none was published (or it was evicted). */
+    public UserSnapshot get(String user) {
+        Slot s = slots.get(user);
+        if (s == null) return null;
+        if (!s.referenced) s.referenced = true;   // skip the write on the hot path when already set
+        return s.ref.get();
+    }
+
+    /** Like {@link #get} but leaves the CLOCK bit alone, for bulk scans that should not keep users resident. */
+    public UserSnapshot peek(String user) {
+        Slot s = slots.get(user);
+        return s == null ? null : s.ref.get();
+    }
+
+    /** Users currently held in memory; a live, weakly consistent view. */
+    public Set<String> users() { return Collections.unmodifiableSet(slots.keySet()); }
+
+    /**
+     * Atomically replace the user's snapshot with {@code update(current)}; {@code update}
+     * may run more than once under contention, so it should only build the new snapshot.
+     */
+    public UserSnapshot publish(String user, UnaryOperator<UserSnapshot> update) {
+        UserSnapshot prev, next;
+        Slot s;
+        do {
+            s = slots.computeIfAbsent(user, u -> { clock.add(u); return new Slot(); });
+            do {
+                prev = s.ref.get();
+                next = update.apply(prev);
+            } while (!s.ref.compareAndSet(prev, next));
+            s.referenced = true;
+        } while (slots.get(user) != s);   // slot was evicted under us: publish into the new one
+        evictIfFull();
+        if (next != prev) for (var l : listeners) l.accept(user, next);
+        return next;
+    }
+
+    /** Call {@code listener} with the user and new snapshot after every publish that changed it. */
+    public void onPublish(BiConsumer<String, UserSnapshot> listener) { listeners.add(listener); }
+
+    /** Next value of the global snapshot version sequence. */
+    public long nextVersion() { return versions.incrementAndGet(); }
+
+    public int size() { return slots.size(); }
+
+    private void evictIfFull() {
+        while (slots.size() > maxUsers) {
+            String user = clock.poll();
+            if (user == null) return;
+            Slot s = slots.get(user);
+            if (s == null) continue;
+            if (s.referenced) { s.referenced = false; clock.add(user); }
+            else slots.remove(user, s);
+        }
+    }
+}
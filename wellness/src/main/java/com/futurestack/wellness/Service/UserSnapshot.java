@@ -0,0 +1,42 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.Summary7d;
+
+import java.util.function.Function;
+
+/**
+ * Immutable state published for one user: the per-day aggregates of everything uploaded
+ * so far and the summary and anomaly flags derived from them. {@code version} comes from a global sequence,
+ * so it changes on every publish and is never reused after eviction. The range index is
+ * built on the first window query and lives as long as the snapshot, as do the summary's
+ * response bytes.
+ */
+final class UserSnapshot {
+    private final long version;
+    private final DailyColumns days;
+    private final Summary7d summary;
+    private final FlagEngine.Result flags;
+    private volatile SeriesIndex index;
+    private volatile SerializedSummary serialized;
+
+    UserSnapshot(long version, DailyColumns days, Summary7d summary, FlagEngine.Result flags) {
+        this.version = version; this.days = days; this.summary = summary; this.flags = flags;
+    }
+
+    long version() { return version; }
+    DailyColumns days() { return days; }
+    Summary7d summary() { return summary; }
+    FlagEngine.Result flags() { return flags; }
+
+    SeriesIndex index() {
+        SeriesIndex i = index;
+        if (i == null) index = i = new SeriesIndex(days);   // racing builders produce equal indexes
+        return i;
+    }
+
+    SerializedSummary serialized(Function<UserSnapshot, SerializedSummary> serializer) {
+        SerializedSummary s = serialized;
+        if (s == null) serialized = s = serializer.apply(this);   // racing serializers produce equal bytes
+        return s;
+    }
+}
@@ -0,0 +1,185 @@
+package com.futurestack.wellness.Controller;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class HealthControllerTests {
+
+    static final HttpServer llm;
+    static volatile String events = "data: [DONE]\n\n";     // what the stub streams for the next completion
+
+    static {
+        try {
+            llm = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        llm.createContext("/v1/chat/completions", ex -> {
+            ex.getResponseHeaders().add("Content-Type", "text/event-stream");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream out = ex.getResponseBody()) { out.write(events.getBytes(StandardCharsets.UTF_8)); }
+        });
+        llm.start();
+    }
+
+    @DynamicPropertySource
+    static void llmStub(DynamicPropertyRegistry props) {
+        props.add("cerebras.base.url", () -> "http://127.0.0.1:" + llm.getAddress().getPort() + "/v1");
+    }
+
+    @AfterAll
+    static void stopLlm() { llm.stop(0); }
+
+    static final String HEADER = "Date,Active Energy (kcal),Apple Exercise Time (min),Apple Stand Hour (count),"
+            + "Apple Stand Time (min),Blood Oxygen Saturation (%),Environmental Audio Exposure (dBASPL),"
+            + "Flights Climbed (count),Heart Rate [Min] (count/min),Heart Rate [Max] (count/min),"
+            + "Heart Rate [Avg] (count/min),Heart Rate Variability (ms),Physical Effort (kcal/hr·kg),"
+            + "Resting Energy (kcal),Resting Heart Rate (count/min),Stair Speed: Down (ft/s),Stair Speed: Up (ft/s),"
+            + "Step Count (count),Walking + Running Distance (mi),Walking Asymmetry Percentage (%),"
+            + "Walking Double Support Percentage (%),Walking Heart Rate Average (count/min),"
+            + "Walking Speed (mi/hr),Walking Step Length (in)";
+
+    @Autowired MockMvc mvc;
+
+    static MockMultipartFile csv(String... rows) {
+        String body = HEADER + "\n" + String.join("\n", rows) + "\n";
+        return new MockMultipartFile("file", "export.csv", "text/csv", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String row(String date, String steps) {
+        return date + ",100,30,6,20,97,,1,50,150,70,40,,800,60,,," + steps + ",1.5,,,,,";
+    }
+
+    void upload(String user, String... rows) throws Exception {
+        mvc.perform(multipart("/api/health/upload").file(csv(rows)).param("user", user)).andExpect(status().isOk());
+    }
+
+    @Test
+    void badWindowOrUploadIsABadRequest() throws Exception {
+        upload("win", row("2024-01-02", "1000"));
+
+        mvc.perform(get("/api/health/summary").param("user", "win").param("window", "0"))
+                .andExpect(status().isBadRequest()).andExpect(content().string("window must be at least 1 day"));
+        mvc.perform(multipart("/api/health/upload").file(csv()).param("user", "win"))
+                .andExpect(status().isBadRequest()).andExpect(content().string("No data rows."));
+    }
+
+    @Test
+    void exportsNdjsonAndCsvAsTheyAreWritten() throws Exception {
+        upload("exp", row("2024-01-02", "1000"), row("2024-01-03", "2000"));
+
+        String ndjson = mvc.perform(get("/api/health/export").param("user", "exp"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson;charset=UTF-8"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"daily.ndjson\""))
+                .andExpect(header().doesNotExist("Content-Length"))        // streamed, not buffered
+                .andReturn().getResponse().getContentAsString();
+        String[] records = ndjson.split("\n");
+        assertEquals(2, records.length);
+        assertTrue(records[1].startsWith("{\"user\":\"exp\",\"date\":\"2024-01-03\""), records[1]);
+
+        String csv = mvc.perform(get("/api/health/export").param("user", "exp").param("format", "CSV")
+                        .param("from", "2024-01-03"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv;charset=UTF-8"))
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"daily.csv\""))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = csv.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("user,"));
+        assertTrue(lines[1].startsWith("exp,2024-01-03,"), lines[1]);
+
+        mvc.perform(get("/api/health/export").param("format", "xml"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void summaryIsGzippedOnRequestAndRevalidatesWithItsEtag() throws Exception {
+        upload("etag", row("2024-01-02", "1000"));
+
+        var plain = mvc.perform(get("/api/health/summary").param("user", "etag"))
+                .andExpect(status().isOk())
+                .andExpect(header().stringValues("Vary", hasItem("Accept-Encoding")))
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(content().contentType("application/json"))
+                .andReturn().getResponse();
+        String etag = plain.getHeader("ETag");
+        assertTrue(plain.getContentAsString().contains("\"totalSteps\":1000"));
+
+        var gzipped = mvc.perform(get("/api/health/summary").param("user", "etag").header("Accept-Encoding", "gzip, br"))
+                .andExpect(status().isOk())
+                .andExpect(header().stringValues("Vary", hasItem("Accept-Encoding")))
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn().getResponse();
+        assertNotEquals(etag, gzipped.getHeader("ETag"));
+        try (var in = new GZIPInputStream(new ByteArrayInputStream(gzipped.getContentAsByteArray()))) {
+            assertArrayEquals(plain.getContentAsByteArray(), in.readAllBytes());
+        }
+
+        mvc.perform(get("/api/health/summary").param("user", "etag").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(header().stringValues("Vary", hasItem("Accept-Encoding")))
+                .andExpect(content().bytes(new byte[0]));
+
+        upload("etag", row("2024-01-03", "500"));        // new version: the old tag no longer matches
+        mvc.perform(get("/api/health/summary").param("user", "etag").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(etag)));
+    }
+
+    static String chunk(String content) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + content + "\"},\"finish_reason\":null}]}\n\n";
+    }
+
+    String streamInsights(String user) throws Exception {
+        MvcResult sse = mvc.perform(get("/api/insights/stream").param("user", user))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        sse.getAsyncResult(5_000);                            // the emitter completed
+        assertEquals("text/event-stream", sse.getResponse().getContentType());
+        return sse.getResponse().getContentAsString();
+    }
+
+    @Test
+    void streamsTokenEventsThenDoneOnlyAfterTheUpstreamDone() throws Exception {
+        upload("sse", row("2024-01-02", "1000"));
+
+        events = ": keep-alive\n\n" + chunk("Walk ") + chunk("more.") + "data: [DONE]\n\n";
+        assertEquals("event:token\ndata:Walk \n\nevent:token\ndata:more.\n\nevent:done\ndata:\n\n", streamInsights("sse"));
+
+        upload("cut", row("2024-01-02", "2000"));
+        events = chunk("Walk ");                              // connection closed before [DONE]
+        assertEquals("event:token\ndata:Walk \n\nevent:error\ndata:Cerebras stream ended before [DONE]\n\n",
+                streamInsights("cut"));
+    }
+}
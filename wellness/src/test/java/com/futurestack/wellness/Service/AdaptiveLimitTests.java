@@ -0,0 +1,22 @@
+package com.futurestack.wellness.Service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveLimitTests {
+
+    @Test
+    void backsOffOnThrottlingAndGrowsOnFastCalls() throws Exception {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 8, TimeUnit.SECONDS.toNanos(1));
+        for (int i = 0; i < 4; i++) limit.acquire();
+        limit.release(0, true);
+        assertEquals(2, limit.limit());
+        limit.release(TimeUnit.SECONDS.toNanos(5), false);
+        assertEquals(1, limit.limit());                                  // 2 * 0.9
+        for (int i = 0; i < 40; i++) { limit.release(0, false); limit.acquire(); }
+        assertEquals(8, limit.limit());
+    }
+}
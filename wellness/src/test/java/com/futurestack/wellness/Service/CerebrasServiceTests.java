@@ -0,0 +1,231 @@
+package com.futurestack.wellness.Service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.futurestack.wellness.Service.HealthServiceTests.csv;
+import static com.futurestack.wellness.Service.HealthServiceTests.row;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CerebrasServiceTests {
+
+    HttpServer server;
+    final AtomicInteger calls = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    SummaryStore store;
+    HealthService health;
+    CerebrasService cerebras;
+
+    static String chunk(String content) {
+        return "data: {\"id\":\"x\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\""
+                + content + "\"},\"finish_reason\":null}]}\n\n";
+    }
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", ex -> {
+            calls.incrementAndGet();
+            ex.getResponseHeaders().add("Content-Type", "text/event-stream");
+            ex.sendResponseHeaders(200, 0);                       // chunked
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write((": keep-alive\n\n" + chunk("Walk ")).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                release.await(5, TimeUnit.SECONDS);               // later tokens only after the first one was seen
+                out.write((chunk("more\\n") + "data: {\"choices\":[{\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n"
+                        + chunk("today.") + "data: [DONE]\n\n").getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        store = new SummaryStore(10);
+        health = new HealthService(store, new SnapshotFile(""));
+        health.uploadAndSummarize("ana", csv(row("2024-01-02", "1000", "50", "40", "97")));
+        health.uploadAndSummarize("ben", csv(row("2024-01-02", "2000", "50", "40", "97")));
+        cerebras = service(health, new InsightsCache(store, 10, Duration.ofHours(1), new InsightsCacheTests.ManualClock()), server);
+    }
+
+    @AfterEach
+    void stop() { cerebras.close(); server.stop(0); }
+
+    static CerebrasService service(HealthService health, InsightsCache cache, HttpServer server) {
+        return service(health, cache, server, new SimpleMeterRegistry());
+    }
+
+    static CerebrasService service(HealthService health, InsightsCache cache, HttpServer server, MeterRegistry meters) {
+        CerebrasService cerebras = new CerebrasService(health, cache, meters);
+        cerebras.apiKey = "test";
+        cerebras.model = "m";
+        cerebras.baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+        cerebras.maxConcurrent = 2;
+        cerebras.maxQueued = 1;
+        cerebras.init();
+        return cerebras;
+    }
+
+    /** Swap the stub for one that answers {@code /v1/chat/completions} with {@code body} once {@code release} opens. */
+    void completions(String body) {
+        server.removeContext("/v1/chat/completions");
+        server.createContext("/v1/chat/completions", ex -> {
+            calls.incrementAndGet();
+            try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            byte[] b = body.getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(200, b.length);
+            ex.getResponseBody().write(b);
+            ex.close();
+        });
+    }
+
+    /** Swap the stub for one that streams {@code events} and closes the connection. */
+    void stream(String events) {
+        server.removeContext("/v1/chat/completions");
+        server.createContext("/v1/chat/completions", ex -> {
+            calls.incrementAndGet();
+            ex.getResponseHeaders().add("Content-Type", "text/event-stream");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream out = ex.getResponseBody()) { out.write(events.getBytes(StandardCharsets.UTF_8)); }
+        });
+    }
+
+    @Test
+    void coalescesConcurrentIdenticalRequests() throws Exception {
+        completions("{\"choices\":[{\"message\":{\"content\":\"shared\"}}]}");
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) futures.add(cerebras.getInsightsAsync("ana"));
+        futures.get(3).cancel(true);                          // one caller giving up does not affect the rest
+        release.countDown();
+
+        for (int i = 0; i < 8; i++) if (i != 3) assertEquals("shared", futures.get(i).get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals("shared", cerebras.getInsights("ana"));   // served from the cache
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void rejectsBeyondTheAdmissionLimit() throws Exception {
+        completions("{\"choices\":[{\"message\":{\"content\":\"ok\"}}]}");
+        for (String u : List.of("cleo", "dan", "eve")) health.uploadAndSummarize(u, csv(row("2024-01-02", "1", "50", "40", "97")));
+        var admitted = List.of(cerebras.getInsightsAsync("ana"), cerebras.getInsightsAsync("ben"), cerebras.getInsightsAsync("cleo"));
+        var rejected = cerebras.getInsightsAsync("dan");         // 2 running + 1 queued already
+
+        var e = assertThrows(ExecutionException.class, () -> rejected.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        release.countDown();
+        for (var f : admitted) assertEquals("ok", f.get(5, TimeUnit.SECONDS));
+        assertEquals("ok", cerebras.getInsightsAsync("eve").get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void forwardsDeltasAsTheyArriveAndCachesTheResult() throws Exception {
+        List<String> tokens = new ArrayList<>();
+        String text = cerebras.streamInsights("ana", t -> { tokens.add(t); release.countDown(); });
+
+        assertEquals(List.of("Walk ", "more\n", "today."), tokens);
+        assertEquals("Walk more\ntoday.", text);
+
+        List<String> again = new ArrayList<>();
+        cerebras.streamInsights("ana", again::add);
+        assertEquals(List.of(text), again);
+        assertEquals(text, cerebras.getInsights("ana"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void streamsShareTheDispatcherLimit() throws Exception {
+        health.uploadAndSummarize("cleo", csv(row("2024-01-02", "3000", "50", "40", "97")));
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<String>> streams = new ArrayList<>();
+            for (String u : List.of("ana", "ben", "cleo")) streams.add(callers.submit(() -> cerebras.streamInsights(u, t -> {})));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (calls.get() < 2 && System.nanoTime() < deadline) Thread.sleep(10);
+            Thread.sleep(200);
+            assertEquals(2, calls.get());                         // max-concurrent = 2: the third stream waits
+            release.countDown();
+            for (var f : streams) assertEquals("Walk more\ntoday.", f.get(5, TimeUnit.SECONDS));
+            assertEquals(3, calls.get());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void cachesOnlyCompleteNonEmptyStreams() throws Exception {
+        stream(chunk("par"));                                 // connection closed before [DONE]
+        List<String> tokens = new ArrayList<>();
+        assertThrows(IOException.class, () -> cerebras.streamInsights("ana", tokens::add));
+        assertEquals(List.of("par"), tokens);
+        assertFalse(cerebras.isCached("ana"));
+
+        stream("data: [DONE]\n\n");
+        assertEquals("", cerebras.streamInsights("ana", t -> {}));
+        assertFalse(cerebras.isCached("ana"));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void clientDisconnectDoesNotLeaveTheBreakerHalfOpen() throws Exception {
+        cerebras.close();
+        cerebras.breakerThreshold = 1;
+        cerebras.breakerOpenFor = Duration.ofMillis(100);
+        cerebras.init();
+        server.removeContext("/v1/chat/completions");
+        server.createContext("/v1/chat/completions", ex -> { calls.incrementAndGet(); ex.sendResponseHeaders(503, -1); ex.close(); });
+        assertTrue(cerebras.streamInsights("ana", t -> {}).startsWith("AI coach is unavailable"));   // circuit opens
+
+        Thread.sleep(150);
+        stream(chunk("Walk ") + "data: [DONE]\n\n");
+        assertThrows(UncheckedIOException.class, () -> cerebras.streamInsights("ana", t -> {   // the probe's client hangs up
+            throw new UncheckedIOException(new IOException("broken pipe"));
+        }));
+        assertEquals("Walk ", cerebras.streamInsights("ana", t -> {}));   // probes again instead of refusing
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void deltaContentSkipsUnrelatedFields() throws Exception {
+        assertEquals("hi", cerebras.deltaContent(
+                "{\"usage\":{\"a\":[1,{\"content\":\"no\"}]},\"choices\":[{\"logprobs\":null,\"delta\":{\"x\":{\"content\":\"no\"},\"content\":\"hi\"}}]}"));
+        assertNull(cerebras.deltaContent("{\"choices\":[{\"delta\":{}}]}"));
+        assertNull(cerebras.deltaContent("{\"choices\":[]}"));
+    }
+
+    @Test
+    void recordsUpstreamStatusLatencyAndUsageTokens() throws Exception {
+        completions("{\"choices\":[{\"message\":{\"content\":\"ok\"}}],\"usage\":{\"prompt_tokens\":120,\"completion_tokens\":30}}");
+        release.countDown();
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        InsightsCache cache = new InsightsCache(store, 10, Duration.ofHours(1), new InsightsCacheTests.ManualClock());
+        CerebrasService metered = service(health, cache, server, meters);
+        try {
+            assertEquals("ok", metered.getInsights("ana"));
+            assertEquals("ok", metered.getInsights("ana"));       // cached: no second upstream call
+        } finally {
+            metered.close();
+        }
+
+        assertEquals(1, meters.get("wellness.llm.attempts").tag("status", "200").timer().count());
+        assertEquals(1, meters.get("wellness.llm.requests").tags("mode", "completion", "outcome", "success").timer().count());
+        assertEquals(120, meters.get("wellness.llm.tokens").tag("type", "prompt").summary().totalAmount());
+        assertEquals(30, meters.get("wellness.llm.tokens").tag("type", "completion").summary().totalAmount());
+        assertTrue(meters.getMeters().stream().allMatch(m -> m.getId().getTag("user") == null));
+    }
+}
@@ -0,0 +1,125 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.DailySample;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.RecordComponent;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DailyColumnsTests {
+
+    /** {@code got} is {@code want} as the columns keep it: fractional values rounded to float. */
+    static void assertStoredAs(DailySample want, DailySample got) {
+        for (RecordComponent c : DailySample.class.getRecordComponents()) {
+            try {
+                Object w = c.getAccessor().invoke(want), g = c.getAccessor().invoke(got);
+                assertEquals(w instanceof Double d ? (Object) (double) d.floatValue() : w, g, want.date() + " " + c.getName());
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /** The stored state of every day, as a merge sees it. */
+    static NavigableMap<LocalDate, DayAccumulator> rows(DailyColumns cols) {
+        NavigableMap<LocalDate, DayAccumulator> rows = new TreeMap<>();
+        for (int i = 0; i < cols.size(); i++) rows.put(cols.date(i), cols.row(i));
+        return rows;
+    }
+
+    @Test
+    void projectsTheSameSamplesAsTheAccumulators() {
+        Random r = new Random(5);
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+        for (int i = 0; i < 150; i++) byDate.put(LocalDate.of(2024, 1, 1).plusDays(i * 2L), SeriesIndexTests.day(r));
+
+        DailyColumns cols = DailyColumns.of(byDate);
+        int i = 0;
+        for (var e : byDate.entrySet()) {
+            assertEquals(e.getKey(), cols.date(i));
+            assertStoredAs(e.getValue().toSample(e.getKey()), cols.sample(i++));
+        }
+        assertEquals(byDate.size(), cols.size());
+    }
+
+    @Test
+    void mergeInterleavesNewDaysAndRemergesOverlaps() {
+        Random r = new Random(9);
+        NavigableMap<LocalDate, DayAccumulator> base = new TreeMap<>();
+        for (int i = 0; i < 150; i++) base.put(LocalDate.of(2024, 1, 1).plusDays(i * 2L), SeriesIndexTests.day(r));
+        DailyColumns cols = DailyColumns.of(base);
+
+        for (int start : new int[]{ 0, 131, 256, 400 }) {   // no prefix, partial / whole null words, pure append
+            NavigableMap<LocalDate, DayAccumulator> delta = new TreeMap<>();
+            for (int i = 0; i < 20; i++) delta.put(LocalDate.of(2024, 1, 1).plusDays(start + i * 3L), SeriesIndexTests.day(r));
+            DailyColumns merged = cols.merge(delta);
+
+            NavigableMap<LocalDate, DayAccumulator> expected = rows(cols);
+            delta.forEach((d, acc) -> expected.merge(d, acc, DayAccumulator::merged));
+            assertEquals(expected.size(), merged.size());
+            int i = 0;
+            for (var e : expected.entrySet()) assertStoredAs(e.getValue().toSample(e.getKey()), merged.sample(i++));
+        }
+    }
+
+    @Test
+    void sealedSegmentsKeepOnlyTheMedianOfEachDay() {
+        Random r = new Random(13);
+        NavigableMap<LocalDate, DayAccumulator> base = new TreeMap<>();
+        LocalDate first = LocalDate.of(2024, 1, 1);
+        for (int i = 0; i < 100; i++) base.put(first.plusDays(i), SeriesIndexTests.day(r));
+        for (int i : new int[]{ 0, 99 }) {
+            DayAccumulator three = new DayAccumulator();
+            for (double v : new double[]{ 10, 20, 30 }) three.add(HaeField.HRV_MS, v);
+            base.put(first.plusDays(i), three);
+        }
+        DailyColumns cols = DailyColumns.of(base);
+        assertFalse(cols.segment(0).open());                                     // ended 36 days before the newest
+        assertTrue(cols.segment(1).open());
+
+        NavigableMap<LocalDate, DayAccumulator> delta = new TreeMap<>();
+        for (int i : new int[]{ 0, 99 }) {
+            DayAccumulator one = new DayAccumulator();
+            one.add(HaeField.HRV_MS, 40);
+            delta.put(first.plusDays(i), one);
+        }
+        DailyColumns merged = cols.merge(delta);
+        assertEquals(20.0, merged.value(HaeField.HRV_MS, 0));                   // 20 standing in for 10, 20, 30: median of 20, 20, 20, 40
+        assertEquals(25.0, merged.value(HaeField.HRV_MS, 99));                  // open: the exact median of 10, 20, 30, 40
+        assertFalse(merged.segment(0).open());
+    }
+
+    @Test
+    void mergeRebuildsOnlyTheSegmentsItTouches() {
+        Random r = new Random(11);
+        NavigableMap<LocalDate, DayAccumulator> base = new TreeMap<>();
+        LocalDate first = LocalDate.of(2024, 1, 1);
+        for (int i = 0; i < 300; i++) base.put(first.plusDays(i), SeriesIndexTests.day(r));
+        DailyColumns cols = DailyColumns.of(base);
+        assertEquals(5, cols.segmentCount());                                    // 4 full, 44 days open
+
+        DailyColumns appended = cols.merge(new TreeMap<>(Map.of(first.plusDays(300), SeriesIndexTests.day(r))));
+        for (int k = 0; k < 4; k++) assertSame(cols.segment(k), appended.segment(k));
+        assertNotEquals(cols.segment(4).id(), appended.segment(4).id());
+        assertEquals(301, appended.size());
+
+        NavigableMap<LocalDate, DayAccumulator> delta = new TreeMap<>();
+        delta.put(first.plusDays(70), SeriesIndexTests.day(r));                  // re-merges a day of segment 1
+        delta.put(first.minusDays(1), SeriesIndexTests.day(r));                  // a new first day overflows segment 0
+        DailyColumns backfilled = appended.merge(delta);
+        assertEquals(6, backfilled.segmentCount());                              // 64 + 1, then segment 1 rebuilt in place
+        for (int k = 2; k < 5; k++) assertSame(appended.segment(k), backfilled.segment(k + 1));
+        assertEquals(first.minusDays(1), backfilled.date(0));
+        assertEquals(first.plusDays(63), backfilled.date(64));                   // first day of the split-off segment
+        assertEquals(65, backfilled.indexOf(first.plusDays(64)));
+        assertEquals(302, backfilled.size());
+
+        NavigableMap<LocalDate, DayAccumulator> expected = rows(appended);
+        delta.forEach((d, acc) -> expected.merge(d, acc, DayAccumulator::merged));
+        int i = 0;
+        for (var e : expected.entrySet()) assertStoredAs(e.getValue().toSample(e.getKey()), backfilled.sample(i++));
+    }
+}
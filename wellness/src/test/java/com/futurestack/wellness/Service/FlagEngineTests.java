@@ -0,0 +1,116 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.HealthFlag;
+import com.futurestack.wellness.Model.HealthFlag.Type;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.*;
+
+import static com.futurestack.wellness.Service.HealthServiceTests.csv;
+import static com.futurestack.wellness.Service.HealthServiceTests.row;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlagEngineTests {
+
+    static final LocalDate D0 = LocalDate.of(2024, 3, 1);
+
+    /** One day with the given steps, resting HR, SpO2 and audio; other metrics steady. */
+    static DayAccumulator day(long steps, int rhr, double spo2, double audio) {
+        DayAccumulator d = new DayAccumulator();
+        d.accept(HaeField.STEPS, String.valueOf(steps));
+        d.accept(HaeField.RESTING_HR, String.valueOf(rhr));
+        d.accept(HaeField.SPO2, String.valueOf(spo2));
+        d.accept(HaeField.AUDIO_DB, String.valueOf(audio));
+        d.accept(HaeField.ACTIVE_ENERGY, "400");
+        return d;
+    }
+
+    @Test
+    void flagsDeterministicAnomalies() {
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+        for (int i = 0; i < 14; i++) byDate.put(D0.plusDays(i), day(9000 + (i % 3) * 100, 58 + i % 2, 97 + (i % 2) * 0.5, 60 + i % 3));
+        byDate.put(D0.plusDays(14), day(3000, 66, 90.5, 85));           // everything off at once
+        byDate.put(D0.plusDays(15), day(2000, 59, 97, 61));
+        byDate.put(D0.plusDays(16), day(1000, 58, 97, 60));
+
+        List<HealthFlag> flags = FlagEngine.fold(DailyColumns.of(byDate)).flags();
+        Map<Type, HealthFlag> byType = new EnumMap<>(Type.class);
+        for (HealthFlag f : flags) byType.putIfAbsent(f.type(), f);
+
+        assertEquals(D0.plusDays(14), byType.get(Type.LOW_SPO2).date());
+        assertEquals(90.5, byType.get(Type.LOW_SPO2).value());
+        assertEquals(D0.plusDays(14), byType.get(Type.RISING_RESTING_HR).date());
+        assertEquals(D0.plusDays(14), byType.get(Type.HIGH_AUDIO).date());
+        HealthFlag low = flags.stream().filter(f -> f.type() == Type.LOW_ACTIVITY).reduce((a, b) -> b).orElseThrow();
+        assertEquals(D0.plusDays(16), low.date());
+        assertEquals(3.0, low.value());
+        assertTrue(flags.stream().noneMatch(f -> f.date().isBefore(D0.plusDays(14))), flags.toString());
+        assertTrue(flags.stream().anyMatch(f -> f.type() == Type.OUTLIER && f.metric().equals("steps")));
+    }
+
+    @Test
+    void extendingWithLaterDaysMatchesAFullFold() {
+        Random r = new Random(11);
+        NavigableMap<LocalDate, DayAccumulator> base = new TreeMap<>(), delta = new TreeMap<>();
+        for (int i = 0; i < 60; i++) base.put(D0.plusDays(i), SeriesIndexTests.day(r));
+        for (int i = 60; i < 75; i++) delta.put(D0.plusDays(i), SeriesIndexTests.day(r));
+
+        DailyColumns before = DailyColumns.of(base), after = before.merge(delta);
+        FlagEngine.Result incremental = FlagEngine.extend(FlagEngine.fold(before), after, delta.firstKey());
+        assertEquals(FlagEngine.fold(after).flags(), incremental.flags());
+
+        NavigableMap<LocalDate, DayAccumulator> overlap = new TreeMap<>(Map.of(D0.plusDays(30), SeriesIndexTests.day(r)));
+        DailyColumns rewritten = after.merge(overlap);                   // touches history: refolds
+        assertEquals(FlagEngine.fold(rewritten).flags(), FlagEngine.extend(incremental, rewritten, D0.plusDays(30)).flags());
+    }
+
+    @Test
+    void windowsAndRunsAreCalendarDays() {
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+        for (int i = 0; i < 14; i++) byDate.put(D0.plusDays(i), day(9000 + (i % 3) * 100, 58 + i % 2, 97, 60 + i % 3));
+        byDate.put(D0.plusDays(60), day(30000, 58, 97, 60));             // the steady history is 47+ days old
+        byDate.put(D0.plusDays(61), day(1000, 58, 97, 60));
+        byDate.put(D0.plusDays(62), day(1000, 58, 97, 60));
+        byDate.put(D0.plusDays(64), day(1000, 58, 97, 60));             // day 63 missing: the run restarts
+
+        List<HealthFlag> flags = FlagEngine.fold(DailyColumns.of(byDate)).flags();
+        assertTrue(flags.stream().noneMatch(f -> f.type() == Type.OUTLIER || f.type() == Type.LOW_ACTIVITY), flags.toString());
+
+        byDate.put(D0.plusDays(63), day(1000, 58, 97, 60));
+        flags = FlagEngine.fold(DailyColumns.of(byDate)).flags();
+        assertEquals(4.0, flags.stream().filter(f -> f.type() == Type.LOW_ACTIVITY).reduce((a, b) -> b).orElseThrow().value());
+    }
+
+    @Test
+    void keepsOnlyTheRecentFlags() {
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+        for (int i = 0; i < 100; i++) byDate.put(D0.plusDays(i), day(1000, 58, 89, 60));   // low steps and SpO2 every day
+        DailyColumns days = DailyColumns.of(byDate);
+        FlagEngine.Result result = FlagEngine.fold(days);
+
+        assertTrue(result.flags().stream().allMatch(f -> !f.date().isBefore(D0.plusDays(93))), result.flags().toString());
+        assertEquals(14, result.flags().size());                         // LOW_SPO2 and LOW_ACTIVITY on each of 7 days
+        NavigableMap<LocalDate, DayAccumulator> next = new TreeMap<>(Map.of(D0.plusDays(100), day(1000, 58, 89, 60)));
+        FlagEngine.Result extended = FlagEngine.extend(result, days.merge(next), D0.plusDays(100));
+        assertEquals(14, extended.flags().size());
+        assertEquals(D0.plusDays(94), extended.flags().get(0).date());
+    }
+
+    @Test
+    void serviceServesFlagsForTheSummaryWindowAndPromptsCarryThem() throws Exception {
+        HealthService svc = new HealthService(new SummaryStore(10), new SnapshotFile(""));
+        List<String> rows = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) rows.add(row("2024-01-%02d".formatted(i), "9000", "50", "40", i == 20 ? "89" : "97"));
+        svc.uploadAndSummarize("ana", csv(rows.toArray(String[]::new)));
+
+        List<HealthFlag> flags = svc.getFlags("ana");
+        assertEquals(1, flags.size(), flags.toString());
+        assertEquals(Type.LOW_SPO2, flags.get(0).type());
+        assertNull(svc.getFlags("ben"));
+
+        String prompt = CerebrasService.userPrompt("ana", svc.getSummary("ana"), flags);
+        assertTrue(prompt.contains("flags: LOW_SPO2 2024-01-20 spo2Pct=89.0 base=97.0"), prompt);
+        assertTrue(InsightFallback.of(svc.getSummary("ana"), flags).contains("low SpO₂ on 2024-01-20"));
+    }
+}
@@ -0,0 +1,112 @@
+package com.futurestack.wellness.Service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HaeCsvTokenizerTests {
+
+    static String randomExport(Random r, String eol) {
+        String[] cells = { "", " ", "0", "-0", "12", "3.25", " 7.5 ", "1e2", "0.1", "98.6", "+4", "123456.789012", "0.000000000000000001" };
+        StringBuilder sb = new StringBuilder(HealthServiceTests.HEADER).append(eol);
+        for (int d = 0; d < 20; d++) {
+            LocalDate date = LocalDate.of(2024, 2, 1).plusDays(d);
+            String text = switch (d % 3) {
+                case 0 -> date.toString();
+                case 1 -> date.getMonthValue() + "/" + date.getDayOfMonth() + "/" + (date.getYear() % 100);
+                default -> date.getYear() + "/" + date.getMonthValue() + "/" + date.getDayOfMonth();
+            };
+            for (int k = 0, rows = 1 + r.nextInt(30); k < rows; k++) {
+                sb.append(text);
+                for (int c = 1; c < 24; c++) {
+                    sb.append(',');
+                    if (c == 17) sb.append(r.nextInt(4) == 0 ? "" : String.valueOf(r.nextInt(5000)));
+                    else sb.append(r.nextBoolean() ? cells[r.nextInt(cells.length)]
+                            : String.format(Locale.ROOT, "%.4f", r.nextDouble() * 200));
+                }
+                sb.append(eol);
+            }
+        }
+        return sb.toString();
+    }
+
+    static void assertSameDays(NavigableMap<LocalDate, DayAccumulator> expected, NavigableMap<LocalDate, DayAccumulator> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((d, acc) -> assertEquals(acc.toSample(d), actual.get(d).toSample(d)));
+    }
+
+    @Test
+    void matchesCommonsCsvOnRandomExports() throws Exception {
+        Random r = new Random(7);
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        for (String eol : List.of("\n", "\r\n")) {
+            for (int i = 0; i < 10; i++) {
+                String csv = randomExport(r, eol);
+                var expected = svc.ingestCsv(new StringReader(csv));
+                var actual = HaeCsvTokenizer.open(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8))).parse();
+                assertSameDays(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    void parallelParseMatchesSequential() throws Exception {
+        Random r = new Random(11);
+        for (int i = 0; i < 10; i++) {
+            String csv = randomExport(r, i % 2 == 0 ? "\n" : "\r\n");
+            var tok = HaeCsvTokenizer.open(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)));
+            assertSameDays(tok.parse(), tok.parseParallel(64 + r.nextInt(2048)));
+        }
+    }
+
+    @Test
+    void parallelParseFallsBackWhenDatesAreNotContiguous() throws Exception {
+        String row = ",1".repeat(23);
+        String csv = HealthServiceTests.HEADER + "\n" + ("2024-01-01" + row + "\n2024-01-02" + row + "\n").repeat(50);
+        var tok = HaeCsvTokenizer.open(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)));
+        var byDate = tok.parseParallel(100);
+        assertSameDays(tok.parse(), byDate);
+        assertEquals(50, byDate.firstEntry().getValue().toSample(null).steps());
+    }
+
+    @Test
+    void quotedInputIsRejectedAndUploadFallsBackToCommonsCsv() throws Exception {
+        String csv = HealthServiceTests.HEADER + "\n\"2024-01-02\"" + ",1".repeat(23) + "\n";
+        ByteBuffer buf = ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8));
+        assertThrows(HaeCsvTokenizer.Malformed.class, () -> HaeCsvTokenizer.open(buf).parse());
+
+        var file = new MockMultipartFile("file", "q.csv", "text/csv", csv.getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, new HealthService(new SummaryStore(100), new SnapshotFile("")).uploadAndSummarize("ana", file).totalSteps());
+    }
+
+    @Test
+    void nonAsciiCellsAreLeftToCommonsCsv() throws Exception {
+        String csv = HealthServiceTests.HEADER + "\n2024-01-02" + ",1".repeat(16) + ",5µ" + ",1".repeat(6) + "\n";   // steps
+        ByteBuffer buf = ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8));
+        assertThrows(HaeCsvTokenizer.Malformed.class, () -> HaeCsvTokenizer.open(buf).parse());
+
+        var file = new MockMultipartFile("file", "u.csv", "text/csv", csv.getBytes(StandardCharsets.UTF_8));
+        assertThrows(NumberFormatException.class,      // not trimmed to 5 steps
+                () -> new HealthService(new SummaryStore(100), new SnapshotFile("")).uploadAndSummarize("ana", file));
+    }
+
+    @Test
+    void parsesNumbersLikeTheJdk() throws Exception {
+        String[] samples = { "0", "-0", "1.", ".5", "3.14159", "-2.5", "+7", "123456789012345", "1234567890123456",
+                "0.30000000000000004", "1e-3", "NaN", "65.999" };
+        for (String s : samples) {
+            String csv = HealthServiceTests.HEADER + "\n" + s;
+            var tok = HaeCsvTokenizer.open(ByteBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)));
+            int from = tok.bodyStart();
+            assertEquals(Double.doubleToLongBits(Double.parseDouble(s)),
+                    Double.doubleToLongBits(tok.parseDouble(from, from + s.length())), s);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.futurestack.wellness.Service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.futurestack.wellness.Model.Summary7d;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HealthServiceTests {
+
+    static final String HEADER = "Date,Active Energy (kcal),Apple Exercise Time (min),Apple Stand Hour (count),"
+            + "Apple Stand Time (min),Blood Oxygen Saturation (%),Environmental Audio Exposure (dBASPL),"
+            + "Flights Climbed (count),Heart Rate [Min] (count/min),Heart Rate [Max] (count/min),"
+            + "Heart Rate [Avg] (count/min),Heart Rate Variability (ms),Physical Effort (kcal/hr·kg),"
+            + "Resting Energy (kcal),Resting Heart Rate (count/min),Stair Speed: Down (ft/s),Stair Speed: Up (ft/s),"
+            + "Step Count (count),Walking + Running Distance (mi),Walking Asymmetry Percentage (%),"
+            + "Walking Double Support Percentage (%),Walking Heart Rate Average (count/min),"
+            + "Walking Speed (mi/hr),Walking Step Length (in)";
+
+    static MockMultipartFile csv(String... rows) {
+        String body = HEADER + "\n" + String.join("\n", rows) + "\n";
+        return new MockMultipartFile("file", "export.csv", "text/csv", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //                              date,ae,ex,sh,st,spo2,aud,fl,hrmin,hrmax,hravg,hrv,peff,re,rhr,sd,su,steps,dist,asym,dsup,whr,wspd,wlen
+    static String row(String date, String steps, String hrMin, String hrv, String spo2) {
+        return String.join(",", date, "100", "30", "6", "20", spo2, "", "1", hrMin, "150", "70", hrv, "",
+                "800", "60", "", "", steps, "1.5", "", "", "", "", "");
+    }
+
+    @Test
+    void collapsesRowsPerDateAndSummarizesLastSevenDays() throws Exception {
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        Summary7d s = svc.uploadAndSummarize("ana", csv(
+                row("2024-01-01", "99999", "30", "10", "90"),   // outside the 7-day window
+                row("2024-01-02", "1000", "50", "40", "97"),
+                row("2024-01-02", "500",  "52", "60", ""),      // second row of the same day
+                row("1/3/24",     "2000", "48", "",   "95"),
+                row("2024/1/8",   "3000", "55", "20", "")));
+
+        assertEquals(6500, s.totalSteps());
+        assertEquals(400.0, s.totalActiveEnergyKcal());       // 4 rows x 100 kcal
+        assertEquals(3200.0, s.totalRestingEnergyKcal());
+        assertEquals(6.0, s.totalDistanceMi());
+        assertEquals(1.33, s.totalStandHours());              // 80 min / 60
+        assertEquals(1, s.standGoalDays());                   // 01-02 has two 6h rows
+        assertEquals(0, s.moveGoalDays());
+        assertEquals(30.0, s.avgExerciseMinPerDay());
+        assertEquals(48, s.hrMin());                          // day means: 51, 48, 55
+        assertEquals(150, s.hrMax());
+        assertEquals(70, s.hrAvg());
+        assertEquals(60, s.restingHrAvg());
+        assertEquals(35.0, s.hrvMedianMs());                  // daily medians 50 and 20
+        assertEquals(0.0, s.spo2MinPct());                    // days without SpO2 average to 0.0
+        assertEquals(64.0, s.spo2AvgPct());
+    }
+
+    @Test
+    void keepsSummariesPerUser() throws Exception {
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        svc.uploadAndSummarize("ana", csv(row("2024-01-02", "1000", "50", "40", "97")));
+        svc.uploadAndSummarize("ben", csv(row("2024-01-02", "2500", "50", "40", "97")));
+
+        assertEquals(1000, svc.getSummary("ana").totalSteps());
+        assertEquals(2500, svc.getSummary("ben").totalSteps());
+        assertNull(svc.getSummary("cleo"));
+    }
+
+    @Test
+    void appendMergesDeltaIntoStoredDays() throws Exception {
+        String[] rows = {
+                row("2024-01-01", "99999", "30", "10", "90"),
+                row("2024-01-02", "1000", "50", "40", "97"),
+                row("2024-01-05", "500",  "52", "60", ""),
+                row("2024-01-05", "2000", "48", "",   "95"),
+                row("2024-01-09", "3000", "55", "20", "")};
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        Summary7d full = svc.uploadAndSummarize("full", csv(rows));
+
+        svc.appendAndSummarize("delta", csv(rows[0], rows[1], rows[2]));
+        Summary7d appended = svc.appendAndSummarize("delta", csv(rows[3], rows[4]));   // re-merges 01-05, drops 01-01/01-02
+
+        assertEquals(full, appended);
+        assertEquals(5500, appended.totalSteps());
+    }
+
+    @Test
+    void windowQueriesAgreeWithStoredSummary() throws Exception {
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        Summary7d stored = svc.uploadAndSummarize("ana", csv(
+                row("2024-01-01", "99999", "30", "10", "90"),
+                row("2024-01-02", "1000", "50", "40", "97"),
+                row("2024-01-08", "3000", "55", "20", "")));
+
+        assertEquals(stored, svc.getSummary("ana", 7));
+        assertEquals(103999, svc.getSummary("ana", 30).totalSteps());
+        assertEquals(99999, svc.getSummary("ana", LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 1)).totalSteps());
+        assertEquals(4000, svc.getSummary("ana", LocalDate.of(2024, 1, 2), null).totalSteps());
+    }
+
+    @Test
+    void restartReloadsPersistedDays(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("snapshots.bin").toString();
+        SnapshotFile snapshots = new SnapshotFile(file);
+        HealthService svc = new HealthService(new SummaryStore(100), snapshots);
+        svc.uploadAndSummarize("ana", csv(row("2024-01-02", "1000", "50", "40", "97")));
+        Summary7d before = svc.appendAndSummarize("ana", csv(row("2024-01-03", "2000", "48", "20", "95")));
+        snapshots.close();
+
+        HealthService restarted = new HealthService(new SummaryStore(100), new SnapshotFile(file));
+        assertEquals(before, restarted.getSummary("ana"));
+        assertEquals(2000, restarted.appendAndSummarize("ana", csv(row("2024-01-04", "-1000", "50", "", ""))).totalSteps());
+        assertNull(restarted.getSummary("ben"));
+    }
+
+    @Test
+    void appendAfterEvictionMergesIntoPersistedDays(@TempDir Path dir) throws Exception {
+        SnapshotFile snapshots = new SnapshotFile(dir.resolve("snapshots.bin").toString());
+        SummaryStore store = new SummaryStore(1) {
+            boolean evict = true;
+
+            @Override
+            public UserSnapshot publish(String user, java.util.function.UnaryOperator<UserSnapshot> update) {
+                if (user.equals("ana") && evict && peek("ana") != null) {   // another upload pushes ana out first
+                    evict = false;
+                    super.publish("ben", prev -> new UserSnapshot(nextVersion(), peek("ana").days(), null, null));
+                }
+                return super.publish(user, update);
+            }
+        };
+        HealthService svc = new HealthService(store, snapshots);
+        svc.uploadAndSummarize("ana", csv(row("2024-01-02", "1000", "50", "40", "97")));
+
+        Summary7d appended = svc.appendAndSummarize("ana", csv(row("2024-01-03", "2000", "48", "20", "95")));
+        assertEquals(3000, appended.totalSteps());
+        assertEquals(2, snapshots.load("ana").size());
+    }
+
+    @Test
+    void exportsStoredDaysOfPersistedAndInMemoryUsers(@TempDir Path dir) throws Exception {
+        String file = dir.resolve("snapshots.bin").toString();
+        SnapshotFile snapshots = new SnapshotFile(file);
+        new HealthService(new SummaryStore(100), snapshots).uploadAndSummarize("ana", csv(
+                row("2024-01-01", "99999", "30", "10", "90"),
+                row("2024-01-02", "1000", "50", "40", "97"),
+                row("2024-01-02", "500",  "",   "60", "")));
+        snapshots.close();
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(file));   // ana only on disk
+        svc.uploadAndSummarize("b,en", csv(row("2024-01-03", "2000", "", "", "95")));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, svc.export(null, LocalDate.of(2024, 1, 2), null, DailyExport.Format.NDJSON, out));
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, JsonNode> byUser = new HashMap<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            JsonNode rec = mapper.readTree(line);
+            byUser.put(rec.get("user").asText(), rec);
+        }
+        assertEquals("2024-01-02", byUser.get("ana").get("date").asText());
+        assertEquals(1500, byUser.get("ana").get("steps").asLong());
+        assertEquals(50, byUser.get("ana").get("hrMin").asInt());
+        assertEquals(50.0, byUser.get("ana").get("hrvMs").asDouble());
+        assertTrue(byUser.get("b,en").get("hrMin").isNull());
+        assertEquals(25, byUser.get("ana").size());                   // user + every DailySample component
+
+        out.reset();
+        assertEquals(1, svc.export(List.of("b,en", "cleo"), null, LocalDate.of(2024, 1, 5), DailyExport.Format.CSV, out));
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertTrue(lines[0].startsWith("user,date,activeEnergyKcal,"));
+        assertTrue(lines[1].startsWith("\"b,en\",2024-01-03,100.0,30.0,"));
+        assertEquals(2, lines.length);
+        assertNull(svc.getSummary("cleo"));
+    }
+
+    static MockMultipartFile json(String... metrics) {
+        String body = "\uFEFF{\"data\":{\"metrics\":[" + String.join(",", metrics) + "],\"workouts\":[{\"name\":\"Run\",\"data\":[]}]}}";
+        return new MockMultipartFile("file", "export.json", "application/json", body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String metric(String name, String units, String... points) {
+        return "{\"name\":\"" + name + "\",\"units\":\"" + units + "\",\"data\":[" + String.join(",", points) + "]}";
+    }
+
+    static String point(String date, String values) {
+        return "{\"date\":\"" + date + " 10:00:00 -0800\"," + values + ",\"source\":\"Watch\"}";
+    }
+
+    static String qty(String date, Object qty) { return point(date, "\"qty\":" + qty); }
+
+    static String[] sameQty(Object qty, String... dates) {
+        String[] points = new String[dates.length];
+        for (int i = 0; i < dates.length; i++) points[i] = qty(dates[i], qty);
+        return points;
+    }
+
+    @Test
+    void jsonExportFoldsLikeTheSameRowsAsCsv() throws Exception {
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        Summary7d fromCsv = svc.uploadAndSummarize("csv", csv(
+                row("2024-01-02", "1000", "50", "40", "97"),
+                row("2024-01-02", "500",  "52", "60", ""),
+                row("2024-01-03", "2000", "48", "",   "95")));
+
+        Summary7d fromJson = svc.uploadAndSummarize("json", json(
+                metric("sleep_analysis", "hr", point("2024-01-02", "\"asleep\":7.5,\"stages\":{\"deep\":[1,2]}")),
+                metric("step_count", "count", qty("2024-01-02", 1000), qty("2024-01-02", 500.0), qty("2024-01-03", "\"2000\"")),
+                metric("heart_rate", "count/min", point("2024-01-02", "\"Min\":50,\"Avg\":70,\"Max\":150"),
+                        point("2024-01-02", "\"Min\":52,\"Avg\":70,\"Max\":150"), point("2024-01-03", "\"Min\":48,\"Avg\":70,\"Max\":150")),
+                metric("heart_rate_variability", "ms", qty("2024-01-02", 40), qty("2024-01-02", 60), qty("2024-01-03", null)),
+                metric("blood_oxygen_saturation", "%", qty("2024-01-02", 97), qty("2024-01-03", 95)),
+                metric("active_energy", "kcal", sameQty(100, "2024-01-02", "2024-01-02", "2024-01-03")),
+                metric("apple_exercise_time", "min", sameQty(30, "2024-01-02", "2024-01-02", "2024-01-03")),
+                metric("apple_stand_hour", "count", sameQty(6, "2024-01-02", "2024-01-02", "2024-01-03")),
+                metric("apple_stand_time", "min", sameQty(20, "2024-01-02", "2024-01-02", "2024-01-03")),
+                metric("flights_climbed", "count", sameQty(1, "2024-01-02", "2024-01-02", "2024-01-03")),
+                metric("basal_energy_burned", "kcal", sameQty(800, "2024-01-02", "2024-01-02", "2024-01-03")),
+                metric("resting_energy", "kcal", sameQty(800, "2024-01-02", "2024-01-02", "2024-01-03")),   // same quantity: ignored
+                metric("resting_heart_rate", "count/min", sameQty(60, "2024-01-02", "2024-01-02", "2024-01-03")),
+                metric("walking_running_distance", "mi", sameQty(1.5, "2024-01-02", "2024-01-02", "2024-01-03"))));
+
+        assertEquals(fromCsv, fromJson);
+        assertEquals(svc.getFlags("csv"), svc.getFlags("json"));
+
+        var file = json(metric("step_count", "count", qty("2024-01-02", 1), point("2024-01-02", "\"qty\":2").replace("10:00", "11:00")),
+                metric("heart_rate_variability", "ms", qty("2024-01-02", 40), qty("2024-01-03", 50)));
+        try (var parser = new ObjectMapper().getFactory().createParser(file.getInputStream())) {
+            var byDate = HaeJsonReader.read(parser);                 // rows are the most points of one metric, not all points
+            assertEquals(2, byDate.get(LocalDate.of(2024, 1, 2)).rows());
+            assertEquals(1, byDate.get(LocalDate.of(2024, 1, 3)).rows());
+        }
+    }
+
+    @Test
+    void rejectsJsonInOtherUnitsOrMalformed() throws Exception {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""), meters, new ObjectMapper());
+        MockMultipartFile km = json(metric("walking_running_distance", "km", qty("2024-01-02", 2.4)));
+        assertThrows(IllegalArgumentException.class, () -> svc.uploadAndSummarize("ana", km));
+        MockMultipartFile truncated = new MockMultipartFile("file", "x.json", "application/json",
+                "{\"data\":{\"metrics\":[{\"name\":\"step_count\",\"data\":[{\"date\":".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> svc.uploadAndSummarize("ana", truncated));
+        assertThrows(IllegalArgumentException.class, () -> svc.uploadAndSummarize("ana", json(metric("sleep_analysis", "hr"))));
+
+        assertEquals(1, meters.get("wellness.ingest.rejected").tag("reason", "header").counter().count());
+        assertEquals(1, meters.get("wellness.ingest.rejected").tag("reason", "json").counter().count());
+        assertEquals(1, meters.get("wellness.ingest.rejected").tag("reason", "empty").counter().count());
+        assertNull(svc.getSummary("ana"));
+    }
+
+    @Test
+    void rejectsMissingRequiredHeader() throws Exception {
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        var file = new MockMultipartFile("file", "x.csv", "text/csv", "Date,Step Count (count)\n2024-01-01,5\n".getBytes());
+        assertThrows(IllegalArgumentException.class, () -> svc.uploadAndSummarize("ana", file));
+    }
+
+    @Test
+    void recordsIngestMetricsAndCountsRejectedUploads() throws Exception {
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""), meters, new ObjectMapper());
+        MockMultipartFile file = csv(row("2024-01-01", "1", "50", "40", "97"), row("2024-01-01", "2", "50", "40", "97"),
+                row("2024-01-02", "3", "50", "40", "97"));
+        svc.uploadAndSummarize("ana", file);
+        svc.appendAndSummarize("ana", csv(row("2024-01-03", "4", "50", "40", "97")));
+
+        assertEquals(file.getSize() + csv(row("2024-01-03", "4", "50", "40", "97")).getSize(),
+                meters.get("wellness.ingest.bytes").summary().totalAmount());
+        assertEquals(4, meters.get("wellness.ingest.rows").summary().totalAmount());
+        assertEquals(2, meters.get("wellness.ingest.parse").tag("parser", "tokenizer").timer().count());
+        assertEquals(2, meters.get("wellness.ingest.collapse").timer().count());
+        assertEquals(2, meters.get("wellness.summary.reduce").timer().count());
+
+        assertThrows(RuntimeException.class, () -> svc.uploadAndSummarize("ana", csv(row("yesterday", "1", "50", "40", "97"))));
+        MockMultipartFile noSteps = new MockMultipartFile("file", "x.csv", "text/csv", "Date,Active Energy (kcal)\n2024-01-01,1\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> svc.uploadAndSummarize("ana", noSteps));
+        assertEquals(1, meters.get("wellness.ingest.rejected").tag("reason", "date").counter().count());
+        assertEquals(1, meters.get("wellness.ingest.rejected").tag("reason", "header").counter().count());
+        assertEquals(2, meters.get("wellness.ingest.rows").summary().count());   // rejected uploads are not measured
+    }
+
+    @Test
+    void servesPreSerializedSummaryWithVersionEtag() throws Exception {
+        HealthService svc = new HealthService(new SummaryStore(100), new SnapshotFile(""));
+        assertNull(svc.getSerializedSummary("ana"));
+        Summary7d s = svc.uploadAndSummarize("ana", csv(row("2024-01-02", "1000", "50", "40", "97")));
+
+        SerializedSummary first = svc.getSerializedSummary("ana");
+        assertSame(first, svc.getSerializedSummary("ana"));                   // built once per snapshot
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(s, mapper.readValue(first.body(false), Summary7d.class));
+        try (var gz = new GZIPInputStream(new ByteArrayInputStream(first.body(true)))) {
+            assertArrayEquals(first.body(false), gz.readAllBytes());
+        }
+        assertTrue(first.etag(false).startsWith("\"") && first.etag(true).endsWith("-gz\""));
+        assertTrue(first.matches(first.etag(false)));
+        assertTrue(first.matches("\"other\", W/" + first.etag(true)));
+        assertTrue(first.matches("*"));
+        assertFalse(first.matches(null));
+
+        svc.appendAndSummarize("ana", csv(row("2024-01-03", "5", "50", "40", "97")));
+        SerializedSummary next = svc.getSerializedSummary("ana");
+        assertNotEquals(first.etag(false), next.etag(false));
+        assertFalse(next.matches(first.etag(false)));
+
+        assertTrue(SerializedSummary.acceptsGzip("br, gzip;q=0.8"));
+        assertFalse(SerializedSummary.acceptsGzip("gzip;q=0, br"));
+        assertFalse(SerializedSummary.acceptsGzip(null));
+    }
+}
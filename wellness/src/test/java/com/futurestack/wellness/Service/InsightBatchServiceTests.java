@@ -0,0 +1,125 @@
+package com.futurestack.wellness.Service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.futurestack.wellness.Service.HealthServiceTests.csv;
+import static com.futurestack.wellness.Service.HealthServiceTests.row;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InsightBatchServiceTests {
+
+    @TempDir Path dir;
+    HttpServer server;
+    final AtomicInteger calls = new AtomicInteger(), inFlight = new AtomicInteger(), peak = new AtomicInteger();
+    volatile int throttleFirst;
+    CerebrasService cerebras;
+    final List<String> users = new ArrayList<>();
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/chat/completions", ex -> {
+            int n = calls.incrementAndGet();
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+                byte[] b = n <= throttleFirst ? new byte[0]
+                        : "{\"choices\":[{\"message\":{\"content\":\"plan\"}}]}".getBytes(StandardCharsets.UTF_8);
+                if (n <= throttleFirst) ex.getResponseHeaders().add("Retry-After", "0");
+                ex.sendResponseHeaders(n <= throttleFirst ? 429 : 200, b.length == 0 ? -1 : b.length);
+                if (b.length > 0) ex.getResponseBody().write(b);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+                ex.close();
+            }
+        });
+        server.start();
+
+        SummaryStore store = new SummaryStore(100);
+        HealthService health = new HealthService(store, new SnapshotFile(""));
+        for (int i = 0; i < 12; i++) {
+            users.add("user" + i);
+            health.uploadAndSummarize("user" + i, csv(row("2024-01-02", String.valueOf(1000 + i), "50", "40", "97")));
+        }
+        cerebras = CerebrasServiceTests.service(health, new InsightsCache(store, 100, Duration.ofHours(1), new InsightsCacheTests.ManualClock()), server);
+        cerebras.close();
+        cerebras.maxConcurrent = 16;
+        cerebras.maxQueued = 16;
+        cerebras.init();
+    }
+
+    @AfterEach
+    void stop() { cerebras.close(); server.stop(0); }
+
+    InsightBatchService batch() {
+        return new InsightBatchService(cerebras, 6000, 10_000_000, 4, Duration.ofSeconds(5), dir, System::nanoTime);
+    }
+
+    @Test
+    void retriesThrottledCallsAndStaysWithinTheConcurrencyLimit() throws Exception {
+        throttleFirst = 3;
+        InsightBatchService batch = batch();
+        List<String> withUnknown = new ArrayList<>(users);
+        withUnknown.add("nobody");                                     // never uploaded: fails without a call
+
+        batch.start("nightly", withUnknown);
+        var p = batch.await("nightly", Duration.ofSeconds(20));
+
+        assertEquals("completed", p.state());
+        assertEquals(12, p.done());
+        assertEquals(1, p.failed());
+        assertEquals("Upload a CSV first.", p.errors().get("nobody"));
+        assertEquals(12 + 3, calls.get());
+        assertTrue(peak.get() <= 4, "peak " + peak.get());
+        assertEquals(12, Files.readAllLines(dir.resolve("nightly.results")).size());
+    }
+
+    @Test
+    void resumesFromRecordedResultsInAFreshProcess() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (String u : users.subList(0, 3)) lines.add(u + "\t" + cerebras.promptKey(u) + "\tplan\t");
+        for (String u : users.subList(3, 5)) lines.add(u + "\tstale\tplan\t");            // answered for an older summary
+        Files.write(dir.resolve("nightly.results"), lines);
+        Files.writeString(dir.resolve("nightly.results"), users.get(5) + "\t" + cerebras.promptKey(users.get(5)) + "\tpl",
+                StandardOpenOption.APPEND);                                                  // torn by a crash
+        InsightBatchService batch = batch();                           // nothing is cached
+        batch.start("nightly", users);
+        var p = batch.await("nightly", Duration.ofSeconds(20));
+
+        assertEquals(12, p.done());
+        assertEquals(9, calls.get());
+        Map<String, String> results = batch.results("nightly");
+        assertEquals(12, results.size());
+        assertEquals("plan", results.get("user5"));
+
+        InsightBatchService restarted = batch();                       // everything recorded for the current summaries
+        restarted.start("nightly", users);
+        assertEquals(12, restarted.await("nightly", Duration.ofSeconds(20)).done());
+        assertEquals(9, calls.get());
+        assertNull(restarted.results("other"));
+    }
+
+    @Test
+    void rejectsUnsafeJobIds() {
+        assertThrows(IllegalArgumentException.class, () -> batch().start("../etc", users));
+    }
+}
@@ -0,0 +1,178 @@
+package com.futurestack.wellness.Service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.futurestack.wellness.Service.HealthServiceTests.csv;
+import static com.futurestack.wellness.Service.HealthServiceTests.row;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InsightPrefetcherTests {
+
+    HttpServer server;
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicLong now = new AtomicLong();
+    final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    HealthService health;
+    CerebrasService cerebras;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/chat/completions", ex -> {
+            calls.incrementAndGet();
+            byte[] b = "{\"choices\":[{\"message\":{\"content\":\"plan\"}}]}".getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(200, b.length);
+            ex.getResponseBody().write(b);
+            ex.close();
+        });
+        server.start();
+
+        SummaryStore store = new SummaryStore(100);
+        health = new HealthService(store, new SnapshotFile(""));
+        for (String u : List.of("ana", "ben", "cleo", "dan")) health.uploadAndSummarize(u, csv(row("2024-01-02", "1000", "50", "40", "97")));
+        cerebras = CerebrasServiceTests.service(health, new InsightsCache(store, 10, Duration.ofHours(1), new InsightsCacheTests.ManualClock()), server);
+    }
+
+    @AfterEach
+    void stop() { cerebras.close(); server.stop(0); }
+
+    InsightPrefetcher prefetcher(int capacity, InsightPrefetcher.DropPolicy policy) {
+        return new InsightPrefetcher(cerebras, meters, true, capacity, policy, 1,
+                Duration.ofMinutes(15), Duration.ofMinutes(10), 100, now::get);
+    }
+
+    double jobs(String outcome) { return meters.get("wellness.prefetch.jobs").tag("outcome", outcome).counter().count(); }
+
+    @Test
+    void recentInteractiveUsersGoFirstAndDuplicatesCollapse() {
+        InsightPrefetcher p = prefetcher(10, InsightPrefetcher.DropPolicy.DROP_OLDEST);
+        p.touch("cleo");
+        now.addAndGet(1);
+        p.touch("dan");
+        p.submit("ana");
+        p.submit("cleo");
+        p.submit("ben");
+        p.submit("dan");
+        assertTrue(p.submit("ana"));                                  // already queued: collapses
+
+        assertEquals(List.of("dan", "cleo", "ana", "ben"), p.pending());
+        now.addAndGet(1);
+        p.touch("ben");                                               // queued job moves up
+        assertEquals(List.of("ben", "dan", "cleo", "ana"), p.pending());
+        now.addAndGet(TimeUnit.MINUTES.toNanos(20));
+        p.submit("ana");                                              // never interactive: stays behind
+        assertEquals(List.of("ben", "dan", "cleo", "ana"), p.pending());
+        assertEquals(2, jobs("coalesced"));
+        assertEquals(4, meters.get("wellness.prefetch.queue.size").gauge().value());
+    }
+
+    @Test
+    void concurrentTouchesStayBoundedAndStillRaiseQueuedJobs() throws Exception {
+        InsightPrefetcher p = prefetcher(10, InsightPrefetcher.DropPolicy.DROP_OLDEST);
+        p.submit("ana");
+        p.submit("ben");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int id = t;
+            threads[t] = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 1000; i++) p.touch("u" + id + "-" + i);   // users without jobs: no lock taken
+            });
+        }
+        for (Thread t : threads) t.join();
+        assertTrue(p.tracked() <= 100, "tracked " + p.tracked());
+
+        now.addAndGet(1);
+        p.touch("ben");
+        assertEquals(List.of("ben", "ana"), p.pending());
+    }
+
+    @Test
+    void fullQueueFollowsTheDropPolicy() {
+        InsightPrefetcher drop = prefetcher(2, InsightPrefetcher.DropPolicy.DROP_OLDEST);
+        drop.submit("ana");
+        drop.submit("ben");
+        assertTrue(drop.submit("cleo"));                             // evicts ana, the longest waiting
+        drop.touch("dan");
+        assertTrue(drop.submit("dan"));                              // interactive: evicts ben
+        assertEquals(List.of("dan", "cleo"), drop.pending());
+        assertEquals(2, jobs("evicted"));
+
+        InsightPrefetcher resubmitted = prefetcher(2, InsightPrefetcher.DropPolicy.DROP_OLDEST);
+        resubmitted.submit("ana");
+        resubmitted.submit("ben");
+        now.addAndGet(1);
+        resubmitted.submit("ana");                                    // coalesced: ana's age restarts
+        assertTrue(resubmitted.submit("cleo"));                       // so ben is the longest waiting
+        assertEquals(List.of("ana", "cleo"), resubmitted.pending());
+        assertEquals(3, jobs("evicted"));
+
+        InsightPrefetcher reject = prefetcher(2, InsightPrefetcher.DropPolicy.REJECT_NEW);
+        reject.submit("ana");
+        reject.submit("ben");
+        assertFalse(reject.submit("cleo"));
+        assertEquals(List.of("ana", "ben"), reject.pending());
+        assertEquals(1, jobs("rejected"));
+    }
+
+    @Test
+    void generatesIntoTheCacheAndSkipsStaleOrCachedJobs() throws Exception {
+        InsightPrefetcher p = prefetcher(10, InsightPrefetcher.DropPolicy.DROP_OLDEST);
+        p.submit("ana");
+        p.submit("ben");
+        assertTrue(p.runNext());
+        assertEquals(1, calls.get());
+        assertTrue(cerebras.isCached("ana"));
+        assertEquals("plan", cerebras.getInsightsAsync("ana").get(1, TimeUnit.SECONDS));   // precomputed: no second call
+        assertEquals(1, calls.get());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(11));
+        assertTrue(p.runNext());                                      // ben waited past max-queue-age
+        assertEquals(1, calls.get());
+        p.submit("ana");
+        assertTrue(p.runNext());                                      // summary unchanged: already cached
+        assertFalse(p.runNext());
+
+        assertEquals(1, calls.get());
+        assertEquals(1, jobs("generated"));
+        assertEquals(1, jobs("stale"));
+        assertEquals(1, jobs("cached"));
+        assertEquals(3, meters.get("wellness.prefetch.wait").timer().count());
+    }
+
+    @Test
+    void workersDrainTheQueueAndDisabledModeIgnoresSubmissions() throws Exception {
+        InsightPrefetcher off = new InsightPrefetcher(cerebras, meters, false, 10, InsightPrefetcher.DropPolicy.DROP_OLDEST, 1,
+                Duration.ofMinutes(15), Duration.ofMinutes(10), 100, now::get);
+        off.start();
+        assertFalse(off.submit("ana"));
+        assertEquals(0, off.size());
+
+        InsightPrefetcher on = prefetcher(10, InsightPrefetcher.DropPolicy.DROP_OLDEST);
+        on.start();
+        try {
+            for (String u : List.of("ana", "ben", "cleo")) on.submit(u);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!(cerebras.isCached("ana") && cerebras.isCached("ben") && cerebras.isCached("cleo")) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(cerebras.isCached("cleo"));
+            assertEquals(3, calls.get());
+        } finally {
+            on.close();
+        }
+    }
+}
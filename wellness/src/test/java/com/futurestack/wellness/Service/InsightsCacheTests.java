@@ -0,0 +1,124 @@
+package com.futurestack.wellness.Service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.futurestack.wellness.Service.HealthServiceTests.csv;
+import static com.futurestack.wellness.Service.HealthServiceTests.row;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InsightsCacheTests {
+
+    static final class ManualClock extends Clock {
+        long millis;
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+        @Override public Clock withZone(ZoneId zone) { return this; }
+        @Override public Instant instant() { return Instant.ofEpochMilli(millis); }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAndExpiresAfterTtl() {
+        ManualClock clock = new ManualClock();
+        SummaryStore store = new SummaryStore(10);
+        InsightsCache cache = new InsightsCache(store, 2, Duration.ofMinutes(10), clock);
+        cache.put("ana", publish(store, "ana"), "a", "A");
+        cache.put("ben", publish(store, "ben"), "b", "B");
+        assertEquals("A", cache.get("a"));                 // ben's entry is now the eldest
+        cache.put("cleo", publish(store, "cleo"), "c", "C");
+        assertNull(cache.get("b"));
+        assertEquals("C", cache.get("c"));
+
+        clock.millis += Duration.ofMinutes(10).toMillis();
+        assertNull(cache.get("a"));
+        assertEquals(new InsightsCache.Stats(2, 2, 1, 1), cache.stats());
+    }
+
+    @Test
+    void keepsOneEntryPerUserAndDropsItOnPublish() {
+        SummaryStore store = new SummaryStore(10);
+        InsightsCache cache = new InsightsCache(store, 10, Duration.ofHours(1), new ManualClock());
+        long v1 = publish(store, "ana");
+        cache.put("ana", v1, "old", "A1");
+        cache.put("ana", v1, "new", "A2");
+        assertNull(cache.get("old"));
+        assertEquals("A2", cache.get("new"));
+
+        long v2 = publish(store, "ana");
+        assertNull(cache.get("new"));
+
+        cache.put("ana", v2, "current", "A3");
+        cache.put("ana", v1, "late", "A4");               // completion for the replaced snapshot
+        assertNull(cache.get("late"));
+        assertEquals("A3", cache.get("current"));
+        cache.put("ben", 1, "unknown", "B");             // no snapshot at all
+        assertNull(cache.get("unknown"));
+    }
+
+    static long publish(SummaryStore store, String user) {
+        return store.publish(user, prev -> new UserSnapshot(store.nextVersion(), null, null, null)).version();
+    }
+
+    @Test
+    void fingerprintSeparatesParts() {
+        assertNotEquals(InsightsCache.fingerprint("ab", "c"), InsightsCache.fingerprint("a", "bc"));
+        assertEquals(InsightsCache.fingerprint("m", "p"), InsightsCache.fingerprint("m", "p"));
+    }
+
+    @Test
+    void repeatedInsightsSkipTheApiUntilTheSummaryChanges() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", ex -> {
+            byte[] body = ("{\"choices\":[{\"message\":{\"content\":\"tip " + calls.incrementAndGet() + "\"}}]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            ex.sendResponseHeaders(200, body.length);
+            ex.getResponseBody().write(body);
+            ex.close();
+        });
+        server.start();
+        try {
+            SummaryStore store = new SummaryStore(10);
+            HealthService health = new HealthService(store, new SnapshotFile(""));
+            CerebrasService cerebras = CerebrasServiceTests.service(health,
+                    new InsightsCache(store, 10, Duration.ofHours(1), new ManualClock()), server);
+
+            health.uploadAndSummarize("ana", csv(row("2024-01-02", "1000", "50", "40", "97")));
+            assertEquals("tip 1", cerebras.getInsights("ana"));
+            assertEquals("tip 1", cerebras.getInsights("ana"));
+            assertEquals(1, calls.get());
+
+            health.appendAndSummarize("ana", csv(row("2024-01-03", "2000", "50", "40", "97")));
+            assertEquals("tip 2", cerebras.getInsights("ana"));
+            assertEquals(2, calls.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void publishesHitRatioAndSize() {
+        SummaryStore store = new SummaryStore(10);
+        InsightsCache cache = new InsightsCache(store, 10, Duration.ofHours(1), new ManualClock());
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        cache.bindTo(meters);
+        cache.put("ana", publish(store, "ana"), "a", "A");
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+
+        assertEquals(2, meters.get("wellness.insights.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(1, meters.get("wellness.insights.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(1, meters.get("wellness.insights.cache.size").gauge().value());
+        assertEquals(2 / 3.0, meters.get("wellness.insights.cache.hit.ratio").gauge().value(), 1e-9);
+    }
+}
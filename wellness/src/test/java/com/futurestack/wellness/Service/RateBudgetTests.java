@@ -0,0 +1,42 @@
+package com.futurestack.wellness.Service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateBudgetTests {
+
+    long now;
+
+    @Test
+    void requestsPerMinuteBindWhenTokensAreCheap() {
+        RateBudget b = new RateBudget(3, 1_000_000, () -> now);
+        for (int i = 0; i < 3; i++) assertEquals(0, b.tryAcquire(10));
+        assertEquals(TimeUnit.SECONDS.toNanos(20), b.tryAcquire(10));   // one request refills every 20 s
+
+        now += TimeUnit.SECONDS.toNanos(20);
+        assertEquals(0, b.tryAcquire(10));
+        assertTrue(b.tryAcquire(10) > 0);
+    }
+
+    @Test
+    void tokensPerMinuteBindForLargePrompts() {
+        RateBudget b = new RateBudget(1000, 6000, () -> now);
+        assertEquals(0, b.tryAcquire(4000));
+        assertEquals(TimeUnit.SECONDS.toNanos(20), b.tryAcquire(4000));  // 2000 short at 100 tokens/s
+        now += TimeUnit.SECONDS.toNanos(20);
+        assertEquals(0, b.tryAcquire(4000));
+        assertEquals(0, new RateBudget(1000, 6000, () -> now).tryAcquire(9000), "oversized call takes a full bucket");
+    }
+
+    @Test
+    void pauseHoldsEverythingBack() {
+        RateBudget b = new RateBudget(100, 100_000, () -> now);
+        b.pause(TimeUnit.SECONDS.toNanos(2));
+        assertEquals(TimeUnit.SECONDS.toNanos(2), b.tryAcquire(1));
+        now += TimeUnit.SECONDS.toNanos(2);
+        assertEquals(0, b.tryAcquire(1));
+    }
+}
@@ -0,0 +1,162 @@
+package com.futurestack.wellness.Service;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.futurestack.wellness.Service.HealthServiceTests.csv;
+import static com.futurestack.wellness.Service.HealthServiceTests.row;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResilientCallTests {
+
+    /** What the stub does for one call: wait, then answer with a status (200 carries a completion). */
+    record Reply(int status, long delayMillis) {}
+
+    HttpServer server;
+    final ConcurrentLinkedQueue<Reply> script = new ConcurrentLinkedQueue<>();
+    final AtomicInteger calls = new AtomicInteger();
+    CerebrasService cerebras;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v1/chat/completions", ex -> {
+            int n = calls.incrementAndGet();
+            Reply r = script.poll();
+            if (r == null) r = new Reply(200, 0);
+            try { Thread.sleep(r.delayMillis()); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            byte[] b = ("{\"choices\":[{\"message\":{\"content\":\"llm " + n + "\"}}]}").getBytes(StandardCharsets.UTF_8);
+            try {
+                if (r.status() == 200) { ex.sendResponseHeaders(200, b.length); ex.getResponseBody().write(b); }
+                else ex.sendResponseHeaders(r.status(), -1);
+            } catch (Exception ignored) {
+                // client hung up (cancelled hedge or deadline)
+            } finally {
+                ex.close();
+            }
+        });
+        server.start();
+
+        SummaryStore store = new SummaryStore(10);
+        HealthService health = new HealthService(store, new SnapshotFile(""));
+        health.uploadAndSummarize("ana", csv(row("2024-01-02", "1000", "50", "40", "97")));
+        cerebras = new CerebrasService(health, new InsightsCache(store, 10, Duration.ofHours(1), new InsightsCacheTests.ManualClock()));
+        cerebras.apiKey = "test";
+        cerebras.model = "m";
+        cerebras.baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+        cerebras.deadline = Duration.ofMillis(1500);
+        cerebras.baseBackoff = Duration.ofMillis(10);
+        cerebras.maxBackoff = Duration.ofMillis(50);
+        cerebras.minHedgeDelay = Duration.ofMillis(100);
+        cerebras.breakerThreshold = 2;
+        cerebras.breakerOpenFor = Duration.ofMillis(300);
+    }
+
+    @AfterEach
+    void stop() { cerebras.close(); server.stop(0); }
+
+    @Test
+    void hedgeAnswersWhenTheFirstAttemptStalls() throws Exception {
+        cerebras.init();
+        script.add(new Reply(200, 3000));
+        long t0 = System.nanoTime();
+        assertEquals("llm 2", cerebras.getInsights("ana"));
+        assertTrue(System.nanoTime() - t0 < TimeUnit.MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    void retriesServerErrorsWithBackoff() throws Exception {
+        cerebras.hedge = false;
+        cerebras.init();
+        script.add(new Reply(503, 0));
+        script.add(new Reply(429, 0));
+        assertEquals("llm 3", cerebras.getInsights("ana"));
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        cerebras.hedge = false;
+        cerebras.init();
+        script.add(new Reply(401, 0));
+        var e = assertThrows(CerebrasService.UpstreamException.class, () -> cerebras.getInsights("ana"));
+        assertEquals(401, e.status());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void deadlineAndOpenCircuitFallBackToRules() throws Exception {
+        cerebras.hedge = false;
+        cerebras.init();
+        script.add(new Reply(200, 3000));
+        script.add(new Reply(500, 0));
+        script.add(new Reply(500, 0));
+        script.add(new Reply(500, 0));
+
+        long t0 = System.nanoTime();
+        String first = cerebras.getInsights("ana");                    // deadline
+        assertTrue(System.nanoTime() - t0 < TimeUnit.MILLISECONDS.toNanos(2500));
+        assertTrue(first.startsWith("AI coach is unavailable"), first);
+        assertTrue(cerebras.getInsights("ana").startsWith("AI coach is unavailable"));   // 3 x 500: circuit opens
+        int before = calls.get();
+
+        String open = cerebras.getInsights("ana");
+        assertEquals(before, calls.get(), "open circuit must not call upstream");
+        assertTrue(open.contains("steps/day"));
+        assertThrows(CerebrasService.CircuitOpenException.class, () -> {
+            try { cerebras.getInsightsStrict("ana").join(); } catch (java.util.concurrent.CompletionException e) { throw e.getCause(); }
+        });
+
+        Thread.sleep(350);                                             // half-open probe succeeds and closes it
+        assertTrue(cerebras.getInsights("ana").startsWith("llm"));
+    }
+
+    @Test
+    void breakerOpensAfterConsecutiveFailuresAndProbesOnce() {
+        long[] now = {0};
+        CircuitBreaker b = new CircuitBreaker(2, Duration.ofSeconds(1), () -> now[0]);
+        assertTrue(b.tryAcquire()); b.onFailure();
+        assertTrue(b.tryAcquire()); b.onSuccess();
+        assertTrue(b.tryAcquire()); b.onFailure();
+        assertTrue(b.tryAcquire()); b.onFailure();
+        assertFalse(b.tryAcquire());
+        now[0] += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(b.tryAcquire());
+        assertFalse(b.tryAcquire(), "only one probe");
+        b.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, b.state());
+        now[0] += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(b.tryAcquire());
+        b.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, b.state());
+    }
+
+    @Test
+    void unsettledProbesDoNotWedgeTheBreaker() {
+        long[] now = {0};
+        CircuitBreaker b = new CircuitBreaker(1, Duration.ofSeconds(1), () -> now[0]);
+        assertTrue(b.tryAcquire()); b.onFailure();
+        now[0] += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(b.tryAcquire());
+        b.release();                                                   // probe's caller went away
+        assertEquals(CircuitBreaker.State.OPEN, b.state());
+        assertTrue(b.tryAcquire(), "next call probes straight away");
+
+        assertFalse(b.tryAcquire());                                   // probe lost without any report
+        assertEquals(Duration.ofSeconds(1), b.retryAfter());
+        now[0] += TimeUnit.SECONDS.toNanos(1);
+        assertTrue(b.tryAcquire(), "a probe silent for open-for is presumed lost");
+        b.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, b.state());
+    }
+}
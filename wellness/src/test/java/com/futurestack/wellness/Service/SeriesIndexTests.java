@@ -0,0 +1,77 @@
+package com.futurestack.wellness.Service;
+
+import com.futurestack.wellness.Model.DailySample;
+import com.futurestack.wellness.Model.Summary7d;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SeriesIndexTests {
+
+    /** Random day folded from a few rows; HR and HRV columns are sometimes missing entirely. */
+    static DayAccumulator day(Random r) {
+        DayAccumulator acc = new DayAccumulator();
+        boolean noHr = r.nextInt(5) == 0, noHrv = r.nextInt(3) == 0;
+        for (int row = 0, rows = 1 + r.nextInt(3); row < rows; row++) {
+            for (HaeField f : HaeField.ALL) {
+                switch (f.kind) {
+                    case SUM      -> acc.add(f, r.nextInt(300));
+                    case SUM_LONG -> acc.addLong(f, r.nextInt(4000));
+                    case AVG      -> acc.add(f, 90 + r.nextDouble() * 10);
+                    case AVG_INT  -> { if (!noHr) acc.addLong(f, 50 + r.nextInt(40)); }
+                    case MEDIAN   -> { if (!noHrv) acc.add(f, r.nextInt(80)); }
+                    case DATE     -> { }
+                }
+            }
+        }
+        return acc;
+    }
+
+    static DailyColumns randomColumns(Random r, int n) {
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+        LocalDate d = LocalDate.of(2023, 1, 1);
+        for (int i = 0; i < n; i++) { byDate.put(d, day(r)); d = d.plusDays(1 + r.nextInt(2)); }
+        return DailyColumns.of(byDate);
+    }
+
+    @Test
+    void rangeQueriesMatchBruteForce() {
+        Random r = new Random(3);
+        DailyColumns cols = randomColumns(r, 400);
+        List<DailySample> days = new ArrayList<>();
+        for (int i = 0; i < cols.size(); i++) days.add(cols.sample(i));
+        SeriesIndex scan = new SeriesIndex(cols), tree = new SeriesIndex(cols, 16, 4096), capped = new SeriesIndex(cols, 16, 100);
+
+        for (int q = 0; q < 300; q++) {
+            int a = r.nextInt(days.size()), b = a + r.nextInt(days.size() - a);
+            List<DailySample> in = days.subList(a, b + 1);
+            Summary7d s = tree.summarize(in.get(0).date(), in.get(in.size() - 1).date());
+            assertEquals(s, scan.summarize(in.get(0).date(), in.get(in.size() - 1).date()));      // short ranges and capped
+            assertEquals(s, capped.summarize(in.get(0).date(), in.get(in.size() - 1).date()));    // trees sort the range
+
+            assertEquals(in.stream().mapToLong(DailySample::steps).sum(), s.totalSteps());
+            assertEquals(in.stream().filter(x -> x.standHourCount() >= 12).count(), s.standGoalDays());
+            assertEquals(in.stream().filter(x -> x.activeEnergyKcal() >= 500).count(), s.moveGoalDays());
+            assertEquals(Math.round(in.stream().mapToDouble(DailySample::activeEnergyKcal).sum() * 100) / 100.0, s.totalActiveEnergyKcal(), 1e-6);
+            assertEquals(in.stream().map(DailySample::hrMin).filter(Objects::nonNull).min(Integer::compare).orElse(null), s.hrMin());
+            assertEquals(in.stream().map(DailySample::hrMax).filter(Objects::nonNull).max(Integer::compare).orElse(null), s.hrMax());
+            assertEquals(in.stream().mapToDouble(DailySample::spo2Pct).min().orElseThrow(), s.spo2MinPct());
+            assertEquals(in.stream().mapToDouble(DailySample::spo2Pct).average().orElseThrow(), s.spo2AvgPct(), 1e-9);
+
+            double[] hrv = in.stream().map(DailySample::hrvMs).filter(Objects::nonNull).mapToDouble(x -> x).sorted().toArray();
+            Double median = hrv.length == 0 ? null : hrv.length % 2 == 0
+                    ? (hrv[hrv.length/2 - 1] + hrv[hrv.length/2]) / 2.0 : hrv[hrv.length/2];
+            assertEquals(median, s.hrvMedianMs());
+        }
+    }
+
+    @Test
+    void emptyRangeIsNull() {
+        SeriesIndex idx = new SeriesIndex(DailyColumns.of(new TreeMap<>(Map.of(LocalDate.of(2024, 3, 1), day(new Random(1))))));
+        assertNull(idx.summarize(LocalDate.of(2024, 3, 2), LocalDate.of(2024, 3, 9)));
+        assertNotNull(idx.summarize(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 3, 1)));
+    }
+}
@@ -0,0 +1,207 @@
+package com.futurestack.wellness.Service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotFileTests {
+
+    static DailyColumns randomColumns(Random r, int days) {
+        NavigableMap<LocalDate, DayAccumulator> byDate = new TreeMap<>();
+        for (int i = 0; i < days; i++) byDate.put(LocalDate.of(2024, 1, 1).plusDays(i), SeriesIndexTests.day(r));
+        return DailyColumns.of(byDate);
+    }
+
+    static void assertSameDays(DailyColumns want, DailyColumns got) {
+        assertEquals(want.size(), got.size());
+        for (int i = 0; i < want.size(); i++) assertEquals(want.sample(i), got.sample(i));
+    }
+
+    @Test
+    void latestRecordPerUserSurvivesReopen(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("s.bin");
+        Random r = new Random(3);
+        DailyColumns ana1 = randomColumns(r, 40), ana2 = randomColumns(r, 41), ben = randomColumns(r, 5);
+
+        SnapshotFile snap = new SnapshotFile(file.toString());
+        snap.append("ana", 1, ana1);
+        snap.append("ben", 2, ben);
+        snap.append("ana", 3, ana2);
+        snap.append("ana", 2, ana1);                       // stale publish loses
+        assertSameDays(ana2, snap.load("ana"));
+        snap.close();
+
+        SnapshotFile reopened = new SnapshotFile(file.toString());
+        assertEquals(Set.of("ana", "ben"), reopened.users());
+        assertSameDays(ana2, reopened.load("ana"));
+        assertSameDays(ben, reopened.load("ben"));
+        assertNull(reopened.load("cleo"));
+        reopened.close();
+    }
+
+    @Test
+    void dropsTornTail(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("s.bin");
+        DailyColumns days = randomColumns(new Random(4), 10);
+        SnapshotFile snap = new SnapshotFile(file.toString());
+        snap.append("ana", 1, days);
+        snap.append("ben", 2, days);
+        snap.close();
+        long intact = Files.size(file);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) { ch.truncate(intact - 7); }
+
+        SnapshotFile reopened = new SnapshotFile(file.toString());
+        assertEquals(Set.of("ana"), reopened.users());
+        assertSameDays(days, reopened.load("ana"));
+        reopened.append("ben", 1, days);                    // appends after the cut, not after the garbage
+        reopened.close();
+        assertEquals(intact, Files.size(file));
+    }
+
+    @Test
+    void truncatesAtTheFirstRecordWhoseChecksumFails(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("s.bin");
+        DailyColumns days = randomColumns(new Random(12), 10);
+        SnapshotFile snap = new SnapshotFile(file.toString());
+        snap.append("ana", 1, days);
+        long ana = Files.size(file);
+        snap.append("ben", 2, days);
+        long ben = Files.size(file);
+        snap.append("cleo", 3, days);
+        snap.close();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            ch.read(b, (ana + ben) / 2);
+            ch.write(b.put(0, (byte) ~b.get(0)).flip(), (ana + ben) / 2);         // one flipped byte inside ben's record
+        }
+
+        SnapshotFile reopened = new SnapshotFile(file.toString());
+        assertEquals(Set.of("ana"), reopened.users());
+        assertSameDays(days, reopened.load("ana"));
+        reopened.close();
+        assertEquals(ana, Files.size(file));
+    }
+
+    @Test
+    void failedWriteDoesNotCostTheRecordsAfterIt(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("s.bin");
+        DailyColumns days = randomColumns(new Random(13), 10);
+        AtomicInteger fail = new AtomicInteger();                        // 1: fail alone, 2: fail after cleo reserved behind it
+        SnapshotFile snap = new SnapshotFile(file.toString(), Long.MAX_VALUE) {
+            @Override
+            void writeFully(ByteBuffer rec, long at) throws IOException {
+                int mode = fail.getAndSet(0);
+                if (mode == 2) append("cleo", 9, days);
+                if (mode > 0) throw new IOException("disk full");
+                super.writeFully(rec, at);
+            }
+        };
+        snap.append("ana", 1, days);
+        long ana = Files.size(file);
+        fail.set(1);
+        assertThrows(IOException.class, () -> snap.append("ben", 2, days));
+        snap.append("dan", 3, days);                                       // the range was handed back
+        assertEquals(2 * ana - 16, Files.size(file));                      // header plus two records of the same size
+        fail.set(2);
+        assertThrows(IOException.class, () -> snap.append("ben", 4, days));
+        snap.append("ben", 5, days);
+        snap.close();
+
+        SnapshotFile reopened = new SnapshotFile(file.toString());
+        assertEquals(Set.of("ana", "ben", "cleo", "dan"), reopened.users());   // startup stepped over the padding
+        for (String u : List.of("ana", "ben", "cleo", "dan")) assertSameDays(days, reopened.load(u));
+        reopened.close();
+    }
+
+    @Test
+    void appendsOnlyTheSegmentsAPublishChanged(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("s.bin");
+        DailyColumns days = randomColumns(new Random(8), 300);
+        SnapshotFile snap = new SnapshotFile(file.toString());
+        snap.append("ana", 1, days);
+        long full = Files.size(file);
+
+        DailyColumns appended = days.merge(new TreeMap<>(Map.of(LocalDate.of(2024, 1, 1).plusDays(300), SeriesIndexTests.day(new Random(9)))));
+        snap.append("ana", 2, appended);
+        long delta = Files.size(file) - full;
+        assertTrue(delta < full / 4, "delta " + delta + " of " + full);           // the open segment, not the history
+        snap.append("ana", 3, appended);                                       // nothing changed: nothing written
+        assertEquals(full + delta, Files.size(file));
+        snap.close();
+
+        SnapshotFile reopened = new SnapshotFile(file.toString());
+        assertSameDays(appended, reopened.load("ana"));
+        DailyColumns again = reopened.load("ana").merge(new TreeMap<>(Map.of(LocalDate.of(2024, 1, 1).plusDays(301), SeriesIndexTests.day(new Random(10)))));
+        reopened.append("ana", 1, again);                                      // segment ids survive the restart
+        assertTrue(Files.size(file) - full - delta < full / 4);
+        reopened.close();
+        assertSameDays(again, new SnapshotFile(file.toString()).load("ana"));
+    }
+
+    @Test
+    void concurrentAppendsCompactAtRuntime(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("s.bin");
+        Random r = new Random(6);
+        DailyColumns[] versions = new DailyColumns[4];
+        for (int i = 0; i < versions.length; i++) versions[i] = randomColumns(r, 30 + i);
+        long record = versions[0].serializedSize();
+
+        SnapshotFile snap = new SnapshotFile(file.toString(), 20 * record);
+        AtomicLong version = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String user = "u" + t;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++) snap.append(user, version.incrementAndGet(), versions[i % versions.length]);
+                return null;
+            }));
+        }
+        for (Future<?> f : done) f.get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+        assertTrue(Files.size(file) < 60 * record, "size " + Files.size(file));   // 800 records written
+        for (int t = 0; t < 4; t++) assertSameDays(versions[199 % versions.length], snap.load("u" + t));
+        snap.close();
+
+        SnapshotFile reopened = new SnapshotFile(file.toString());
+        for (int t = 0; t < 4; t++) assertSameDays(versions[199 % versions.length], reopened.load("u" + t));
+        reopened.close();
+    }
+
+    @Test
+    void movesAsideFileWithAnotherSchema(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("s.bin");
+        Files.write(file, new byte[]{ 'n', 'o', 'p', 'e', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3 });
+
+        SnapshotFile snap = new SnapshotFile(file.toString());
+        assertTrue(snap.users().isEmpty());
+        snap.close();
+        try (var listing = Files.list(dir)) {
+            assertTrue(listing.anyMatch(p -> p.getFileName().toString().startsWith("s.bin.incompatible-")));
+        }
+    }
+
+    @Test
+    void disabledWithoutPath() throws Exception {
+        SnapshotFile snap = new SnapshotFile("");
+        assertFalse(snap.enabled());
+        snap.append("ana", 1, randomColumns(new Random(1), 3));
+        assertNull(snap.load("ana"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.futurestack.wellness.Service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SummaryStoreTests {
+
+    static UserSnapshot snap(SummaryStore store) { return new UserSnapshot(store.nextVersion(), null, null, null); }
+
+    @Test
+    void evictsUnreferencedUsersFirst() {
+        SummaryStore store = new SummaryStore(3);
+        for (String u : new String[]{"a", "b", "c"}) store.publish(u, prev -> snap(store));
+        store.publish("d", prev -> snap(store));     // first sweep clears every bit, evicts "a"
+        assertNull(store.get("a"));
+
+        store.get("b");                               // b is read again, so c goes next
+        store.publish("e", prev -> snap(store));
+        assertNotNull(store.get("b"));
+        assertNull(store.get("c"));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    void concurrentPublishesStayBoundedAndVersionsAreUnique() throws Exception {
+        SummaryStore store = new SummaryStore(500);
+        Set<Long> versions = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            int base = t * 10_000;
+            pool.submit(() -> {
+                for (int i = 0; i < 5_000; i++) versions.add(store.publish("u" + (base + i), prev -> snap(store)).version());
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertTrue(store.size() <= 500 + 8, "size " + store.size());
+        assertEquals(8 * 5_000, versions.size());
+
+        store.publish("x", prev -> snap(store));
+        UserSnapshot first = store.get("x");
+        store.publish("x", prev -> snap(store));
+        assertTrue(store.get("x").version() > first.version());
+    }
+}